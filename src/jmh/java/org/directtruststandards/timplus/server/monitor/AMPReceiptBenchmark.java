@@ -0,0 +1,115 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.jivesoftware.smackx.amp.AMPDeliverCondition;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.PacketExtension;
+
+/**
+ * Compares building a delivery AMP receipt element by element (the previous generateDeliveryAMPMessage) with the
+ * AMPReceiptTemplate, for both the direct and stored conditions.  Setup fails if the two stanzas are not identical.
+ * The serialized variants include writing the receipt out as XML:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="AMPReceiptBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AMPReceiptBenchmark
+{
+	@Param({"direct", "stored"})
+	public String condition;
+
+	protected Message message;
+
+	protected AMPReceiptTemplate template;
+
+	@Setup
+	public void setUp()
+	{
+		message = new Message();
+		message.setType(Message.Type.chat);
+		message.setID("d8f3c1a6-5a1b-4f0a-9a8e-1b2c3d4e5f60");
+		message.setFrom("alice@domain.com/mobile");
+		message.setTo("bob@domain.com/desktop");
+		message.setBody("Patient results for review are attached to the referral record.");
+
+		template = new AMPReceiptTemplate();
+
+		final String built = build().toXML();
+		final String templated = fromTemplate().toXML();
+		if (!built.equals(templated))
+			throw new IllegalStateException("Template receipt differs from the built receipt:\n" + built + "\n" + templated);
+	}
+
+	@Benchmark
+	public Packet elementByElement()
+	{
+		return build();
+	}
+
+	@Benchmark
+	public Packet template()
+	{
+		return fromTemplate();
+	}
+
+	@Benchmark
+	public String elementByElementSerialized()
+	{
+		return build().toXML();
+	}
+
+	@Benchmark
+	public String templateSerialized()
+	{
+		return fromTemplate().toXML();
+	}
+
+	protected Packet fromTemplate()
+	{
+		return template.create(message.getTo(), message.getFrom().asBareJID(), message.getID(),
+				message.getTo().toBareJID(), message.getFrom().toString(), condition);
+	}
+
+	/*
+	 * The previous generateDeliveryAMPMessage for a chat message
+	 */
+	protected Packet build()
+	{
+		final Message msg = new Message();
+
+		msg.setFrom(message.getTo());
+		msg.setTo(message.getFrom().asBareJID());
+		msg.setID(message.getID());
+
+		final PacketExtension amp = new PacketExtension(AMPExtension.ELEMENT, AMPExtension.NAMESPACE);
+		final Element ampElement = amp.getElement();
+		ampElement.addAttribute("status", AMPExtension.Status.notify.name());
+		ampElement.addAttribute("to", message.getTo().asBareJID().toString());
+		ampElement.addAttribute("from", message.getFrom().toString());
+
+		final Element ruleElement = ampElement.addElement(new QName(AMPExtension.Rule.ELEMENT));
+		ruleElement.addAttribute(AMPExtension.Action.ATTRIBUTE_NAME, AMPExtension.Action.notify.name());
+		ruleElement.addAttribute(AMPExtension.Condition.ATTRIBUTE_NAME, AMPDeliverCondition.NAME);
+		ruleElement.addAttribute("value", condition);
+
+		msg.addExtension(amp);
+
+		return msg;
+	}
+}
@@ -0,0 +1,80 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+/**
+ * Packet monitor that runs without an XMPPServer for benchmarks.  Tracked Txs and routed packets go to a Blackhole,
+ * every room is local, and room occupants are read from a synthetic room instead of the MUC service.
+ * Occupant i has the nickname clinician{i} and the real JID clinician{i}@domain.com/mobile.
+ */
+public class BenchmarkPacketMonitor extends AbstractPacketMonitor
+{
+	public static final String DOMAIN = "domain.com";
+
+	protected final List<String> nicknames = new ArrayList<>();
+
+	protected final List<JID> userAddresses = new ArrayList<>();
+
+	protected Blackhole sink;
+
+	public BenchmarkPacketMonitor(int occupants)
+	{
+		super(new DefaultPacketTxParser(new DefaultTxParser()));
+
+		for (int i = 0; i < occupants; ++i)
+		{
+			nicknames.add("clinician" + i);
+			userAddresses.add(new JID("clinician" + i, DOMAIN, "mobile"));
+		}
+
+		// the domain lookup would otherwise go to the DomainManager
+		final RegisteredDomainCache domainCache = RegisteredDomainCache.getInstance();
+		domainCache.setTtl(TimeUnit.DAYS.toMillis(1));
+		domainCache.domainUpdated(DOMAIN, true);
+	}
+
+	public void setSink(Blackhole sink)
+	{
+		this.sink = sink;
+	}
+
+	@Override
+	public void trackTx(Tx tx)
+	{
+		sink.consume(tx);
+	}
+
+	@Override
+	protected void routePacket(JID to, Packet packet)
+	{
+		sink.consume(packet);
+	}
+
+	@Override
+	protected boolean isLocalRoom(JID roomJID)
+	{
+		return true;
+	}
+
+	@Override
+	protected Map<JID, JID> getLocalRoomParticipants(JID roomJID)
+	{
+		// same map the MUC room's occupants are turned into
+		final Map<JID, JID> retVal = new HashMap<>();
+		for (int i = 0; i < nicknames.size(); ++i)
+			retVal.put(new JID(roomJID.getNode(), roomJID.getDomain(), nicknames.get(i)), userAddresses.get(i));
+
+		return retVal;
+	}
+}
@@ -0,0 +1,61 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.io.SAXReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmpp.packet.Message;
+
+/**
+ * Parsing cost of a burst of expiration error messages into packets, as done before routing them.  newReader
+ * creates a SAX reader per message as the monitor previously did, pooledReader reuses the thread's reader
+ * as the ExpirationErrorRouter does.  Routing itself needs a running server and is not included.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="ExpirationErrorBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExpirationErrorBenchmark
+{
+	@Param({"100", "1000"})
+	public int burst;
+
+	protected List<String> errorMessages;
+
+	@Setup
+	public void setUp()
+	{
+		errorMessages = new ArrayList<>();
+		for (int i = 0; i < burst; ++i)
+			errorMessages.add("<message type=\"error\" from=\"remote.com\" to=\"user" + i + "@domain.com/mobile\" id=\"msg" + i + "\">" +
+					"<error type=\"wait\" code=\"504\"><remote-server-timeout xmlns=\"urn:ietf:params:xml:ns:xmpp-stanzas\"/></error></message>");
+	}
+
+	@Benchmark
+	public void newReader(Blackhole bh) throws Exception
+	{
+		for (String msg : errorMessages)
+			bh.consume(new Message(new SAXReader().read(new StringReader(msg)).getRootElement()));
+	}
+
+	@Benchmark
+	public void pooledReader(Blackhole bh) throws Exception
+	{
+		final SAXReader reader = ExpirationErrorRouter.readers.get();
+		for (String msg : errorMessages)
+			bh.consume(new Message(reader.read(new StringReader(msg)).getRootElement()));
+	}
+}
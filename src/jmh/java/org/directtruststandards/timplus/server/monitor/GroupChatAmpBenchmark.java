@@ -0,0 +1,106 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmpp.packet.JID;
+
+/**
+ * Load test of the sender lookups made while delivering one group chat message to every occupant of a room.
+ * Each delivery to an occupant generates a delivery AMP, which needs the sender's real JID.
+ * <p>
+ * rebuildAndScan is the previous behavior: the participant map is rebuilt from the room's occupants and scanned
+ * for the nickname, twice per delivery.  indexedLookup resolves the nickname from the cached room snapshot once per
+ * delivery.  Run with:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="GroupChatAmpBenchmark -p occupants=500"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GroupChatAmpBenchmark
+{
+	@Param({"10", "100", "500"})
+	public int occupants;
+
+	protected JID roomJID;
+
+	protected JID senderJID;
+
+	/*
+	 * Stands in for room.getOccupants(): nickname and real JID of each occupant
+	 */
+	protected List<String> nicknames;
+
+	protected List<JID> userAddresses;
+
+	protected RoomOccupantCache cache;
+
+	@Setup
+	public void setUp()
+	{
+		roomJID = new JID("careteam", "conference.domain.com", null);
+
+		nicknames = new ArrayList<>();
+		userAddresses = new ArrayList<>();
+		for (int i = 0; i < occupants; ++i)
+		{
+			nicknames.add("clinician" + i);
+			userAddresses.add(new JID("clinician" + i, "domain.com", "mobile"));
+		}
+
+		// the sender is the last occupant walked, the worst case for the scan
+		senderJID = new JID(roomJID.getNode(), roomJID.getDomain(), nicknames.get(occupants - 1));
+
+		cache = new RoomOccupantCache();
+	}
+
+	@Benchmark
+	public void rebuildAndScan(Blackhole bh)
+	{
+		for (int i = 0; i < occupants; ++i)
+		{
+			// once for the AMP recipient and once for the AMP from attribute
+			bh.consume(scanForUserJID(senderJID));
+			bh.consume(scanForUserJID(senderJID));
+		}
+	}
+
+	@Benchmark
+	public void indexedLookup(Blackhole bh)
+	{
+		for (int i = 0; i < occupants; ++i)
+			bh.consume(cache.getSnapshot(senderJID.asBareJID(), this::loadParticipants).getUserJID(senderJID));
+	}
+
+	protected JID scanForUserJID(JID nickNameJID)
+	{
+		for (Map.Entry<JID, JID> roomParticipant : loadParticipants(nickNameJID.asBareJID()).entrySet())
+			if (roomParticipant.getKey().equals(nickNameJID))
+				return roomParticipant.getValue();
+
+		return null;
+	}
+
+	protected Map<JID, JID> loadParticipants(JID room)
+	{
+		final Map<JID, JID> retVal = new HashMap<>();
+		for (int i = 0; i < occupants; ++i)
+			retVal.put(new JID(room.getNode(), room.getDomain(), nicknames.get(i)), userAddresses.get(i));
+
+		return retVal;
+	}
+}
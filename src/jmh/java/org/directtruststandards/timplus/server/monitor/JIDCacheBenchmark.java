@@ -0,0 +1,78 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmpp.packet.JID;
+
+/**
+ * Chat heavy synthetic load on the monitor's address parsing: every op is one message between two random users of a
+ * user population, parsing the sender as the outgoing path does and the recipient as the delivery path does.
+ * Compare the allocation rate (gc.alloc.rate.norm) of the previous parsing with the JIDCache:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="JIDCacheBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JIDCacheBenchmark
+{
+	protected static final int MESSAGES = 4096;
+
+	@Param({"1000", "20000"})
+	public int users;
+
+	protected String[] froms;
+
+	protected String[] tos;
+
+	protected JIDCache cache;
+
+	protected int next;
+
+	@Setup
+	public void setUp()
+	{
+		final Random random = new Random(42);
+
+		froms = new String[MESSAGES];
+		tos = new String[MESSAGES];
+		for (int i = 0; i < MESSAGES; ++i)
+		{
+			// strings are created per message like packet attributes, so the cache can't rely on identity
+			froms[i] = new String("user" + random.nextInt(users) + "@domain.com/mobile");
+			tos[i] = new String("user" + random.nextInt(users) + "@domain.com");
+		}
+
+		cache = new JIDCache();
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) throws Exception
+	{
+		final int i = next++ & (MESSAGES - 1);
+
+		bh.consume(JidCreate.from(froms[i]).asBareJid().getDomain().toString());
+		bh.consume(new JID(tos[i]).asBareJID().getDomain());
+	}
+
+	@Benchmark
+	public void cached(Blackhole bh)
+	{
+		final int i = next++ & (MESSAGES - 1);
+
+		bh.consume(cache.getBareJID(froms[i]).getDomain());
+		bh.consume(cache.getBareJID(tos[i]).getDomain());
+	}
+}
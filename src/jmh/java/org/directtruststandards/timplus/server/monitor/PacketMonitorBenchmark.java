@@ -0,0 +1,114 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smackx.amp.AMPDeliverCondition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketError;
+
+/**
+ * End to end cost of AbstractPacketMonitor.interceptPacket for each kind of stanza the monitor acts on, using
+ * the interceptor flags the server passes on that path:
+ * <ul>
+ *     <li>chat-sent, groupchat-sent: a local user sends a message and it is tracked (groupchat also resolves the
+ *     room's recipients).</li>
+ *     <li>chat-delivered, groupchat-delivered: a message is delivered to a local client and a delivery AMP is
+ *     generated and routed (groupchat also resolves the sender's nickname).</li>
+ *     <li>amp, error: a notification for a local user is tracked.</li>
+ * </ul>
+ * The monitor runs against the stubs of BenchmarkPacketMonitor with a 50 occupant room.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="PacketMonitorBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketMonitorBenchmark
+{
+	protected static final String ID = "d8f3c1a6-5a1b-4f0a-9a8e-1b2c3d4e5f60";
+
+	protected static final String BODY = "Patient results for review are attached to the referral record.";
+
+	@Param({"chat-sent", "chat-delivered", "groupchat-sent", "groupchat-delivered", "amp", "error"})
+	public String path;
+
+	protected BenchmarkPacketMonitor monitor;
+
+	protected Message packet;
+
+	protected boolean incoming;
+
+	protected boolean processed;
+
+	@Setup
+	public void setUp()
+	{
+		monitor = new BenchmarkPacketMonitor(50);
+
+		final JID room = new JID("careteam", "conference." + BenchmarkPacketMonitor.DOMAIN, null);
+		final JID sender = new JID("clinician0", BenchmarkPacketMonitor.DOMAIN, "mobile");
+		final JID recipient = new JID("clinician1", BenchmarkPacketMonitor.DOMAIN, "mobile");
+
+		switch (path)
+		{
+			case "chat-sent":
+				packet = message(Message.Type.chat, sender, recipient);
+				incoming = true;
+				break;
+			case "chat-delivered":
+				packet = message(Message.Type.chat, sender, recipient);
+				processed = true;
+				break;
+			case "groupchat-sent":
+				packet = message(Message.Type.groupchat, sender, room);
+				incoming = true;
+				break;
+			case "groupchat-delivered":
+				packet = message(Message.Type.groupchat, new JID(room.getNode(), room.getDomain(), "clinician0"), recipient);
+				processed = true;
+				break;
+			case "amp":
+				packet = new AMPReceiptTemplate().create(recipient, sender.asBareJID(), ID, recipient.toBareJID(), sender.toString(), 
+						AMPDeliverCondition.Value.direct.name());
+				break;
+			case "error":
+				packet = message(Message.Type.chat, sender, recipient).createCopy();
+				packet.setFrom(recipient);
+				packet.setTo(sender);
+				packet.setError(PacketError.Condition.recipient_unavailable);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown path " + path);
+		}
+	}
+
+	@Benchmark
+	public void interceptPacket(Blackhole bh) throws Exception
+	{
+		monitor.setSink(bh);
+		monitor.interceptPacket(packet, null, incoming, processed);
+	}
+
+	protected Message message(Message.Type type, JID from, JID to)
+	{
+		final Message msg = new Message();
+		msg.setType(type);
+		msg.setID(ID);
+		msg.setFrom(from);
+		msg.setTo(to);
+		msg.setBody(BODY);
+
+		return msg;
+	}
+}
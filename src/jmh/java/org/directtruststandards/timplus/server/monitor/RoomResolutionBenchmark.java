@@ -0,0 +1,97 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smackx.amp.AMPDeliverCondition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+/**
+ * Room and sender resolution of the monitor for varying room sizes: the room participants (cached snapshot and a
+ * rebuild after the room changed), nickname to real JID resolution, and generating the delivery AMP of a group chat
+ * and a chat message.  The monitor runs against the stubs of BenchmarkPacketMonitor.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="RoomResolutionBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoomResolutionBenchmark
+{
+	@Param({"10", "100", "500"})
+	public int occupants;
+
+	protected BenchmarkPacketMonitor monitor;
+
+	protected JID roomJID;
+
+	protected JID nickNameJID;
+
+	protected Message groupChat;
+
+	protected Message chat;
+
+	@Setup
+	public void setUp()
+	{
+		monitor = new BenchmarkPacketMonitor(occupants);
+
+		roomJID = new JID("careteam", "conference." + BenchmarkPacketMonitor.DOMAIN, null);
+
+		// the last occupant, the worst case for a scan of the room
+		nickNameJID = new JID(roomJID.getNode(), roomJID.getDomain(), "clinician" + (occupants - 1));
+
+		groupChat = new Message();
+		groupChat.setType(Message.Type.groupchat);
+		groupChat.setID("d8f3c1a6-5a1b-4f0a-9a8e-1b2c3d4e5f60");
+		groupChat.setFrom(nickNameJID);
+		groupChat.setTo(new JID("clinician0", BenchmarkPacketMonitor.DOMAIN, "mobile"));
+
+		chat = groupChat.createCopy();
+		chat.setType(Message.Type.chat);
+		chat.setFrom(new JID("clinician1", BenchmarkPacketMonitor.DOMAIN, "mobile"));
+	}
+
+	@Benchmark
+	public Object getRoomParticipants()
+	{
+		return monitor.getRoomParticipants(roomJID);
+	}
+
+	@Benchmark
+	public Object getRoomParticipantsAfterChange()
+	{
+		// an occupant joined or left since the last message
+		monitor.getRoomOccupantCache().invalidate(roomJID);
+
+		return monitor.getRoomParticipants(roomJID);
+	}
+
+	@Benchmark
+	public JID nickNameToUserJID()
+	{
+		return monitor.nickNameToUserJID(nickNameJID);
+	}
+
+	@Benchmark
+	public Packet generateGroupChatDeliveryAMPMessage()
+	{
+		return monitor.generateDeliveryAMPMessage(groupChat, AMPDeliverCondition.Value.direct.name());
+	}
+
+	@Benchmark
+	public Packet generateChatDeliveryAMPMessage()
+	{
+		return monitor.generateDeliveryAMPMessage(chat, AMPDeliverCondition.Value.direct.name());
+	}
+}
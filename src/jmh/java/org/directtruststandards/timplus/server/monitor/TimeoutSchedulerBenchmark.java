@@ -0,0 +1,137 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Compares the integration ThreadPoolTaskScheduler with the TimingWheelTaskScheduler for monitor group timeouts
+ * with 100k and 1M groups already pending on the default 180 second timeout.
+ * <p>
+ * scheduleAndCancel is the life of a group that is acknowledged in time: a timeout is scheduled on the first Tx
+ * and cancelled on release.  expireBatch is a burst of groups timing out together.  The thread pool scheduler
+ * removes cancelled tasks so the pending count stays fixed for the run.
+ * <p>
+ * A wheel schedule only queues the timeout; the ticker later moves it into a bucket and unlinks it once cancelled.
+ * So that scheduleAndCancel measures that work too, the wheel's ticker is not started for it and the benchmark thread
+ * does the transfer and the unlink inline.  The handoff between threads is not measured.  expireBatch runs the
+ * ticker as usual and measures from the schedules to the last expiry.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="TimeoutSchedulerBenchmark -jvmArgs -Xmx4g"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+public class TimeoutSchedulerBenchmark
+{
+	protected static final long GROUP_TIMEOUT = 180000;
+
+	protected static final int EXPIRE_BATCH = 10000;
+
+	protected static final Runnable NOOP = () -> {};
+
+	@Param({"threadPool", "timingWheel"})
+	public String scheduler;
+
+	@Param({"100000", "1000000"})
+	public int pendingGroups;
+
+	protected TaskScheduler taskScheduler;
+
+	/*
+	 * Set when the benchmark thread does the ticker's work
+	 */
+	protected TimingWheelTaskScheduler inlineWheel;
+
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkParams params)
+	{
+		final Date timeout = new Date(System.currentTimeMillis() + GROUP_TIMEOUT);
+
+		if ("timingWheel".equals(scheduler))
+		{
+			final TimingWheelTaskScheduler wheel = new TimingWheelTaskScheduler(100, 512, 1, null);
+
+			// fill the wheel before the ticker runs, transferring before the new timeout queue is full
+			for (int i = 0; i < pendingGroups; ++i)
+			{
+				wheel.schedule(NOOP, timeout);
+				if ((i + 1) % TimingWheelTaskScheduler.MAX_NEW_TIMEOUTS == 0)
+					wheel.transferNewTimeouts();
+			}
+			wheel.transferNewTimeouts();
+
+			if (params.getBenchmark().endsWith(".scheduleAndCancel"))
+				inlineWheel = wheel;
+			else
+				wheel.start();
+
+			taskScheduler = wheel;
+		}
+		else
+		{
+			final ThreadPoolTaskScheduler pool = new ThreadPoolTaskScheduler();
+			pool.setPoolSize(10);
+			pool.setRemoveOnCancelPolicy(true);
+			pool.initialize();
+			taskScheduler = pool;
+
+			for (int i = 0; i < pendingGroups; ++i)
+				taskScheduler.schedule(NOOP, timeout);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		if (taskScheduler instanceof TimingWheelTaskScheduler)
+			((TimingWheelTaskScheduler)taskScheduler).stop();
+		else
+			((ThreadPoolTaskScheduler)taskScheduler).shutdown();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public boolean scheduleAndCancel()
+	{
+		final ScheduledFuture<?> future = taskScheduler.schedule(NOOP, new Date(System.currentTimeMillis() + GROUP_TIMEOUT));
+		if (inlineWheel != null)
+			inlineWheel.transferNewTimeouts();
+
+		final boolean cancelled = future.cancel(false);
+		if (inlineWheel != null)
+			inlineWheel.removeCancelled();
+
+		return cancelled;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void expireBatch() throws InterruptedException
+	{
+		final CountDownLatch expired = new CountDownLatch(EXPIRE_BATCH);
+		final Runnable task = expired::countDown;
+
+		final Date timeout = new Date(System.currentTimeMillis() + 10);
+		for (int i = 0; i < EXPIRE_BATCH; ++i)
+			taskScheduler.schedule(task, timeout);
+
+		expired.await();
+	}
+}
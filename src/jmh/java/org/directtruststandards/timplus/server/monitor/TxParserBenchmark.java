@@ -0,0 +1,86 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketError;
+
+/**
+ * Compares building a Tx by serializing the packet and re-parsing it with the DefaultTxParser against
+ * reading the packet element directly.  parseStanza is the DefaultTxParser alone on an already serialized
+ * stanza.  AMP and error stanzas are always handed to the DefaultTxParser.  Run with -prof gc to see the allocation difference:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="TxParserBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TxParserBenchmark
+{
+	@Param({"chat", "groupchat", "amp", "error"})
+	public String messageType;
+	
+	protected Message message;
+	
+	protected String stanza;
+	
+	protected DefaultTxParser stringParser;
+	
+	protected DefaultPacketTxParser packetParser;
+	
+	@Setup
+	public void setUp()
+	{
+		if ("amp".equals(messageType))
+		{
+			message = new AMPReceiptTemplate().create(new JID("bob@domain.com/desktop"), new JID("alice@domain.com"), 
+					"d8f3c1a6-5a1b-4f0a-9a8e-1b2c3d4e5f60", "bob@domain.com", "alice@domain.com/mobile", "direct");
+		}
+		else
+		{
+			message = new Message();
+			message.setType("error".equals(messageType) ? Message.Type.chat : Message.Type.valueOf(messageType));
+			message.setID("d8f3c1a6-5a1b-4f0a-9a8e-1b2c3d4e5f60");
+			message.setFrom("alice@domain.com/mobile");
+			message.setTo(Message.Type.groupchat.name().equals(messageType) ? "room@conference.domain.com" : "bob@domain.com");
+			message.setBody("Patient results for review are attached to the referral record.");
+			
+			if ("error".equals(messageType))
+				message.setError(PacketError.Condition.recipient_unavailable);
+		}
+		stanza = message.toXML();
+		
+		stringParser = new DefaultTxParser();
+		packetParser = new DefaultPacketTxParser(stringParser);
+	}
+	
+	@Benchmark
+	public Tx parseStanza()
+	{
+		return stringParser.parseStanza(stanza);
+	}
+	
+	@Benchmark
+	public Tx serializeAndParse()
+	{
+		return stringParser.parseStanza(message.toXML());
+	}
+	
+	@Benchmark
+	public Tx parsePacketElement()
+	{
+		return packetParser.parsePacket(message);
+	}
+}
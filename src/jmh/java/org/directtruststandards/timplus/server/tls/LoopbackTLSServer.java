@@ -0,0 +1,185 @@
+package org.directtruststandards.timplus.server.tls;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+
+/**
+ * A TLS server on the loopback interface that drives an SSLEngine the way the listeners do, but over blocking
+ * channels.  Each connection is handshaked, the client's request byte is echoed back, and the connection is closed.
+ * The echo also delivers any TLS 1.3 session tickets to the client before it closes.
+ */
+public class LoopbackTLSServer implements Closeable
+{
+	protected static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	protected final SSLContext context;
+
+	protected final String protocol;
+
+	protected final ServerSocketChannel serverChannel;
+
+	protected final ExecutorService executor;
+
+	protected final Thread acceptor;
+
+	protected final LongAdder failures = new LongAdder();
+
+	protected volatile boolean running = true;
+
+	public LoopbackTLSServer(SSLContext context, String protocol) throws IOException
+	{
+		this.context = context;
+		this.protocol = protocol;
+
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+
+		executor = Executors.newCachedThreadPool(runnable ->
+		{
+			final Thread thread = new Thread(runnable, "tls-benchmark-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		acceptor = new Thread(this::accept, "tls-benchmark-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public InetSocketAddress getAddress() throws IOException
+	{
+		return (InetSocketAddress)serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * Returns the number of connections the server failed to handshake or echo.
+	 */
+	public long getFailures()
+	{
+		return failures.sum();
+	}
+
+	protected void accept()
+	{
+		while (running)
+		{
+			try
+			{
+				final SocketChannel channel = serverChannel.accept();
+				channel.socket().setTcpNoDelay(true);
+				executor.execute(() -> serve(channel));
+			}
+			catch (IOException e)
+			{
+				if (running)
+					failures.increment();
+			}
+		}
+	}
+
+	protected void serve(SocketChannel channel)
+	{
+		try (SocketChannel c = channel)
+		{
+			final SSLEngine engine = context.createSSLEngine();
+			engine.setUseClientMode(false);
+			engine.setEnabledProtocols(new String[] {protocol});
+			TLSProviders.enableSessionTickets(engine);
+
+			final SSLSession session = engine.getSession();
+			final ByteBuffer netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+			final ByteBuffer netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+			final ByteBuffer app = ByteBuffer.allocate(session.getApplicationBufferSize());
+
+			engine.beginHandshake();
+			boolean handshaking = true;
+			while (handshaking)
+			{
+				switch (engine.getHandshakeStatus())
+				{
+					case NEED_UNWRAP:
+						unwrap(engine, c, netIn, app);
+						break;
+					case NEED_WRAP:
+						wrap(engine, c, EMPTY, netOut);
+						break;
+					case NEED_TASK:
+						Runnable task;
+						while ((task = engine.getDelegatedTask()) != null)
+							task.run();
+						break;
+					default:
+						handshaking = false;
+				}
+			}
+
+			while (app.position() == 0)
+				unwrap(engine, c, netIn, app);
+
+			app.flip();
+			while (app.hasRemaining())
+				wrap(engine, c, app, netOut);
+		}
+		catch (IOException e)
+		{
+			failures.increment();
+		}
+	}
+
+	/**
+	 * Unwraps the buffered records, reading more from the channel when a record is incomplete.  netIn is left in
+	 * write mode.
+	 */
+	protected static void unwrap(SSLEngine engine, SocketChannel channel, ByteBuffer netIn, ByteBuffer app) throws IOException
+	{
+		netIn.flip();
+		final SSLEngineResult result = engine.unwrap(netIn, app);
+		netIn.compact();
+
+		switch (result.getStatus())
+		{
+			case BUFFER_UNDERFLOW:
+				if (channel.read(netIn) < 0)
+					throw new EOFException("Client closed the connection during the exchange");
+				break;
+			case CLOSED:
+				throw new EOFException("Client closed the TLS session during the exchange");
+			default:
+				break;
+		}
+	}
+
+	protected static void wrap(SSLEngine engine, SocketChannel channel, ByteBuffer src, ByteBuffer netOut) throws IOException
+	{
+		netOut.clear();
+		final SSLEngineResult result = engine.wrap(src, netOut);
+		if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+			throw new EOFException("TLS session closed during the exchange");
+
+		netOut.flip();
+		while (netOut.hasRemaining())
+			channel.write(netOut);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		running = false;
+		serverChannel.close();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,187 @@
+package org.directtruststandards.timplus.server.tls;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Handshake rate of full and resumed TLS handshakes against a loopback server, per TLS provider and protocol.  Each
+ * operation connects, handshakes, exchanges one byte, and closes, like a client reconnecting after a network change.
+ * fullHandshake presents a new session cache key every time so nothing is resumed; resumedHandshake reconnects to
+ * the same peer, so after the first connection the session is resumed from the server cache (TLS 1.2) or a session
+ * ticket (TLS 1.3).  The server certificate is a 2048 bit RSA key, as issued to most domains.
+ * <p>
+ * The conscrypt provider needs the conscrypt profile:
+ * <pre>
+ * mvn -Pjmh,conscrypt test-compile exec:exec -Djmh.args="TLSHandshakeBenchmark"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TLSHandshakeBenchmark
+{
+	protected static final String PASSWORD = "benchmark";
+
+	@Param({TLSProviders.PROVIDER_JDK, TLSProviders.PROVIDER_CONSCRYPT})
+	public String provider;
+
+	@Param({"TLSv1.2", "TLSv1.3"})
+	public String protocol;
+
+	protected File keyStoreFile;
+
+	protected LoopbackTLSServer server;
+
+	protected InetSocketAddress address;
+
+	protected SSLSocketFactory clientFactory;
+
+	protected final AtomicLong peers = new AtomicLong();
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		// each parameter combination runs in its own forked JVM, so the provider can be installed JVM wide
+		if (!provider.equals(TLSProviders.install(provider)))
+			throw new IllegalStateException("TLS provider " + provider + " is not available; add the conscrypt profile");
+		TLSProviders.configureSessions(TLSProviders.SESSION_CACHE_SIZE_DEFAULT, true);
+
+		final KeyStore keyStore = createKeyStore();
+
+		final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, PASSWORD.toCharArray());
+		final SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+		serverContext.getServerSessionContext().setSessionCacheSize(TLSProviders.SESSION_CACHE_SIZE_DEFAULT);
+		serverContext.getServerSessionContext().setSessionTimeout(TLSProviders.SESSION_TIMEOUT_DEFAULT);
+
+		final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(keyStore);
+		final SSLContext clientContext = SSLContext.getInstance("TLS");
+		clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+		clientFactory = clientContext.getSocketFactory();
+
+		server = new LoopbackTLSServer(serverContext, protocol);
+		address = server.getAddress();
+	}
+
+	/**
+	 * Generates a self signed server certificate with the JDK's keytool.
+	 */
+	protected KeyStore createKeyStore() throws Exception
+	{
+		keyStoreFile = File.createTempFile("tls-benchmark", ".p12");
+		keyStoreFile.delete();
+
+		final String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		final Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "RSA", "-keysize", "2048",
+				"-dname", "CN=localhost", "-validity", "2", "-storetype", "PKCS12", "-keystore", keyStoreFile.getPath(),
+				"-storepass", PASSWORD, "-keypass", PASSWORD)
+				.redirectErrorStream(true)
+				.start();
+		if (process.waitFor() != 0)
+			throw new IllegalStateException("keytool failed with exit code " + process.exitValue());
+
+		final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = new FileInputStream(keyStoreFile))
+		{
+			keyStore.load(in, PASSWORD.toCharArray());
+		}
+		return keyStore;
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		if (server != null)
+		{
+			if (server.getFailures() > 0)
+				System.err.println(server.getFailures() + " server side handshakes failed");
+			server.close();
+		}
+		if (keyStoreFile != null)
+			keyStoreFile.delete();
+	}
+
+	@Benchmark
+	public int fullHandshake() throws IOException
+	{
+		return connect("peer-" + peers.incrementAndGet() + ".invalid");
+	}
+
+	@Benchmark
+	public int resumedHandshake() throws IOException
+	{
+		return connect("localhost");
+	}
+
+	/**
+	 * Connects, handshakes, and exchanges a byte.  Client session caches are keyed by peer host and port, so the
+	 * host decides whether a session can be resumed.
+	 */
+	protected int connect(String host) throws IOException
+	{
+		final Socket plain = new Socket();
+		plain.setTcpNoDelay(true);
+		plain.connect(address);
+
+		try (SSLSocket socket = (SSLSocket)clientFactory.createSocket(plain, host, address.getPort(), true))
+		{
+			socket.setEnabledProtocols(new String[] {protocol});
+			useSessionTickets(socket);
+
+			final OutputStream out = socket.getOutputStream();
+			out.write(1);
+			out.flush();
+
+			final InputStream in = socket.getInputStream();
+			final int echo = in.read();
+			if (echo != 1)
+				throw new IOException("Unexpected echo " + echo);
+			return echo;
+		}
+	}
+
+	/**
+	 * Conscrypt clients only offer and keep session tickets when asked to, which TLS 1.3 resumption needs.
+	 */
+	protected void useSessionTickets(SSLSocket socket)
+	{
+		if (!TLSProviders.PROVIDER_CONSCRYPT.equals(provider))
+			return;
+
+		try
+		{
+			Class.forName(TLSProviders.CONSCRYPT_CLASS).getMethod("setUseSessionTickets", SSLSocket.class, boolean.class)
+				.invoke(null, socket, true);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException("Unable to enable session tickets on the Conscrypt client", e);
+		}
+	}
+}
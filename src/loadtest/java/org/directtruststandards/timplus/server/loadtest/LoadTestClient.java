@@ -0,0 +1,154 @@
+package org.directtruststandards.timplus.server.loadtest;
+
+import java.net.InetAddress;
+
+import javax.net.ssl.SSLContext;
+
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.bosh.BOSHConfiguration;
+import org.jivesoftware.smack.bosh.XMPPBOSHConnection;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.jxmpp.jid.EntityBareJid;
+import org.jxmpp.jid.impl.JidCreate;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * A simulated user session over c2s or BOSH.  Sends chat messages to other sessions and reports the messages
+ * delivered to it and the AMP receipts the server generates for the messages it sent.
+ */
+public class LoadTestClient
+{
+	protected static final String AMP_ELEMENT = "amp";
+
+	protected static final String AMP_NAMESPACE = "http://jabber.org/protocol/amp";
+
+	protected static final String RESOURCE = "loadtest";
+
+	protected final AbstractXMPPConnection connection;
+
+	protected final EntityBareJid jid;
+
+	protected final LoadTestStats stats;
+
+	/**
+	 * Creates a session connecting to the c2s port.  The loopback server presents a self signed certificate
+	 * for the domain, so the SSL context is expected to trust it.
+	 */
+	public static LoadTestClient c2s(String username, String password, String domain, int port, SSLContext sslContext,
+			LoadTestStats stats) throws XmppStringprepException
+	{
+		final XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+				.setUsernameAndPassword(username, password)
+				.setXmppDomain(domain)
+				.setHostAddress(InetAddress.getLoopbackAddress())
+				.setPort(port)
+				.setResource(RESOURCE)
+				.setSecurityMode(SecurityMode.required)
+				.setCustomSSLContext(sslContext)
+				.setHostnameVerifier((hostname, session) -> true)
+				.build();
+
+		return new LoadTestClient(new XMPPTCPConnection(config), username, domain, stats);
+	}
+
+	/**
+	 * Creates a session connecting to the HTTP bind port.
+	 */
+	public static LoadTestClient bosh(String username, String password, String domain, int port, LoadTestStats stats)
+			throws XmppStringprepException
+	{
+		final BOSHConfiguration config = BOSHConfiguration.builder()
+				.setUsernameAndPassword(username, password)
+				.setXmppDomain(domain)
+				.setHost(InetAddress.getLoopbackAddress().getHostAddress())
+				.setPort(port)
+				.setFile("/http-bind/")
+				.setUseHttps(false)
+				.setResource(RESOURCE)
+				.setSecurityMode(SecurityMode.disabled)
+				.build();
+
+		return new LoadTestClient(new XMPPBOSHConnection(config), username, domain, stats);
+	}
+
+	protected LoadTestClient(AbstractXMPPConnection connection, String username, String domain, LoadTestStats stats)
+			throws XmppStringprepException
+	{
+		this.connection = connection;
+		this.jid = JidCreate.entityBareFrom(username + "@" + domain);
+		this.stats = stats;
+
+		// sync listeners run on the connection's own thread, so timestamps are taken as soon as the stanza is parsed
+		connection.addSyncStanzaListener(this::received, StanzaTypeFilter.MESSAGE);
+	}
+
+	public EntityBareJid getJID()
+	{
+		return jid;
+	}
+
+	/**
+	 * Connects, authenticates, and sends initial presence so messages are delivered rather than stored offline.
+	 */
+	public void connect() throws Exception
+	{
+		connection.connect().login();
+	}
+
+	public boolean isConnected()
+	{
+		return connection.isAuthenticated();
+	}
+
+	public void disconnect()
+	{
+		connection.disconnect();
+	}
+
+	/**
+	 * Sends a chat message.
+	 * @param to The recipient session.
+	 * @param scheduled The time in nanos the message was scheduled to be sent.
+	 */
+	public void send(LoadTestClient to, long scheduled)
+	{
+		final String id = stats.nextId();
+
+		final Message msg = new Message(to.getJID(), Message.Type.chat);
+		msg.setStanzaId(id);
+		msg.setBody("Load test message " + id);
+
+		stats.sent(id, scheduled);
+		try
+		{
+			connection.sendStanza(msg);
+		}
+		catch (NotConnectedException e)
+		{
+			stats.sendFailed(id);
+		}
+		catch (InterruptedException e)
+		{
+			stats.sendFailed(id);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void received(Stanza stanza)
+	{
+		final long now = System.nanoTime();
+
+		if (stanza.hasExtension(AMP_ELEMENT, AMP_NAMESPACE))
+			stats.receipted(stanza.getStanzaId(), now);
+		else if (((Message)stanza).getType() == Message.Type.error)
+			stats.error(stanza.getStanzaId());
+		else
+			stats.delivered(stanza.getStanzaId(), now);
+	}
+}
@@ -0,0 +1,391 @@
+package org.directtruststandards.timplus.server.loadtest;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.directtruststandards.timplus.server.boot.TIMPlusServerApplication;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.http.HttpBindManager;
+import org.jivesoftware.openfire.user.UserAlreadyExistsException;
+import org.jivesoftware.openfire.user.UserManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * End to end load test.  Boots the TIM+ server in process with an embedded HSQLDB database in a scratch
+ * directory, creates the test users, connects them over c2s and BOSH on loopback, and sends chat messages between
+ * them at a fixed rate.  Reports send-to-delivery and send-to-AMP-receipt latency percentiles and throughput.
+ * <p>
+ * Settings are system properties:
+ * <pre>
+ * loadtest.users           Concurrent sessions (default 1000)
+ * loadtest.boshFraction    Fraction of the sessions connected over BOSH (default 0.2)
+ * loadtest.rate            Messages per second across all sessions (default 1000), 0 holds idle sessions
+ * loadtest.warmup          Seconds of traffic before measuring (default 10)
+ * loadtest.duration        Seconds of measured traffic, or of holding idle sessions (default 60)
+ * loadtest.drain           Maximum seconds to wait for outstanding deliveries and receipts (default 30)
+ * loadtest.senders         Threads sending messages (default 4)
+ * loadtest.connectThreads  Threads connecting sessions (default 32)
+ * loadtest.workDir         OpenFire home and database directory (default a new temp directory)
+ * </pre>
+ * Any other server property (timplus.monitor.*, etc) can be passed as a system property or --name=value argument.
+ */
+public class LoadTestHarness
+{
+	private static final Logger Log = LoggerFactory.getLogger(LoadTestHarness.class);
+
+	protected static final String USER_PREFIX = "loadtest";
+
+	protected static final String PASSWORD = "loadtest";
+
+	protected final int users = Integer.getInteger("loadtest.users", 1000);
+
+	protected final double boshFraction = Double.parseDouble(System.getProperty("loadtest.boshFraction", "0.2"));
+
+	protected final int rate = Integer.getInteger("loadtest.rate", 1000);
+
+	protected final int warmup = Integer.getInteger("loadtest.warmup", 10);
+
+	protected final int duration = Integer.getInteger("loadtest.duration", 60);
+
+	protected final int drain = Integer.getInteger("loadtest.drain", 30);
+
+	protected final int senders = Integer.getInteger("loadtest.senders", 4);
+
+	protected final int connectThreads = Integer.getInteger("loadtest.connectThreads", 32);
+
+	protected final int c2sPort = Integer.getInteger("loadtest.c2sPort", 5222);
+
+	protected final int boshPort = Integer.getInteger("loadtest.boshPort", 7070);
+
+	protected final String workDir = System.getProperty("loadtest.workDir");
+
+	protected final LoadTestStats stats = new LoadTestStats();
+
+	protected volatile boolean sending;
+
+	public static void main(String[] args) throws Exception
+	{
+		int status = 0;
+		try
+		{
+			new LoadTestHarness().run(args);
+		}
+		catch (Exception e)
+		{
+			Log.error("Load test failed.", e);
+			status = 1;
+		}
+
+		// client and server libraries leave non daemon threads behind
+		System.exit(status);
+	}
+
+	public void run(String[] args) throws Exception
+	{
+		if (users < 2)
+			throw new IllegalArgumentException("At least 2 users are needed");
+
+		final ConfigurableApplicationContext ctx = startServer(args);
+		final List<LoadTestClient> clients = new ArrayList<>();
+		try
+		{
+			final String domain = ctx.getEnvironment().getProperty("timplus.domain.name");
+
+			createUsers(domain);
+
+			final int boshUsers = (int)Math.round(users * boshFraction);
+			connect(domain, boshUsers, clients);
+
+			reportCapacity(System.out, clients);
+
+			if (rate > 0)
+			{
+				drive(clients);
+
+				stats.report(System.out, String.format(Locale.ROOT, "%d sessions (%d c2s, %d BOSH), %d msg/s for %ds after %ds warm up",
+						clients.size(), users - boshUsers, boshUsers, rate, duration, warmup));
+			}
+			else
+			{
+				// idle sessions only: see how many the server keeps and what they cost
+				Log.info("Holding idle sessions for " + duration + "s");
+				Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+
+				reportCapacity(System.out, clients);
+			}
+		}
+		finally
+		{
+			for (LoadTestClient client : clients)
+				client.disconnect();
+
+			stopServer(ctx);
+		}
+	}
+
+	protected ConfigurableApplicationContext startServer(String[] args) throws Exception
+	{
+		final Path home = (workDir != null) ? Files.createDirectories(Paths.get(workDir)) : Files.createTempDirectory("timplus-loadtest");
+		Log.info("Starting server in " + home.toAbsolutePath());
+
+		// defaults only, so anything passed on the command line or as a system property wins
+		final Map<String, Object> props = new HashMap<>();
+		props.put("openfire.home", home.toAbsolutePath().toString());
+		props.put("spring.datasource.url", "jdbc:hsqldb:file:" + home.resolve("embedded-db/openfire").toAbsolutePath());
+		props.put("spring.cloud.config.enabled", "false");
+		props.put("management.health.rabbit.enabled", "false");
+
+		final SpringApplication application = new SpringApplication(TIMPlusServerApplication.class);
+		application.setDefaultProperties(props);
+		final ConfigurableApplicationContext ctx = application.run(args);
+
+		final XMPPServer server = ctx.getBean(XMPPServer.class);
+		final long deadline = System.currentTimeMillis() + 60000;
+		while (!server.isStarted())
+		{
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException("Server did not start");
+
+			Thread.sleep(100);
+		}
+
+		return ctx;
+	}
+
+	protected void stopServer(ConfigurableApplicationContext ctx)
+	{
+		// same order as the application: the XMPP server first, then the database and caches
+		try
+		{
+			final XMPPServer server = ctx.getBean(XMPPServer.class);
+			if (!server.isShuttingDown())
+				server.stop();
+		}
+		catch (Exception e)
+		{
+			Log.warn("Failed to stop the XMPP server.", e);
+		}
+
+		ctx.close();
+	}
+
+	protected void createUsers(String domain) throws Exception
+	{
+		final UserManager userManager = UserManager.getInstance();
+		for (int i = 0; i < users; ++i)
+		{
+			final String username = USER_PREFIX + i;
+			try
+			{
+				userManager.createUser(username, PASSWORD, username, username + "@" + domain, domain);
+			}
+			catch (UserAlreadyExistsException e)
+			{
+				// left from a previous run in the same work directory
+			}
+		}
+	}
+
+	/**
+	 * Connects the sessions in parallel.  The first boshUsers sessions connect over BOSH, the rest over c2s.
+	 * Sessions that fail to connect are logged and left out of the run.
+	 */
+	protected void connect(String domain, int boshUsers, List<LoadTestClient> clients) throws Exception
+	{
+		final SSLContext sslContext = trustAllSSLContext();
+
+		for (int i = 0; i < users; ++i)
+		{
+			final String username = USER_PREFIX + i;
+			clients.add((i < boshUsers) ? LoadTestClient.bosh(username, PASSWORD, domain, boshPort, stats) :
+				LoadTestClient.c2s(username, PASSWORD, domain, c2sPort, sslContext, stats));
+		}
+
+		final long start = System.nanoTime();
+		int failed = 0;
+		final ExecutorService executor = Executors.newFixedThreadPool(connectThreads);
+		try
+		{
+			final List<Future<?>> connects = new ArrayList<>();
+			for (LoadTestClient client : clients)
+				connects.add(executor.submit(() ->
+				{
+					client.connect();
+					return null;
+				}));
+
+			for (int i = connects.size() - 1; i >= 0; --i)
+			{
+				try
+				{
+					connects.get(i).get();
+				}
+				catch (ExecutionException e)
+				{
+					if (failed++ == 0)
+						Log.warn("Failed to connect " + clients.get(i).getJID(), e.getCause());
+
+					clients.remove(i);
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		Log.info("Connected " + clients.size() + " sessions in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, " +
+				failed + " failed");
+
+		if (clients.size() < 2)
+			throw new IllegalStateException("Not enough sessions connected");
+	}
+
+	/**
+	 * Prints the sessions still connected and the memory and threads used to hold them.  The clients run in the
+	 * same JVM, so compare runs with the same session mix rather than reading the numbers as server only.
+	 */
+	protected void reportCapacity(PrintStream out, List<LoadTestClient> clients)
+	{
+		int connected = 0;
+		for (LoadTestClient client : clients)
+			if (client.isConnected())
+				++connected;
+
+		System.gc();
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		final long heapUsed = memory.getHeapMemoryUsage().getUsed();
+		final long nonHeapUsed = memory.getNonHeapMemoryUsage().getUsed();
+
+		final ThreadPool httpBindPool = HttpBindManager.getInstance().getThreadPool();
+		final String httpBindThreads = (httpBindPool == null) ? "n/a" :
+			httpBindPool.getThreads() + " (" + httpBindPool.getClass().getSimpleName() + ")";
+
+		out.println();
+		out.println(String.format(Locale.ROOT, "sessions connected %d of %d", connected, users));
+		out.println(String.format(Locale.ROOT, "heap used %.1f MB, non-heap used %.1f MB, live threads %d, http-bind threads %s",
+				heapUsed / 1048576.0, nonHeapUsed / 1048576.0, ManagementFactory.getThreadMXBean().getThreadCount(), httpBindThreads));
+	}
+
+	/**
+	 * Runs the warm up and measured traffic, then waits for the outstanding deliveries and receipts.
+	 */
+	protected void drive(List<LoadTestClient> clients) throws Exception
+	{
+		final List<Thread> threads = new ArrayList<>();
+
+		sending = true;
+		for (int i = 0; i < senders; ++i)
+		{
+			final int sender = i;
+			final Thread thread = new Thread(() -> send(clients, sender), "loadtest-sender-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+
+		Log.info("Warming up for " + warmup + "s");
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+
+		Log.info("Measuring for " + duration + "s");
+		stats.startMeasuring();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+		stats.stopMeasuring();
+
+		sending = false;
+		for (Thread thread : threads)
+			thread.join();
+
+		final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(drain);
+		while (stats.getOutstanding() > 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(100);
+	}
+
+	/**
+	 * Sends from this sender's share of the sessions at its share of the rate.  Each session sends to the session
+	 * half way around the list so c2s and BOSH sessions message each other.
+	 */
+	protected void send(List<LoadTestClient> clients, int sender)
+	{
+		final List<LoadTestClient> mine = new ArrayList<>();
+		for (int i = sender; i < clients.size(); i += senders)
+			mine.add(clients.get(i));
+
+		if (mine.isEmpty())
+			return;
+
+		final long interval = TimeUnit.SECONDS.toNanos(senders) / rate;
+		final int half = clients.size() / 2;
+
+		long next = System.nanoTime();
+		int index = 0;
+		while (sending)
+		{
+			final long wait = next - System.nanoTime();
+			if (wait > 0)
+			{
+				LockSupport.parkNanos(wait);
+				continue;
+			}
+
+			final int from = index++ % mine.size();
+			final int to = (sender + from * senders + half) % clients.size();
+
+			mine.get(from).send(clients.get(to), next);
+
+			// a sender that falls behind catches up with a burst rather than lowering the rate
+			next += interval;
+		}
+	}
+
+	protected static SSLContext trustAllSSLContext() throws Exception
+	{
+		// the loopback server presents a self signed certificate
+		final TrustManager trustAll = new X509TrustManager()
+		{
+			@Override
+			public void checkClientTrusted(X509Certificate[] chain, String authType)
+			{
+			}
+
+			@Override
+			public void checkServerTrusted(X509Certificate[] chain, String authType)
+			{
+			}
+
+			@Override
+			public X509Certificate[] getAcceptedIssuers()
+			{
+				return new X509Certificate[0];
+			}
+		};
+
+		final SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+		sslContext.init(null, new TrustManager[] {trustAll}, null);
+
+		return sslContext;
+	}
+}
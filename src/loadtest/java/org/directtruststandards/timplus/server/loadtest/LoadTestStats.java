@@ -0,0 +1,192 @@
+package org.directtruststandards.timplus.server.loadtest;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Correlates sent messages with their delivery and AMP receipt by stanza id and records the latencies in
+ * microseconds.  Only messages sent while measuring are counted so warm up traffic does not skew the results.
+ * Latency is measured from the time a message was scheduled to be sent, so a sender that falls behind shows
+ * up in the latencies instead of hiding it.
+ */
+public class LoadTestStats
+{
+	protected static final double[] PERCENTILES = {50.0, 99.0, 99.9};
+
+	protected final Recorder deliveryLatency = new Recorder(3);
+
+	protected final Recorder receiptLatency = new Recorder(3);
+
+	protected final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+	protected final AtomicLong ids = new AtomicLong();
+
+	protected final LongAdder sent = new LongAdder();
+
+	protected final LongAdder delivered = new LongAdder();
+
+	protected final LongAdder receipts = new LongAdder();
+
+	protected final LongAdder errors = new LongAdder();
+
+	protected final LongAdder sendFailures = new LongAdder();
+
+	protected volatile boolean measuring;
+
+	protected volatile long measureStart;
+
+	protected volatile long measureEnd;
+
+	public String nextId()
+	{
+		return "loadtest-" + ids.incrementAndGet();
+	}
+
+	/**
+	 * Starts counting messages and discards latencies recorded during warm up.
+	 */
+	public void startMeasuring()
+	{
+		deliveryLatency.reset();
+		receiptLatency.reset();
+
+		measureStart = System.nanoTime();
+		measuring = true;
+	}
+
+	/**
+	 * Stops counting newly sent messages.  Deliveries and receipts of messages already counted are still recorded.
+	 */
+	public void stopMeasuring()
+	{
+		measuring = false;
+		measureEnd = System.nanoTime();
+	}
+
+	/**
+	 * Records a message about to be sent.
+	 * @param id The message stanza id.
+	 * @param scheduled The time in nanos the message was scheduled to be sent.
+	 */
+	public void sent(String id, long scheduled)
+	{
+		final boolean measured = measuring;
+		if (measured)
+			sent.increment();
+
+		pending.put(id, new Pending(scheduled, measured));
+	}
+
+	public void sendFailed(String id)
+	{
+		final Pending msg = pending.remove(id);
+		if (msg != null && msg.measured)
+			sendFailures.increment();
+	}
+
+	public void delivered(String id, long now)
+	{
+		final Pending msg = received(id);
+		if (msg != null && msg.measured)
+		{
+			delivered.increment();
+			deliveryLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(now - msg.scheduled));
+		}
+	}
+
+	public void receipted(String id, long now)
+	{
+		final Pending msg = received(id);
+		if (msg != null && msg.measured)
+		{
+			receipts.increment();
+			receiptLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(now - msg.scheduled));
+		}
+	}
+
+	public void error(String id)
+	{
+		final Pending msg = pending.remove(id);
+		if (msg != null && msg.measured)
+			errors.increment();
+	}
+
+	/**
+	 * @return Sent messages still waiting on their delivery or receipt.
+	 */
+	public int getOutstanding()
+	{
+		return pending.size();
+	}
+
+	/**
+	 * Prints the latency percentiles and throughput of the measured messages.  Latency histograms are
+	 * drained, so this is called once at the end of a run.
+	 * @param out The stream to print to.
+	 * @param description A line describing the run.
+	 */
+	public void report(PrintStream out, String description)
+	{
+		final double seconds = (measureEnd - measureStart) / 1000000000.0;
+		final long sentCount = sent.sum();
+
+		out.println();
+		out.println(description);
+		out.println(String.format(Locale.ROOT, "%-18s %10s %10s %10s %10s %10s", "latency (ms)", "count", "p50", "p99", "p999", "max"));
+		printLatency(out, "send-to-delivery", deliveryLatency.getIntervalHistogram());
+		printLatency(out, "send-to-receipt", receiptLatency.getIntervalHistogram());
+		out.println(String.format(Locale.ROOT, "throughput (msg/s): sent %.1f, delivered %.1f, receipts %.1f",
+				sentCount / seconds, delivered.sum() / seconds, receipts.sum() / seconds));
+		out.println(String.format(Locale.ROOT, "undelivered %d, unacknowledged %d, errors %d, send failures %d",
+				sentCount - delivered.sum(), sentCount - receipts.sum(), errors.sum(), sendFailures.sum()));
+	}
+
+	protected void printLatency(PrintStream out, String name, Histogram histogram)
+	{
+		final StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-18s %10d", name, histogram.getTotalCount()));
+		for (double percentile : PERCENTILES)
+			line.append(String.format(Locale.ROOT, " %10.2f", histogram.getValueAtPercentile(percentile) / 1000.0));
+		line.append(String.format(Locale.ROOT, " %10.2f", histogram.getMaxValue() / 1000.0));
+
+		out.println(line);
+	}
+
+	/**
+	 * Removes a message once both its delivery and receipt have been seen.
+	 */
+	protected Pending received(String id)
+	{
+		if (id == null)
+			return null;
+
+		final Pending msg = pending.get(id);
+		if (msg != null && msg.remaining.decrementAndGet() == 0)
+			pending.remove(id);
+
+		return msg;
+	}
+
+	protected static class Pending
+	{
+		protected final long scheduled;
+
+		protected final boolean measured;
+
+		protected final AtomicInteger remaining = new AtomicInteger(2);
+
+		protected Pending(long scheduled, boolean measured)
+		{
+			this.scheduled = scheduled;
+			this.measured = measured;
+		}
+	}
+}
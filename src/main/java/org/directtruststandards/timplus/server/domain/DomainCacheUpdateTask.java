@@ -0,0 +1,54 @@
+package org.directtruststandards.timplus.server.domain;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+import org.jivesoftware.util.cache.ClusterTask;
+
+/**
+ * Cluster task that updates the {@link RegisteredDomainCache} on other nodes when a domain is created.
+ */
+public class DomainCacheUpdateTask implements ClusterTask<Void>
+{
+	protected String domain;
+
+	/**
+	 * Empty constructor for deserialization.
+	 */
+	public DomainCacheUpdateTask()
+	{
+		super();
+	}
+
+	public DomainCacheUpdateTask(String domain)
+	{
+		super();
+
+		this.domain = domain;
+	}
+
+	@Override
+	public void run()
+	{
+		RegisteredDomainCache.getInstance().domainUpdated(domain, true);
+	}
+
+	@Override
+	public Void getResult()
+	{
+		return null;
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException
+	{
+		out.writeUTF(domain);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+	{
+		domain = in.readUTF();
+	}
+}
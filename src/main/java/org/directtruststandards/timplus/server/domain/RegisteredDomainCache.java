@@ -0,0 +1,222 @@
+package org.directtruststandards.timplus.server.domain;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.domain.DomainManager;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory cache of DomainManager registered domain lookups for the packet processing hot path.  Lookups are a
+ * single lock free map read; only misses and expired entries go to the DomainManager.
+ * <p>
+ * Only the packet path reads through this cache; administrative lookups (REST API, IQ handlers, startup) go to the
+ * DomainManager directly so they never act on a stale entry.  Domains created through {@link #createDomain(String)}
+ * are cached immediately and broadcast to the other cluster nodes.  Domains created or removed by other means (such
+ * as the admin console) are picked up when the cached entry expires.  Lookups of unregistered domains (generally
+ * federated domains) are cached for a shorter time.
+ */
+public class RegisteredDomainCache
+{
+	private static final Logger Log = LoggerFactory.getLogger(RegisteredDomainCache.class);
+
+	protected static final RegisteredDomainCache INSTANCE = new RegisteredDomainCache();
+
+	protected final Map<String, CachedLookup> lookups = new ConcurrentHashMap<>();
+
+	protected final LongAdder hits = new LongAdder();
+
+	protected final LongAdder misses = new LongAdder();
+
+	protected volatile long ttlNanos = TimeUnit.MINUTES.toNanos(5);
+
+	protected volatile long negativeTtlNanos = TimeUnit.SECONDS.toNanos(30);
+
+	protected volatile int maxEntries = 10000;
+
+	public static RegisteredDomainCache getInstance()
+	{
+		return INSTANCE;
+	}
+
+	protected RegisteredDomainCache()
+	{
+		super();
+	}
+
+	/**
+	 * Indicates if a domain is registered (hosted) on this server.
+	 * @param domain The domain name.
+	 * @return True if the domain is registered.
+	 */
+	public boolean isRegisteredDomain(String domain)
+	{
+		if (domain == null)
+			return false;
+
+		final String key = domain.toLowerCase(Locale.ROOT);
+
+		final CachedLookup lookup = lookups.get(key);
+		if (lookup != null && lookup.expires - System.nanoTime() > 0)
+		{
+			hits.increment();
+			return lookup.registered;
+		}
+
+		misses.increment();
+
+		final boolean registered = loadRegistration(domain);
+		put(key, registered);
+
+		return registered;
+	}
+
+	/**
+	 * Creates a domain in the DomainManager, adds it to this cache, and tells the other cluster nodes about it.
+	 * @param domain The domain name.
+	 * @throws Exception If the DomainManager fails to create the domain.
+	 */
+	public void createDomain(String domain) throws Exception
+	{
+		DomainManager.getInstance().createDomain(domain, true);
+
+		domainUpdated(domain, true);
+		broadcast(domain);
+	}
+
+	/**
+	 * Updates the cached registration state of a domain without touching the DomainManager.  Called locally
+	 * and by cluster update tasks.
+	 * @param domain The domain name.
+	 * @param registered Whether the domain is registered.
+	 */
+	public void domainUpdated(String domain, boolean registered)
+	{
+		put(domain.toLowerCase(Locale.ROOT), registered);
+	}
+
+	/**
+	 * Removes all cached lookups.
+	 */
+	public void clear()
+	{
+		lookups.clear();
+	}
+
+	/**
+	 * @param ttl The time in milliseconds a registered domain lookup is cached.
+	 */
+	public void setTtl(long ttl)
+	{
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+	}
+
+	/**
+	 * @param negativeTtl The time in milliseconds an unregistered domain lookup is cached.
+	 */
+	public void setNegativeTtl(long negativeTtl)
+	{
+		this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+	}
+
+	/**
+	 * @param maxEntries The maximum number of cached lookups.
+	 */
+	public void setMaxEntries(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return The number of lookups served from the cache.
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of lookups that went to the DomainManager.
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of cached lookups.
+	 */
+	public int size()
+	{
+		return lookups.size();
+	}
+
+	/*
+	 * Reads the registration of a domain that isn't cached (or has expired)
+	 */
+	protected boolean loadRegistration(String domain)
+	{
+		return DomainManager.getInstance().isRegisteredDomain(domain);
+	}
+
+	protected void broadcast(String domain)
+	{
+		if (!ClusterManager.isClusteringStarted())
+			return;
+
+		try
+		{
+			CacheFactory.doClusterTask(new DomainCacheUpdateTask(domain));
+		}
+		catch (Exception e)
+		{
+			Log.warn("Failed to broadcast creation of domain " + domain + 
+					" to the cluster.  Other nodes will pick it up when their cached lookup expires.", e);
+		}
+	}
+
+	protected void put(String key, boolean registered)
+	{
+		if (lookups.size() >= maxEntries)
+			purge();
+
+		lookups.put(key, new CachedLookup(registered, System.nanoTime() + (registered ? ttlNanos : negativeTtlNanos)));
+	}
+
+	/*
+	 * Drops expired lookups, and everything if that isn't enough.  Only reached when the map is full,
+	 * generally from a flood of distinct unregistered domains.
+	 */
+	protected void purge()
+	{
+		final long now = System.nanoTime();
+
+		final Iterator<CachedLookup> iter = lookups.values().iterator();
+		while (iter.hasNext())
+			if (iter.next().expires - now <= 0)
+				iter.remove();
+
+		if (lookups.size() >= maxEntries)
+			lookups.clear();
+	}
+
+	protected static class CachedLookup
+	{
+		protected final boolean registered;
+
+		protected final long expires;
+
+		protected CachedLookup(boolean registered, long expires)
+		{
+			this.registered = registered;
+			this.expires = expires;
+		}
+	}
+}
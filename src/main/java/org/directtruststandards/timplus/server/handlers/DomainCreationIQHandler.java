@@ -1,5 +1,6 @@
 package org.directtruststandards.timplus.server.handlers;
 
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
 import org.dom4j.Element;
 import org.jivesoftware.openfire.IQHandlerInfo;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
@@ -71,8 +72,8 @@ public class DomainCreationIQHandler extends IQHandler {
                 return reply;
             }
             
-            // Create the domain
-            DomainManager.getInstance().createDomain(domainName, true);
+            // Create the domain and share it with the other cluster nodes
+            RegisteredDomainCache.getInstance().createDomain(domainName);
             
             LOGGER.info("Domain '{}' created by client '{}'", domainName, packet.getFrom());
             
@@ -0,0 +1,222 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.eclipse.jetty.util.URIUtil;
+import org.jivesoftware.openfire.http.HttpBindManager;
+import org.jivesoftware.util.JiveGlobals;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admits or rejects the requests of one endpoint through the {@link AdmissionController}, before any servlet work is
+ * done.  Rejected requests are answered at once with an empty 503 (endpoint overloaded) or 429 (client address or
+ * target domain over its rate) and a Retry-After header.
+ * <p>
+ * The client is the request's remote address.  The target domain is the request's host name, or for the REST API the
+ * domain named in the path.  Both are supplied by the client, so only domains registered on this server get a bucket
+ * of their own; every other name shares the single {@link #UNKNOWN_DOMAIN} bucket.  On the HTTP-bind server the proxy
+ * (X-Forwarded-*) settings have already been applied to the address and host name by the connector.  Endpoints served
+ * by another container, such as the REST API, apply the same settings here.  Websocket connections are admitted on
+ * their upgrade request.
+ */
+public class AdmissionControlFilter implements Filter
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionControlFilter.class);
+
+	protected static final String RETRY_AFTER = "Retry-After";
+
+	protected static final int SC_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * The domain limiter key of every request whose target is not a registered domain.  Not a valid domain name, so
+	 * it can't collide with one.
+	 */
+	public static final String UNKNOWN_DOMAIN = "<unknown>";
+
+	protected static final String API_DOMAINS_PATH = "/api/domains/";
+
+	protected final AdmissionController.Endpoint endpoint;
+
+	protected final BooleanSupplier lowOnThreads;
+
+	protected final boolean applyForwardedHeaders;
+
+	/**
+	 * Constructor.
+	 * @param endpoint The endpoint counted and limited.
+	 * @param lowOnThreads Tells if the container is out of spare request threads, in which case requests are
+	 * answered with a 503.
+	 * @param applyForwardedHeaders Whether the HTTP-bind proxy header settings are to be applied to the client address
+	 * and host name, for containers that don't apply them.
+	 */
+	public AdmissionControlFilter(AdmissionController.Endpoint endpoint, BooleanSupplier lowOnThreads, boolean applyForwardedHeaders)
+	{
+		this.endpoint = endpoint;
+		this.lowOnThreads = lowOnThreads;
+		this.applyForwardedHeaders = applyForwardedHeaders;
+	}
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException
+	{
+
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+	{
+		final AdmissionController controller = AdmissionController.getInstance();
+		if (!controller.isEnabled() || !(request instanceof HttpServletRequest))
+		{
+			chain.doFilter(request, response);
+			return;
+		}
+
+		final HttpServletRequest httpRequest = (HttpServletRequest)request;
+		final HttpServletResponse httpResponse = (HttpServletResponse)response;
+
+		if (lowOnThreads.getAsBoolean() || !controller.claim(endpoint))
+		{
+			reject(controller, httpRequest, httpResponse, AdmissionController.Outcome.OVERLOADED, TimeUnit.SECONDS.toNanos(1));
+			return;
+		}
+
+		try
+		{
+			long wait = controller.getClientLimiter().acquire(getClientAddress(httpRequest));
+			if (wait > 0)
+			{
+				reject(controller, httpRequest, httpResponse, AdmissionController.Outcome.CLIENT_LIMITED, wait);
+				return;
+			}
+
+			final TokenBucketLimiter domainLimiter = controller.getDomainLimiter();
+			wait = domainLimiter.isEnabled() ? domainLimiter.acquire(getDomain(httpRequest)) : 0;
+			if (wait > 0)
+			{
+				reject(controller, httpRequest, httpResponse, AdmissionController.Outcome.DOMAIN_LIMITED, wait);
+				return;
+			}
+
+			controller.count(endpoint, AdmissionController.Outcome.ADMITTED);
+			chain.doFilter(request, response);
+		}
+		finally
+		{
+			controller.release(endpoint);
+		}
+	}
+
+	@Override
+	public void destroy()
+	{
+
+	}
+
+	protected void reject(AdmissionController controller, HttpServletRequest request, HttpServletResponse response,
+			AdmissionController.Outcome outcome, long waitNanos)
+	{
+		controller.count(endpoint, outcome);
+
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Rejected {} request from {} to {}: {}", endpoint.getTag(), getClientAddress(request), getDomain(request), outcome.getTag());
+
+		// no body and no error page, so a rejection costs as little as possible
+		response.setStatus((outcome == AdmissionController.Outcome.OVERLOADED) ? HttpServletResponse.SC_SERVICE_UNAVAILABLE : SC_TOO_MANY_REQUESTS);
+		response.setHeader(RETRY_AFTER, Long.toString(Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1))));
+		response.setContentLength(0);
+	}
+
+	protected String getClientAddress(HttpServletRequest request)
+	{
+		if (applyForwardedHeaders && JiveGlobals.getBooleanProperty(HttpBindManager.HTTP_BIND_FORWARDED, false))
+		{
+			final String forwardedFor = getLeftMost(request.getHeader(JiveGlobals.getProperty(HttpBindManager.HTTP_BIND_FORWARDED_FOR, "X-Forwarded-For")));
+			if (forwardedFor != null)
+				return forwardedFor;
+		}
+
+		return StringUtils.defaultString(request.getRemoteAddr());
+	}
+
+	/**
+	 * Returns the domain limiter key of a request: the target domain when it is registered on this server, otherwise
+	 * {@link #UNKNOWN_DOMAIN}.
+	 */
+	protected String getDomain(HttpServletRequest request)
+	{
+		final String domain = (endpoint == AdmissionController.Endpoint.API) ? getPathDomain(request) : getHost(request);
+
+		return (!domain.isEmpty() && RegisteredDomainCache.getInstance().isRegisteredDomain(domain)) ? domain : UNKNOWN_DOMAIN;
+	}
+
+	/*
+	 * The {domainName} of /api/domains/{domainName}/..., or empty for requests that don't name one (such as create)
+	 */
+	protected String getPathDomain(HttpServletRequest request)
+	{
+		final String path = URIUtil.addPaths(request.getServletPath(), request.getPathInfo());
+		if (path == null || !path.startsWith(API_DOMAINS_PATH))
+			return "";
+
+		final int end = path.indexOf('/', API_DOMAINS_PATH.length());
+		if (end < 0)
+			return "";
+
+		// the servlet path is already decoded
+		return path.substring(API_DOMAINS_PATH.length(), end).toLowerCase(Locale.ROOT);
+	}
+
+	protected String getHost(HttpServletRequest request)
+	{
+		String host = null;
+		if (applyForwardedHeaders && JiveGlobals.getBooleanProperty(HttpBindManager.HTTP_BIND_FORWARDED, false))
+		{
+			host = JiveGlobals.getProperty(HttpBindManager.HTTP_BIND_FORWARDED_HOST_NAME);
+			if (StringUtils.isEmpty(host))
+				host = stripPort(getLeftMost(request.getHeader(JiveGlobals.getProperty(HttpBindManager.HTTP_BIND_FORWARDED_HOST, "X-Forwarded-Host"))));
+		}
+
+		if (StringUtils.isEmpty(host))
+			host = request.getServerName();
+
+		return (host == null) ? "" : host.toLowerCase(Locale.ROOT);
+	}
+
+	/*
+	 * The first (originating) value of a comma separated proxy header, as the HTTP-bind connectors use it
+	 */
+	protected static String getLeftMost(String header)
+	{
+		if (header == null)
+			return null;
+
+		final int comma = header.indexOf(',');
+		final String value = ((comma < 0) ? header : header.substring(0, comma)).trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	protected static String stripPort(String host)
+	{
+		if (host == null)
+			return null;
+
+		final int colon = host.lastIndexOf(':');
+		return (colon > host.lastIndexOf(']')) ? host.substring(0, colon) : host;
+	}
+}
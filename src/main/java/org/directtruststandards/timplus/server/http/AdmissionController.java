@@ -0,0 +1,182 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control of the BOSH (/http-bind), websocket (/ws) and REST (/api) endpoints, shared by their
+ * {@link AdmissionControlFilter}s.  A request is admitted when its endpoint is not overloaded and both the token bucket
+ * of its client address and the token bucket of its target domain have a token, so a misbehaving client or a
+ * reconnect storm against one domain is turned away before it takes a request thread from everyone else.
+ * <p>
+ * The client and domain budgets are shared by the three endpoints.  Limits take effect when
+ * {@link #configure(int, int, int, int, int, int)} is called; the buckets then start full.
+ */
+public class AdmissionController
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+
+	public enum Endpoint
+	{
+		HTTP_BIND("http-bind"),
+
+		WEBSOCKET("ws"),
+
+		API("api");
+
+		private final String tag;
+
+		private Endpoint(String tag)
+		{
+			this.tag = tag;
+		}
+
+		public String getTag()
+		{
+			return tag;
+		}
+	}
+
+	public enum Outcome
+	{
+		ADMITTED("admitted"),
+
+		/**
+		 * Rejected with a 429: the client address is over its rate.
+		 */
+		CLIENT_LIMITED("client_limited"),
+
+		/**
+		 * Rejected with a 429: the target domain is over its rate.
+		 */
+		DOMAIN_LIMITED("domain_limited"),
+
+		/**
+		 * Rejected with a 503: the endpoint has no threads to spare.
+		 */
+		OVERLOADED("overloaded");
+
+		private final String tag;
+
+		private Outcome(String tag)
+		{
+			this.tag = tag;
+		}
+
+		public String getTag()
+		{
+			return tag;
+		}
+	}
+
+	protected static final AdmissionController INSTANCE = new AdmissionController();
+
+	protected volatile boolean enabled;
+
+	protected volatile TokenBucketLimiter clientLimiter = new TokenBucketLimiter(0, 1, 1);
+
+	protected volatile TokenBucketLimiter domainLimiter = new TokenBucketLimiter(0, 1, 1);
+
+	protected volatile int maxConcurrent;
+
+	protected final AtomicInteger[] inFlight = new AtomicInteger[Endpoint.values().length];
+
+	protected final LongAdder[][] outcomes = new LongAdder[Endpoint.values().length][Outcome.values().length];
+
+	public static AdmissionController getInstance()
+	{
+		return INSTANCE;
+	}
+
+	protected AdmissionController()
+	{
+		for (Endpoint endpoint : Endpoint.values())
+		{
+			inFlight[endpoint.ordinal()] = new AtomicInteger();
+			for (Outcome outcome : Outcome.values())
+				outcomes[endpoint.ordinal()][outcome.ordinal()] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Sets the limits.  A rate of 0 disables that limit.
+	 * @param clientRate Requests per second admitted from one client address.
+	 * @param clientBurst Requests a client address can make at once after being idle.
+	 * @param domainRate Requests per second admitted for one target domain.
+	 * @param domainBurst Requests a domain can receive at once after being idle.
+	 * @param maxKeys The maximum number of client addresses, and of domains, tracked.
+	 * @param maxConcurrent The maximum requests of one endpoint being handled at the same time, 0 for no limit.
+	 */
+	public void configure(int clientRate, int clientBurst, int domainRate, int domainBurst, int maxKeys, int maxConcurrent)
+	{
+		this.clientLimiter = new TokenBucketLimiter(clientRate, clientBurst, maxKeys);
+		this.domainLimiter = new TokenBucketLimiter(domainRate, domainBurst, maxKeys);
+		this.maxConcurrent = maxConcurrent;
+
+		LOGGER.info("Admission control: {} requests/s (burst {}) per client, {} requests/s (burst {}) per domain, {} concurrent requests per endpoint",
+				clientRate, clientBurst, domainRate, domainBurst, (maxConcurrent > 0) ? maxConcurrent : "unlimited");
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	public TokenBucketLimiter getClientLimiter()
+	{
+		return clientLimiter;
+	}
+
+	public TokenBucketLimiter getDomainLimiter()
+	{
+		return domainLimiter;
+	}
+
+	/**
+	 * Claims a slot for a request of an endpoint.  A claimed slot must be released with {@link #release(Endpoint)}.
+	 * @return False when the endpoint already handles the maximum concurrent requests; no slot is claimed then.
+	 */
+	public boolean claim(Endpoint endpoint)
+	{
+		final AtomicInteger count = inFlight[endpoint.ordinal()];
+		if (count.incrementAndGet() <= maxConcurrent || maxConcurrent <= 0)
+			return true;
+
+		count.decrementAndGet();
+		return false;
+	}
+
+	public void release(Endpoint endpoint)
+	{
+		inFlight[endpoint.ordinal()].decrementAndGet();
+	}
+
+	/**
+	 * @return The requests of an endpoint being handled, or waiting for their handler to return.
+	 */
+	public int getInFlight(Endpoint endpoint)
+	{
+		return inFlight[endpoint.ordinal()].get();
+	}
+
+	void count(Endpoint endpoint, Outcome outcome)
+	{
+		outcomes[endpoint.ordinal()][outcome.ordinal()].increment();
+	}
+
+	/**
+	 * @return The number of requests of an endpoint with the given outcome since startup.
+	 */
+	public long getCount(Endpoint endpoint, Outcome outcome)
+	{
+		return outcomes[endpoint.ordinal()][outcome.ordinal()].sum();
+	}
+}
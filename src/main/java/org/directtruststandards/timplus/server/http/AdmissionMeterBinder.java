@@ -0,0 +1,56 @@
+package org.directtruststandards.timplus.server.http;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Binds the {@link AdmissionController} to a meter registry: requests per endpoint and outcome, the requests each
+ * endpoint is handling, and the client addresses and domains being rate limited.
+ */
+public class AdmissionMeterBinder implements MeterBinder
+{
+	protected static final String PREFIX = "timplus.admission.";
+
+	protected final AdmissionController controller;
+
+	public AdmissionMeterBinder()
+	{
+		this(AdmissionController.getInstance());
+	}
+
+	public AdmissionMeterBinder(AdmissionController controller)
+	{
+		this.controller = controller;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		for (AdmissionController.Endpoint endpoint : AdmissionController.Endpoint.values())
+		{
+			for (AdmissionController.Outcome outcome : AdmissionController.Outcome.values())
+			{
+				FunctionCounter.builder(PREFIX + "requests", controller, c -> c.getCount(endpoint, outcome))
+					.tags("endpoint", endpoint.getTag(), "outcome", outcome.getTag())
+					.description("Requests admitted, or rejected with a 429 or 503")
+					.register(registry);
+			}
+
+			Gauge.builder(PREFIX + "inFlight", controller, c -> c.getInFlight(endpoint))
+				.tag("endpoint", endpoint.getTag())
+				.description("Admitted requests being handled")
+				.register(registry);
+		}
+
+		Gauge.builder(PREFIX + "keys", controller, c -> c.getClientLimiter().size())
+			.tag("key", "client")
+			.description("Client addresses and domains with a token bucket")
+			.register(registry);
+		Gauge.builder(PREFIX + "keys", controller, c -> c.getDomainLimiter().size())
+			.tag("key", "domain")
+			.description("Client addresses and domains with a token bucket")
+			.register(registry);
+	}
+}
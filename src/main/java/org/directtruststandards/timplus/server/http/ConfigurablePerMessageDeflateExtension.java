@@ -0,0 +1,169 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.util.compression.DeflaterPool;
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+import org.jivesoftware.util.JiveGlobals;
+
+/**
+ * Jetty's permessage-deflate (RFC 7692) with a configurable compression level, client window, and context takeover.
+ * <p>
+ * The JDK's Deflater always compresses with a 32KB window and zlib's default memory level, which is about 256KB of
+ * native memory per deflater.  The server's own window and memory level therefore can't be lowered; what can be:
+ * <ul>
+ * <li>{@link WebSocketTransportServlet#COMPRESSION_CLIENT_MAX_WINDOW_BITS} asks clients that support it to compress
+ * with a smaller window, which saves memory on mobile clients.  The server inflates any window size.</li>
+ * <li>Disabling {@link WebSocketTransportServlet#COMPRESSION_CONTEXT_TAKEOVER} makes every message compress on its
+ * own (server_no_context_takeover, which a server may always add).  The deflater is then only held while a message
+ * is compressed and is returned to the pool in between, so deflater memory follows the number of messages being
+ * compressed at the same time instead of the number of connections, at some cost in ratio.</li>
+ * </ul>
+ * When the connection's {@link WebSocketTransportExtension} sits below this extension, the message bytes before
+ * compression are counted here.
+ */
+public class ConfigurablePerMessageDeflateExtension extends PerMessageDeflateExtension
+{
+	protected static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+	protected static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+	protected final int level;
+
+	protected final int clientMaxWindowBits;
+
+	protected final boolean contextTakeover;
+
+	protected DeflaterPool deflaterPool;
+
+	protected Deflater deflater;
+
+	protected WebSocketTraffic.Connection traffic;
+
+	public ConfigurablePerMessageDeflateExtension()
+	{
+		level = JiveGlobals.getIntProperty(WebSocketTransportServlet.COMPRESSION_LEVEL, WebSocketTransportServlet.COMPRESSION_LEVEL_DEFAULT);
+		clientMaxWindowBits = JiveGlobals.getIntProperty(WebSocketTransportServlet.COMPRESSION_CLIENT_MAX_WINDOW_BITS,
+				WebSocketTransportServlet.COMPRESSION_CLIENT_MAX_WINDOW_BITS_DEFAULT);
+		contextTakeover = JiveGlobals.getBooleanProperty(WebSocketTransportServlet.COMPRESSION_CONTEXT_TAKEOVER,
+				WebSocketTransportServlet.COMPRESSION_CONTEXT_TAKEOVER_DEFAULT);
+	}
+
+	@Override
+	public void setConfig(ExtensionConfig config)
+	{
+		final ExtensionConfig offer = new ExtensionConfig(config);
+		if (!contextTakeover)
+			offer.setParameter(SERVER_NO_CONTEXT_TAKEOVER);
+
+		super.setConfig(offer);
+
+		// the client may be limited when it offered client_max_window_bits, with or without a value (RFC 7692 7.1.2.2)
+		if (config.getParameterKeys().contains(CLIENT_MAX_WINDOW_BITS) && clientMaxWindowBits >= 8 && clientMaxWindowBits < 15)
+		{
+			final int offered = getOfferedWindowBits(config);
+			getConfig().setParameter(CLIENT_MAX_WINDOW_BITS, (offered >= 8) ? Math.min(offered, clientMaxWindowBits) : clientMaxWindowBits);
+		}
+	}
+
+	protected static int getOfferedWindowBits(ExtensionConfig config)
+	{
+		try
+		{
+			return config.getParameter(CLIENT_MAX_WINDOW_BITS, -1);
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	@Override
+	public void setDeflaterPool(DeflaterPool deflaterPool)
+	{
+		super.setDeflaterPool(deflaterPool);
+		this.deflaterPool = deflaterPool;
+	}
+
+	@Override
+	public void setNextOutgoingFrames(OutgoingFrames nextOutgoing)
+	{
+		super.setNextOutgoingFrames(nextOutgoing);
+
+		if (nextOutgoing instanceof WebSocketTransportExtension)
+		{
+			final WebSocketTransportExtension transport = (WebSocketTransportExtension)nextOutgoing;
+			transport.setCompressed();
+			traffic = transport.getTraffic();
+		}
+	}
+
+	/**
+	 * Only called while a message is compressed, from the single flusher of the connection.
+	 */
+	@Override
+	public Deflater getDeflater()
+	{
+		if (deflater == null)
+		{
+			deflater = (deflaterPool == null) ? new Deflater(level, true) : deflaterPool.acquire();
+			deflater.setLevel(level);
+		}
+		return deflater;
+	}
+
+	@Override
+	public void outgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode)
+	{
+		if (traffic != null && !OpCode.isControlFrame(frame.getOpCode()))
+			traffic.add(WebSocketTraffic.Counter.MESSAGE_BYTES_OUT, frame.getPayloadLength());
+
+		super.outgoingFrame(frame, callback, batchMode);
+	}
+
+	@Override
+	protected void nextOutgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode)
+	{
+		// the superclass resets the deflater after the last frame of a message when there is no context takeover
+		super.nextOutgoingFrame(frame, callback, batchMode);
+
+		if (!contextTakeover && frame.isFin() && !OpCode.isControlFrame(frame.getOpCode()))
+			releaseDeflater();
+	}
+
+	@Override
+	protected void nextIncomingFrame(Frame frame)
+	{
+		if (traffic != null && !OpCode.isControlFrame(frame.getOpCode()))
+			traffic.add(WebSocketTraffic.Counter.MESSAGE_BYTES_IN, frame.getPayloadLength());
+
+		super.nextIncomingFrame(frame);
+	}
+
+	@Override
+	protected void doStop() throws Exception
+	{
+		releaseDeflater();
+
+		super.doStop();
+	}
+
+	protected void releaseDeflater()
+	{
+		final Deflater released = deflater;
+		if (released == null)
+			return;
+
+		deflater = null;
+		if (deflaterPool == null)
+			released.end();
+		else
+			deflaterPool.release(released);
+	}
+}
@@ -0,0 +1,147 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.util.DoubleSummaryStatistics;
+import java.util.function.ToDoubleFunction;
+
+import org.eclipse.jetty.io.ManagedSelector;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.jivesoftware.openfire.http.HttpBindManager;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Binds the saturation of the HTTP-bind (BOSH and websocket) Jetty server to a meter registry: thread pool usage
+ * and queued jobs, and per connector open connections and selector load.  The server is recreated when its
+ * configuration changes, so every value is read from the running server when the registry is scraped and is NaN
+ * while the server or connector is not running.  Websocket traffic is counted per connection by
+ * {@link WebSocketTransportExtension} and published as totals and per closed connection distributions.
+ */
+public class HttpBindMeterBinder implements MeterBinder
+{
+	protected static final String PREFIX = "timplus.httpbind.";
+
+	protected final HttpBindManager manager;
+
+	public HttpBindMeterBinder()
+	{
+		this(HttpBindManager.getInstance());
+	}
+
+	public HttpBindMeterBinder(HttpBindManager manager)
+	{
+		this.manager = manager;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		poolGauge(registry, "threads", "Live threads", ThreadPool::getThreads);
+		poolGauge(registry, "threads.busy", "Threads running jobs", pool -> (pool instanceof QueuedThreadPool) ?
+				((QueuedThreadPool)pool).getBusyThreads() : pool.getThreads() - pool.getIdleThreads());
+		poolGauge(registry, "threads.max", "Maximum threads, NaN for virtual threads", pool -> (pool instanceof QueuedThreadPool) ?
+				((QueuedThreadPool)pool).getMaxThreads() : Double.NaN);
+		poolGauge(registry, "threads.utilization", "Fraction of the maximum threads in use, NaN for virtual threads", pool ->
+		{
+			if (!(pool instanceof QueuedThreadPool))
+				return Double.NaN;
+
+			final QueuedThreadPool qtp = (QueuedThreadPool)pool;
+			return (qtp.getMaxAvailableThreads() == 0) ? Double.NaN : (double)qtp.getUtilizedThreads() / qtp.getMaxAvailableThreads();
+		});
+		poolGauge(registry, "jobs.queued", "Jobs waiting for a thread", pool -> (pool instanceof QueuedThreadPool) ?
+				((QueuedThreadPool)pool).getQueueSize() : 0);
+		poolGauge(registry, "threads.low", "1 when the pool is low on threads", pool -> pool.isLowOnThreads() ? 1 : 0);
+
+		for (String name : new String[] {HttpBindManager.HTTP_BIND_CONNECTOR_PLAIN, HttpBindManager.HTTP_BIND_CONNECTOR_SECURE})
+		{
+			connectorGauge(registry, name, "connections", "Open connections", connector -> connector.getConnectedEndPoints().size());
+			connectorGauge(registry, name, "selector.keys", "Channels registered with the connector's selectors",
+					connector -> selectorStats(connector, ManagedSelector::getTotalKeys).getSum());
+			connectorGauge(registry, name, "selector.selectedKeys.mean", "Mean keys ready per select, averaged over the selectors",
+					connector -> selectorStats(connector, ManagedSelector::getAverageSelectedKeys).getAverage());
+			connectorGauge(registry, name, "selector.selectedKeys.max", "Most keys ready in one select on any selector",
+					connector -> selectorStats(connector, ManagedSelector::getMaxSelectedKeys).getMax());
+		}
+
+		bindWebSocketTraffic(registry);
+	}
+
+	/**
+	 * Websocket frames and bytes, on the wire and before compression, in total and per closed connection.
+	 */
+	protected void bindWebSocketTraffic(MeterRegistry registry)
+	{
+		Gauge.builder(PREFIX + "websocket.connections", WebSocketTraffic::getOpenConnections)
+			.description("Open websocket connections")
+			.register(registry);
+
+		trafficCounter(registry, "websocket.frames", "in", null, "Websocket frames", WebSocketTraffic.Counter.FRAMES_IN);
+		trafficCounter(registry, "websocket.frames", "out", null, "Websocket frames", WebSocketTraffic.Counter.FRAMES_OUT);
+		trafficCounter(registry, "websocket.bytes", "in", "wire", "Websocket bytes", WebSocketTraffic.Counter.WIRE_BYTES_IN);
+		trafficCounter(registry, "websocket.bytes", "out", "wire", "Websocket bytes", WebSocketTraffic.Counter.WIRE_BYTES_OUT);
+		trafficCounter(registry, "websocket.bytes", "in", "message", "Websocket bytes", WebSocketTraffic.Counter.MESSAGE_BYTES_IN);
+		trafficCounter(registry, "websocket.bytes", "out", "message", "Websocket bytes", WebSocketTraffic.Counter.MESSAGE_BYTES_OUT);
+		trafficCounter(registry, "websocket.flushes", "out", null, "Writes of coalesced websocket frames", WebSocketTraffic.Counter.FLUSHES);
+
+		final DistributionSummary wireOut = DistributionSummary.builder(PREFIX + "websocket.connection.bytes")
+			.tags("direction", "out", "layer", "wire")
+			.baseUnit("bytes")
+			.description("Bytes sent per closed websocket connection")
+			.register(registry);
+		final DistributionSummary messageOut = DistributionSummary.builder(PREFIX + "websocket.connection.bytes")
+			.tags("direction", "out", "layer", "message")
+			.baseUnit("bytes")
+			.description("Bytes sent per closed websocket connection")
+			.register(registry);
+		WebSocketTraffic.addCloseListener(connection ->
+		{
+			wireOut.record(connection.get(WebSocketTraffic.Counter.WIRE_BYTES_OUT));
+			messageOut.record(connection.get(WebSocketTraffic.Counter.MESSAGE_BYTES_OUT));
+		});
+	}
+
+	protected void trafficCounter(MeterRegistry registry, String name, String direction, String layer, String description, WebSocketTraffic.Counter counter)
+	{
+		final FunctionCounter.Builder<WebSocketTraffic.Counter> builder = FunctionCounter.builder(PREFIX + name, counter, WebSocketTraffic::getTotal)
+			.tag("direction", direction)
+			.description(description);
+		if (layer != null)
+			builder.tag("layer", layer).baseUnit("bytes");
+
+		builder.register(registry);
+	}
+
+	protected void poolGauge(MeterRegistry registry, String name, String description, ToDoubleFunction<ThreadPool> value)
+	{
+		Gauge.builder(PREFIX + name, manager, m ->
+		{
+			final ThreadPool pool = m.getThreadPool();
+			return (pool == null) ? Double.NaN : value.applyAsDouble(pool);
+		})
+		.description(description)
+		.register(registry);
+	}
+
+	protected void connectorGauge(MeterRegistry registry, String connectorName, String name, String description, ToDoubleFunction<ServerConnector> value)
+	{
+		Gauge.builder(PREFIX + name, manager, m ->
+		{
+			final ServerConnector connector = m.getConnector(connectorName);
+			return (connector == null || !connector.isRunning()) ? Double.NaN : value.applyAsDouble(connector);
+		})
+		.tag("connector", connectorName)
+		.description(description)
+		.register(registry);
+	}
+
+	protected DoubleSummaryStatistics selectorStats(ServerConnector connector, ToDoubleFunction<ManagedSelector> stat)
+	{
+		return connector.getSelectorManager().getBeans(ManagedSelector.class).stream().mapToDouble(stat).summaryStatistics();
+	}
+}
@@ -0,0 +1,242 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes precompressed variants next to the compressible static files of a directory, for {@link StaticAssetServlet}
+ * to send to clients that accept them: a gzip variant (.gz) at the best compression level, and a brotli variant
+ * (.br) when the brotli4j library is on the classpath (the brotli build profile).  Compressing once at startup lets
+ * the slow, high ratio settings be used without any per request cost.
+ * <p>
+ * A variant is only kept when it is smaller than the file, and is rewritten when the file is newer than it.
+ */
+public class StaticAssetCompressor
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(StaticAssetCompressor.class);
+
+	public static final String GZIP_SUFFIX = ".gz";
+
+	public static final String BROTLI_SUFFIX = ".br";
+
+	/**
+	 * Files smaller than this fit in a few packets either way and are not compressed.
+	 */
+	public static final int MIN_SIZE_DEFAULT = 1024;
+
+	protected static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"js", "css", "html", "htm", "svg", "json", "xml", "txt", "map", "ico", "ttf", "eot", "otf"));
+
+	protected static final String BROTLI_LOADER_CLASS = "com.aayushatharva.brotli4j.Brotli4jLoader";
+
+	protected static final String BROTLI_ENCODER_CLASS = "com.aayushatharva.brotli4j.encoder.Encoder";
+
+	protected static final int BROTLI_QUALITY = 11;
+
+	protected final int minSize;
+
+	protected Method brotliCompress;
+
+	protected Object brotliParameters;
+
+	public StaticAssetCompressor()
+	{
+		this(MIN_SIZE_DEFAULT);
+	}
+
+	/**
+	 * @param minSize The size in bytes below which files are not compressed.
+	 */
+	public StaticAssetCompressor(int minSize)
+	{
+		this.minSize = minSize;
+
+		loadBrotli();
+	}
+
+	protected void loadBrotli()
+	{
+		try
+		{
+			final Class<?> loader = Class.forName(BROTLI_LOADER_CLASS);
+			if (!(Boolean)loader.getMethod("isAvailable").invoke(null))
+			{
+				LOGGER.warn("Brotli native library is not available for this platform, static files are only precompressed with gzip");
+				return;
+			}
+
+			final Class<?> encoder = Class.forName(BROTLI_ENCODER_CLASS);
+			final Class<?> parameters = Class.forName(BROTLI_ENCODER_CLASS + "$Parameters");
+			brotliParameters = parameters.getMethod("setQuality", int.class).invoke(parameters.getConstructor().newInstance(), BROTLI_QUALITY);
+			brotliCompress = encoder.getMethod("compress", byte[].class, parameters);
+		}
+		catch (ClassNotFoundException e)
+		{
+			LOGGER.debug("brotli4j is not on the classpath, static files are only precompressed with gzip");
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			LOGGER.warn("Brotli encoder could not be loaded, static files are only precompressed with gzip", e);
+		}
+	}
+
+	/**
+	 * Returns true when brotli variants are written.
+	 */
+	public boolean isBrotliAvailable()
+	{
+		return brotliCompress != null;
+	}
+
+	/**
+	 * Writes the missing or outdated variants of the compressible files in a directory tree.  Files that can not be
+	 * compressed are logged and skipped.
+	 * @param directory The directory.  Nothing is done when it does not exist.
+	 * @return The number of variants written.
+	 */
+	public int compress(File directory)
+	{
+		if (!directory.isDirectory())
+			return 0;
+
+		final List<Path> files;
+		try (Stream<Path> paths = Files.walk(directory.toPath()))
+		{
+			files = paths.filter(Files::isRegularFile).filter(this::isCompressible).collect(Collectors.toList());
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Unable to list the static files of {}", directory, e);
+			return 0;
+		}
+
+		int written = 0;
+		for (Path file : files)
+		{
+			try
+			{
+				written += compressFile(file);
+			}
+			catch (IOException e)
+			{
+				LOGGER.warn("Unable to precompress {}", file, e);
+			}
+		}
+
+		LOGGER.info("Precompressed {} static files of {} into {} variants", files.size(), directory, written);
+		return written;
+	}
+
+	protected boolean isCompressible(Path file)
+	{
+		final String name = file.getFileName().toString();
+		final int dot = name.lastIndexOf('.');
+		if (dot < 0 || !COMPRESSIBLE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH)))
+			return false;
+
+		try
+		{
+			return Files.size(file) >= minSize;
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	protected int compressFile(Path file) throws IOException
+	{
+		final Path gzip = file.resolveSibling(file.getFileName() + GZIP_SUFFIX);
+		final Path brotli = file.resolveSibling(file.getFileName() + BROTLI_SUFFIX);
+
+		final boolean gzipCurrent = isCurrent(file, gzip);
+		final boolean brotliCurrent = !isBrotliAvailable() || isCurrent(file, brotli);
+		if (gzipCurrent && brotliCurrent)
+			return 0;
+
+		final byte[] content = Files.readAllBytes(file);
+
+		int written = 0;
+		if (!gzipCurrent && writeVariant(content, gzip(content), gzip))
+			++written;
+		if (!brotliCurrent && writeVariant(content, brotli(content), brotli))
+			++written;
+
+		return written;
+	}
+
+	protected static boolean isCurrent(Path file, Path variant) throws IOException
+	{
+		return Files.isRegularFile(variant) && Files.getLastModifiedTime(variant).compareTo(Files.getLastModifiedTime(file)) >= 0;
+	}
+
+	/**
+	 * Replaces a variant through a temporary file, so a reader never sees a partial one.  A variant that is not
+	 * smaller than the file is not worth its decompression and is removed instead.
+	 * @return True if the variant was written.
+	 */
+	protected static boolean writeVariant(byte[] content, byte[] compressed, Path variant) throws IOException
+	{
+		if (compressed.length >= content.length)
+		{
+			Files.deleteIfExists(variant);
+			return false;
+		}
+
+		final Path temp = Files.createTempFile(variant.getParent(), variant.getFileName().toString(), ".tmp");
+		try
+		{
+			Files.write(temp, compressed);
+			Files.move(temp, variant, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+		return true;
+	}
+
+	protected static byte[] gzip(byte[] content) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)
+			{
+				{
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			})
+		{
+			gzip.write(content);
+		}
+		return out.toByteArray();
+	}
+
+	protected byte[] brotli(byte[] content) throws IOException
+	{
+		try
+		{
+			return (byte[])brotliCompress.invoke(null, content, brotliParameters);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IOException("Brotli compression failed", e);
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.UnavailableException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.URIUtil;
+import org.eclipse.jetty.util.resource.Resource;
+import org.jivesoftware.util.JiveGlobals;
+
+/**
+ * Serves the static files of the admin console and the web client.  Each file is memory mapped once and written to
+ * the connection straight from the mapped buffer, so it is neither read into the heap nor copied per request.  The
+ * gzip and brotli variants written by {@link StaticAssetCompressor} are sent to clients that accept them, and every
+ * representation carries a strong ETag derived from the file content, so a revalidation is answered with a 304.
+ * <p>
+ * A mapping is not protected against the file being truncated underneath it (reading past the new end raises an
+ * InternalError from the SIGBUS).  The file is then remapped and the response retried when nothing was sent yet.
+ * <p>
+ * Directories, welcome files, range requests, includes, and files larger than maxMappedSize are left to the Jetty
+ * DefaultServlet this extends.  Init parameters, also read from org.eclipse.jetty.servlet.Default.* context
+ * parameters:
+ * <ul>
+ * <li>cacheControl: the Cache-Control header of every file, the {@link #CACHE_CONTROL_PROPERTY} property when unset</li>
+ * <li>maxMappedSize: the largest file in bytes served from a mapped buffer, {@link #MAX_MAPPED_SIZE_DEFAULT} by default</li>
+ * </ul>
+ */
+public class StaticAssetServlet extends DefaultServlet
+{
+	private static final long serialVersionUID = 2871936407165118347L;
+
+	public static final String CACHE_CONTROL_PROPERTY = "static.cacheControl";
+
+	public static final long MAX_MAPPED_SIZE_DEFAULT = 16 * 1024 * 1024;
+
+	protected static final String GZIP = "gzip";
+
+	protected static final String BROTLI = "br";
+
+	protected String cacheControl;
+
+	protected long maxMappedSize;
+
+	protected final ConcurrentMap<String, Asset> assets = new ConcurrentHashMap<>();
+
+	@Override
+	public void init() throws UnavailableException
+	{
+		super.init();
+
+		cacheControl = getInitParameter("cacheControl");
+		if (StringUtils.isBlank(cacheControl))
+			cacheControl = JiveGlobals.getProperty(CACHE_CONTROL_PROPERTY);
+		if (StringUtils.isBlank(cacheControl))
+			cacheControl = null;
+
+		final String maxMapped = getInitParameter("maxMappedSize");
+		maxMappedSize = StringUtils.isBlank(maxMapped) ? MAX_MAPPED_SIZE_DEFAULT : Long.parseLong(maxMapped.trim());
+	}
+
+	@Override
+	public void destroy()
+	{
+		// the mapped buffers are released when they are collected
+		assets.clear();
+		super.destroy();
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+	{
+		if (request.getAttribute(RequestDispatcher.INCLUDE_REQUEST_URI) != null || request.getHeader(HttpHeader.RANGE.asString()) != null)
+		{
+			super.doGet(request, response);
+			return;
+		}
+
+		final String pathInContext = URIUtil.addPaths(request.getServletPath(), request.getPathInfo());
+
+		// a second attempt with a fresh mapping if the file was truncated while it was sent
+		for (int attempt = 1; ; ++attempt)
+		{
+			final Asset asset = getAsset(pathInContext);
+			if (asset == null)
+			{
+				super.doGet(request, response);
+				return;
+			}
+
+			try
+			{
+				send(asset, request, response);
+				return;
+			}
+			catch (InternalError | IOException e)
+			{
+				if (!isMappingFault(e))
+					throw e;
+
+				assets.remove(pathInContext, asset);
+
+				if (attempt > 1 || response.isCommitted())
+					throw new IOException("File " + pathInContext + " changed while it was sent", e);
+
+				response.reset();
+			}
+		}
+	}
+
+	/**
+	 * Returns the mapped file for a path, mapping it on first use or when it changed on disk.
+	 * @param pathInContext The path within the context.
+	 * @return The file, or null when the path is not a readable file this servlet serves itself.
+	 */
+	protected Asset getAsset(String pathInContext) throws IOException
+	{
+		if (pathInContext == null || pathInContext.endsWith("/"))
+			return null;
+
+		final String upperPath = pathInContext.toUpperCase(Locale.ENGLISH);
+		if (upperPath.startsWith("/WEB-INF") || upperPath.startsWith("/META-INF"))
+			return null;
+
+		// the resource is null when the path is an alias, such as a symbolic link, the context does not allow
+		final Resource resource = getResource(pathInContext);
+		final File file = (resource == null) ? null : resource.getFile();
+		if (file == null || !file.isFile() || !file.canRead() || file.length() > maxMappedSize)
+			return null;
+
+		final Asset cached = assets.get(pathInContext);
+		if (cached != null && cached.isCurrent(file))
+			return cached;
+
+		final Asset asset;
+		try
+		{
+			asset = Asset.load(file, getServletContext().getMimeType(file.getName()));
+		}
+		catch (InternalError e)
+		{
+			// truncated while it was digested; the DefaultServlet reads whatever is there now
+			assets.remove(pathInContext);
+			return null;
+		}
+
+		assets.put(pathInContext, asset);
+		return asset;
+	}
+
+	/**
+	 * Returns true when the error, or an I/O error wrapping it, is the fault of reading a mapping whose file shrank.
+	 */
+	protected static boolean isMappingFault(Throwable e)
+	{
+		for (Throwable cause = e; cause != null; cause = cause.getCause())
+			if (cause instanceof InternalError)
+				return true;
+
+		return false;
+	}
+
+	protected void send(Asset asset, HttpServletRequest request, HttpServletResponse response) throws IOException
+	{
+		final String encoding = selectEncoding(asset, request.getHeader(HttpHeader.ACCEPT_ENCODING.asString()));
+		final ByteBuffer content = asset.getContent(encoding);
+		final String etag = asset.getETag(encoding);
+
+		response.setHeader(HttpHeader.ETAG.asString(), etag);
+		response.setDateHeader(HttpHeader.LAST_MODIFIED.asString(), asset.lastModified);
+		if (asset.hasVariants())
+			response.setHeader(HttpHeader.VARY.asString(), HttpHeader.ACCEPT_ENCODING.asString());
+		if (cacheControl != null)
+			response.setHeader(HttpHeader.CACHE_CONTROL.asString(), cacheControl);
+
+		if (isNotModified(request, asset, etag))
+		{
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		if (asset.contentType != null)
+			response.setContentType(asset.contentType);
+		if (encoding != null)
+			response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), encoding);
+		response.setContentLengthLong(content.remaining());
+
+		if (HttpMethod.HEAD.is(request.getMethod()))
+			return;
+
+		final ServletOutputStream out = response.getOutputStream();
+		if (out instanceof HttpOutput)
+			// written to the socket from the mapped buffer
+			((HttpOutput)out).sendContent(content);
+		else
+			// a filter wrapped the response
+			Channels.newChannel(out).write(content);
+	}
+
+	/**
+	 * Chooses the smallest variant the client accepts: brotli, then gzip.  A "*" accepts the codings that are
+	 * not listed on their own.
+	 * @return The content coding, or null for the file itself.
+	 */
+	protected static String selectEncoding(Asset asset, String acceptEncoding)
+	{
+		if (acceptEncoding == null || !asset.hasVariants())
+			return null;
+
+		Boolean brotli = null;
+		Boolean gzip = null;
+		boolean any = false;
+		for (String coding : acceptEncoding.split(","))
+		{
+			final int semicolon = coding.indexOf(';');
+			final boolean accepted = semicolon < 0 || !isRefused(coding.substring(semicolon + 1));
+
+			final String name = ((semicolon < 0) ? coding : coding.substring(0, semicolon)).trim();
+			if (BROTLI.equalsIgnoreCase(name))
+				brotli = accepted;
+			else if (GZIP.equalsIgnoreCase(name))
+				gzip = accepted;
+			else if ("*".equals(name))
+				any = accepted;
+		}
+
+		if ((brotli != null ? brotli : any) && asset.brotli != null)
+			return BROTLI;
+		if ((gzip != null ? gzip : any) && asset.gzip != null)
+			return GZIP;
+		return null;
+	}
+
+	/**
+	 * Returns true when the parameters of a content coding give it a quality of 0.
+	 */
+	protected static boolean isRefused(String parameters)
+	{
+		for (String parameter : parameters.split(";"))
+		{
+			final String trimmed = parameter.trim();
+			if (trimmed.startsWith("q=") || trimmed.startsWith("Q="))
+			{
+				try
+				{
+					return Float.parseFloat(trimmed.substring(2).trim()) <= 0;
+				}
+				catch (NumberFormatException e)
+				{
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluates If-None-Match, or If-Modified-Since when no entity tags are given.  If-None-Match uses the weak
+	 * comparison, so a tag a proxy marked weak still matches.
+	 */
+	protected static boolean isNotModified(HttpServletRequest request, Asset asset, String etag)
+	{
+		final String ifNoneMatch = request.getHeader(HttpHeader.IF_NONE_MATCH.asString());
+		if (ifNoneMatch != null)
+		{
+			for (String candidate : ifNoneMatch.split(","))
+			{
+				String tag = candidate.trim();
+				if (tag.startsWith("W/"))
+					tag = tag.substring(2);
+				if (tag.equals("*") || tag.equals(etag))
+					return true;
+			}
+			return false;
+		}
+
+		try
+		{
+			final long ifModifiedSince = request.getDateHeader(HttpHeader.IF_MODIFIED_SINCE.asString());
+			return ifModifiedSince != -1 && asset.lastModified / 1000 <= ifModifiedSince / 1000;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * A mapped file and its mapped precompressed variants.
+	 */
+	protected static final class Asset
+	{
+		protected final long lastModified;
+
+		protected final long length;
+
+		protected final String contentType;
+
+		protected final ByteBuffer content;
+
+		protected final ByteBuffer gzip;
+
+		protected final ByteBuffer brotli;
+
+		protected final String tag;
+
+		protected Asset(long lastModified, long length, String contentType, ByteBuffer content, ByteBuffer gzip, ByteBuffer brotli, String tag)
+		{
+			this.lastModified = lastModified;
+			this.length = length;
+			this.contentType = contentType;
+			this.content = content;
+			this.gzip = gzip;
+			this.brotli = brotli;
+			this.tag = tag;
+		}
+
+		protected static Asset load(File file, String contentType) throws IOException
+		{
+			final long lastModified = file.lastModified();
+			final long length = file.length();
+			final ByteBuffer content = BufferUtil.toMappedBuffer(file);
+
+			return new Asset(lastModified, length, contentType, content, mapVariant(file, StaticAssetCompressor.GZIP_SUFFIX, lastModified),
+					mapVariant(file, StaticAssetCompressor.BROTLI_SUFFIX, lastModified), digest(content));
+		}
+
+		/**
+		 * Maps a precompressed variant, unless it is missing or older than the file.
+		 */
+		protected static ByteBuffer mapVariant(File file, String suffix, long lastModified) throws IOException
+		{
+			final File variant = new File(file.getPath() + suffix);
+			if (!variant.isFile() || variant.lastModified() < lastModified)
+				return null;
+
+			return BufferUtil.toMappedBuffer(variant);
+		}
+
+		protected static String digest(ByteBuffer content)
+		{
+			try
+			{
+				final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update(content.duplicate());
+				return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 16));
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new IllegalStateException("SHA-256 is not available", e);
+			}
+		}
+
+		protected boolean isCurrent(File file)
+		{
+			return file.lastModified() == lastModified && file.length() == length;
+		}
+
+		protected boolean hasVariants()
+		{
+			return gzip != null || brotli != null;
+		}
+
+		/**
+		 * Returns a view of the content in the given coding, for one response.
+		 */
+		protected ByteBuffer getContent(String encoding)
+		{
+			if (BROTLI.equals(encoding))
+				return brotli.duplicate();
+			if (GZIP.equals(encoding))
+				return gzip.duplicate();
+			return content.duplicate();
+		}
+
+		/**
+		 * Returns the strong entity tag of the content in the given coding.  Each coding is a different
+		 * representation, so each has its own tag.
+		 */
+		protected String getETag(String encoding)
+		{
+			return (encoding == null) ? "\"" + tag + "\"" : "\"" + tag + "-" + encoding + "\"";
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keyed token buckets without locks.  Each key is a single AtomicLong holding the time its bucket would be full again
+ * (the generic cell rate algorithm), so a request costs one map read and one compare and set, and an idle key needs
+ * no refill.  A bucket holds up to burst tokens and regains rate tokens per second.
+ * <p>
+ * Keys whose bucket is full carry no state and are dropped when the map reaches its maximum size.  If it is still full
+ * after that, new keys share a single overflow bucket until old ones fill up, so a flood of distinct keys (such as
+ * spoofed addresses) is limited together instead of growing the map.
+ */
+public class TokenBucketLimiter
+{
+	protected static final String OVERFLOW_KEY = "";
+
+	protected static final long PURGE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	protected final double rate;
+
+	protected final int burst;
+
+	protected final int maxKeys;
+
+	/*
+	 * Nanoseconds per token, and the time a full bucket takes to refill
+	 */
+	protected final long interval;
+
+	protected final long capacity;
+
+	protected final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	protected final AtomicLong nextPurge = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Constructor.
+	 * @param rate Tokens regained per second.  0 or less disables the limiter.
+	 * @param burst Tokens a full bucket holds, at least 1.
+	 * @param maxKeys The maximum number of keys tracked.
+	 */
+	public TokenBucketLimiter(double rate, int burst, int maxKeys)
+	{
+		this.rate = rate;
+		this.burst = Math.max(1, burst);
+		this.maxKeys = Math.max(1, maxKeys);
+
+		interval = (rate > 0) ? Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / rate)) : 0;
+		capacity = interval * this.burst;
+	}
+
+	public boolean isEnabled()
+	{
+		return interval > 0;
+	}
+
+	/**
+	 * Takes a token from the bucket of a key.
+	 * @param key The key, such as a client address.
+	 * @return 0 when a token was taken, otherwise the nanoseconds until one is available.
+	 */
+	public long acquire(String key)
+	{
+		if (interval == 0)
+			return 0;
+
+		final long now = System.nanoTime();
+		final AtomicLong bucket = getBucket(key, now);
+
+		while (true)
+		{
+			final long full = bucket.get();
+			final long next = ((full - now > 0) ? full : now) + interval;
+			final long wait = next - now - capacity;
+			if (wait > 0)
+				return wait;
+
+			if (bucket.compareAndSet(full, next))
+				return 0;
+		}
+	}
+
+	/**
+	 * @return The number of keys tracked.
+	 */
+	public int size()
+	{
+		return buckets.size();
+	}
+
+	protected AtomicLong getBucket(String key, long now)
+	{
+		final AtomicLong bucket = buckets.get(key);
+		if (bucket != null)
+			return bucket;
+
+		if (buckets.size() >= maxKeys)
+		{
+			purge(now);
+			if (buckets.size() >= maxKeys)
+				return buckets.computeIfAbsent(OVERFLOW_KEY, k -> new AtomicLong(now));
+		}
+
+		final AtomicLong created = new AtomicLong(now);
+		final AtomicLong existing = buckets.putIfAbsent(key, created);
+		return (existing == null) ? created : existing;
+	}
+
+	/*
+	 * Drops the keys whose bucket is full.  Only reached when the map is full, and then by one thread at a time
+	 * and at most every PURGE_INTERVAL, so a flood of new keys doesn't turn every request into a scan.
+	 */
+	protected void purge(long now)
+	{
+		final long scheduled = nextPurge.get();
+		if (scheduled - now > 0 || !nextPurge.compareAndSet(scheduled, now + PURGE_INTERVAL))
+			return;
+
+		final Iterator<AtomicLong> iter = buckets.values().iterator();
+		while (iter.hasNext())
+			if (iter.next().get() - now <= 0)
+				iter.remove();
+	}
+}
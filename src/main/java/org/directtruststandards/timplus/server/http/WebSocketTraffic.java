@@ -0,0 +1,150 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frame and byte counters of the websocket (/ws) connections.  Each connection counts what crossed the wire,
+ * frame headers included, and the message bytes before compression, so the two show what permessage-deflate saved.
+ * Totals are counted as the frames are, so they only ever grow; the per connection counts are kept for the
+ * connection's close time distribution.
+ */
+public class WebSocketTraffic
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketTraffic.class);
+
+	public enum Counter
+	{
+		FRAMES_IN,
+		FRAMES_OUT,
+		WIRE_BYTES_IN,
+		WIRE_BYTES_OUT,
+		MESSAGE_BYTES_IN,
+		MESSAGE_BYTES_OUT,
+		/**
+		 * Writes of coalesced outgoing frames.
+		 */
+		FLUSHES
+	}
+
+	protected static final Set<Connection> OPEN = ConcurrentHashMap.newKeySet();
+
+	protected static final LongAdder[] TOTALS = new LongAdder[Counter.values().length];
+
+	protected static final AtomicLong IDS = new AtomicLong();
+
+	protected static final List<Consumer<Connection>> CLOSE_LISTENERS = new CopyOnWriteArrayList<>();
+
+	static
+	{
+		for (int i = 0; i < TOTALS.length; ++i)
+			TOTALS[i] = new LongAdder();
+	}
+
+	private WebSocketTraffic()
+	{
+
+	}
+
+	/**
+	 * Returns a counter summed over every connection since startup.
+	 */
+	public static long getTotal(Counter counter)
+	{
+		return TOTALS[counter.ordinal()].sum();
+	}
+
+	public static int getOpenConnections()
+	{
+		return OPEN.size();
+	}
+
+	/**
+	 * Adds a listener called with the final counters of every connection that closes.
+	 */
+	public static void addCloseListener(Consumer<Connection> listener)
+	{
+		CLOSE_LISTENERS.add(listener);
+	}
+
+	public static void removeCloseListener(Consumer<Connection> listener)
+	{
+		CLOSE_LISTENERS.remove(listener);
+	}
+
+	static void open(Connection connection)
+	{
+		OPEN.add(connection);
+	}
+
+	static void close(Connection connection)
+	{
+		if (!OPEN.remove(connection))
+			return;
+
+		LOGGER.debug("Websocket connection closed: {}", connection);
+
+		for (Consumer<Connection> listener : CLOSE_LISTENERS)
+		{
+			try
+			{
+				listener.accept(connection);
+			}
+			catch (RuntimeException e)
+			{
+				LOGGER.warn("Websocket traffic listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * The counters of one connection.
+	 */
+	public static class Connection
+	{
+		protected final long id = IDS.incrementAndGet();
+
+		protected final long opened = System.currentTimeMillis();
+
+		protected final AtomicLongArray counts = new AtomicLongArray(Counter.values().length);
+
+		public long getId()
+		{
+			return id;
+		}
+
+		public long getOpened()
+		{
+			return opened;
+		}
+
+		public long get(Counter counter)
+		{
+			return counts.get(counter.ordinal());
+		}
+
+		void add(Counter counter, long value)
+		{
+			counts.addAndGet(counter.ordinal(), value);
+			TOTALS[counter.ordinal()].add(value);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "#" + id + " open " + (System.currentTimeMillis() - opened) + "ms" +
+					", in " + get(Counter.FRAMES_IN) + " frames " + get(Counter.WIRE_BYTES_IN) + " wire bytes " + get(Counter.MESSAGE_BYTES_IN) + " message bytes" +
+					", out " + get(Counter.FRAMES_OUT) + " frames " + get(Counter.WIRE_BYTES_OUT) + " wire bytes " + get(Counter.MESSAGE_BYTES_OUT) + " message bytes" +
+					" in " + get(Counter.FLUSHES) + " coalesced writes";
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
+import org.eclipse.jetty.websocket.common.io.FrameFlusher;
+import org.jivesoftware.util.JiveGlobals;
+
+/**
+ * The wire side extension of every websocket connection.  Its name starts with '@', which makes it internal to Jetty:
+ * it is never offered or advertised in the handshake.  {@link WebSocketTransportServlet} places it first in the
+ * extension stack, so it sees frames as they cross the wire, after compression.
+ * <p>
+ * It counts the frames and bytes of the connection, and when {@link WebSocketTransportServlet#COALESCE_DELAY} is set,
+ * batches outgoing data frames in the connection's output buffer and flushes them at most that many milliseconds
+ * later, so a burst of stanzas is sent in one write instead of one write each.  Each stanza remains a message of its
+ * own, as RFC 7395 requires.  Control frames and a full buffer flush immediately.
+ */
+public class WebSocketTransportExtension extends AbstractExtension
+{
+	public static final String NAME = "@timplus-transport";
+
+	protected static final WriteCallback NOOP_CALLBACK = new WriteCallback()
+	{
+		@Override
+		public void writeFailed(Throwable x)
+		{
+
+		}
+
+		@Override
+		public void writeSuccess()
+		{
+
+		}
+	};
+
+	protected static final ScheduledExecutorService FLUSH_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable ->
+	{
+		final Thread thread = new Thread(runnable, "websocket-coalescer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	protected final WebSocketTraffic.Connection traffic = new WebSocketTraffic.Connection();
+
+	protected final long coalesceDelay;
+
+	protected final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+	/*
+	 * Set when permessage-deflate sits above this extension and counts the message bytes before compression
+	 */
+	protected volatile boolean compressed;
+
+	public WebSocketTransportExtension()
+	{
+		coalesceDelay = JiveGlobals.getLongProperty(WebSocketTransportServlet.COALESCE_DELAY, WebSocketTransportServlet.COALESCE_DELAY_DEFAULT);
+	}
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+	public WebSocketTraffic.Connection getTraffic()
+	{
+		return traffic;
+	}
+
+	/**
+	 * Called by the compression extension above this one, which then counts the message bytes.
+	 */
+	void setCompressed()
+	{
+		compressed = true;
+	}
+
+	@Override
+	protected void doStart() throws Exception
+	{
+		super.doStart();
+
+		WebSocketTraffic.open(traffic);
+	}
+
+	@Override
+	protected void doStop() throws Exception
+	{
+		WebSocketTraffic.close(traffic);
+
+		super.doStop();
+	}
+
+	@Override
+	public void incomingFrame(Frame frame)
+	{
+		count(frame, WebSocketTraffic.Counter.FRAMES_IN, WebSocketTraffic.Counter.WIRE_BYTES_IN, WebSocketTraffic.Counter.MESSAGE_BYTES_IN);
+
+		nextIncomingFrame(frame);
+	}
+
+	@Override
+	public void outgoingFrame(Frame frame, WriteCallback callback, BatchMode batchMode)
+	{
+		count(frame, WebSocketTraffic.Counter.FRAMES_OUT, WebSocketTraffic.Counter.WIRE_BYTES_OUT, WebSocketTraffic.Counter.MESSAGE_BYTES_OUT);
+
+		if (coalesceDelay <= 0 || OpCode.isControlFrame(frame.getOpCode()))
+		{
+			nextOutgoingFrame(frame, callback, batchMode);
+			return;
+		}
+
+		nextOutgoingFrame(frame, callback, BatchMode.ON);
+
+		if (flushScheduled.compareAndSet(false, true))
+			FLUSH_SCHEDULER.schedule(this::flush, coalesceDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the batched frames.  The flag is cleared first, so a frame batched after it schedules another flush.
+	 */
+	protected void flush()
+	{
+		flushScheduled.set(false);
+
+		if (!isRunning())
+			return;
+
+		traffic.add(WebSocketTraffic.Counter.FLUSHES, 1);
+		nextOutgoingFrame(FrameFlusher.FLUSH_FRAME, NOOP_CALLBACK, BatchMode.OFF);
+	}
+
+	protected void count(Frame frame, WebSocketTraffic.Counter frames, WebSocketTraffic.Counter wireBytes, WebSocketTraffic.Counter messageBytes)
+	{
+		final int length = frame.getPayloadLength();
+
+		traffic.add(frames, 1);
+		traffic.add(wireBytes, headerLength(length, frame.isMasked()) + length);
+		if (!compressed && !OpCode.isControlFrame(frame.getOpCode()))
+			traffic.add(messageBytes, length);
+	}
+
+	/**
+	 * Returns the size of a frame header (RFC 6455 section 5.2).
+	 */
+	protected static int headerLength(int payloadLength, boolean masked)
+	{
+		final int length = (payloadLength > 0xFFFF) ? 10 : (payloadLength > 125) ? 4 : 2;
+		return masked ? length + 4 : length;
+	}
+}
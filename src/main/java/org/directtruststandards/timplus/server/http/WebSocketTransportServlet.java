@@ -0,0 +1,91 @@
+package org.directtruststandards.timplus.server.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
+import org.eclipse.jetty.websocket.servlet.WebSocketCreator;
+import org.eclipse.jetty.websocket.servlet.WebSocketServletFactory;
+import org.jivesoftware.openfire.websocket.OpenfireWebSocketServlet;
+import org.jivesoftware.util.JiveGlobals;
+
+/**
+ * The XMPP over websocket (/ws) servlet with configurable transport: permessage-deflate through
+ * {@link ConfigurablePerMessageDeflateExtension}, and frame counting and write coalescing through
+ * {@link WebSocketTransportExtension}, which is added to every connection.
+ * <p>
+ * The extensions read their properties when a connection opens, so changes apply to new connections.  Enabling or
+ * disabling compression takes effect when the HTTP-bind server restarts.
+ */
+public class WebSocketTransportServlet extends OpenfireWebSocketServlet
+{
+	private static final long serialVersionUID = -2409788470622232517L;
+
+	public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+	/**
+	 * Whether permessage-deflate is negotiated with the clients that offer it.
+	 */
+	public static final String COMPRESSION_ENABLED = "httpbind.websocket.compression.enabled";
+
+	public static final boolean COMPRESSION_ENABLED_DEFAULT = true;
+
+	/**
+	 * The deflate level, 1 (fastest) to 9 (smallest), -1 for zlib's default of 6.
+	 */
+	public static final String COMPRESSION_LEVEL = "httpbind.websocket.compression.level";
+
+	public static final int COMPRESSION_LEVEL_DEFAULT = Deflater.DEFAULT_COMPRESSION;
+
+	/**
+	 * The largest window (8 to 15 bits) clients offering client_max_window_bits are asked to compress with.
+	 */
+	public static final String COMPRESSION_CLIENT_MAX_WINDOW_BITS = "httpbind.websocket.compression.clientMaxWindowBits";
+
+	public static final int COMPRESSION_CLIENT_MAX_WINDOW_BITS_DEFAULT = 15;
+
+	/**
+	 * Whether the server compresses each message with the context of the previous ones.
+	 */
+	public static final String COMPRESSION_CONTEXT_TAKEOVER = "httpbind.websocket.compression.contextTakeover";
+
+	public static final boolean COMPRESSION_CONTEXT_TAKEOVER_DEFAULT = true;
+
+	/**
+	 * The longest time in milliseconds outgoing frames are held to be written together, 0 to write each at once.
+	 */
+	public static final String COALESCE_DELAY = "httpbind.websocket.coalesce.delay";
+
+	public static final long COALESCE_DELAY_DEFAULT = 0;
+
+	@Override
+	public void configure(WebSocketServletFactory factory)
+	{
+		super.configure(factory);
+
+		final ExtensionFactory extensions = factory.getExtensionFactory();
+		if (JiveGlobals.getBooleanProperty(COMPRESSION_ENABLED, COMPRESSION_ENABLED_DEFAULT))
+			extensions.register(PERMESSAGE_DEFLATE, ConfigurablePerMessageDeflateExtension.class);
+		else
+			extensions.unregister(PERMESSAGE_DEFLATE);
+
+		extensions.register(WebSocketTransportExtension.NAME, WebSocketTransportExtension.class);
+
+		final WebSocketCreator creator = factory.getCreator();
+		factory.setCreator((request, response) ->
+		{
+			final Object socket = creator.createWebSocket(request, response);
+			if (socket != null)
+			{
+				// the transport extension goes first, closest to the wire, followed by what the client offered
+				final List<ExtensionConfig> configs = new ArrayList<>();
+				configs.add(new ExtensionConfig(WebSocketTransportExtension.NAME));
+				configs.addAll(response.isExtensionsNegotiated() ? response.getExtensions() : request.getExtensions());
+				response.setExtensions(configs);
+			}
+			return socket;
+		});
+	}
+}
@@ -0,0 +1,87 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.jivesoftware.smackx.amp.AMPDeliverCondition;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketExtension;
+
+/**
+ * Builds AMP notify receipts from a message element that is constructed once and copied for every receipt, rather
+ * than creating a packet, an extension, and the rule element and setting each attribute per delivery.  Only the
+ * addresses, id, and condition value are filled in.
+ * <p>
+ * The template is built with the same calls, in the same order, as the per delivery construction it replaces, and
+ * attributes are updated in place (or removed when there is no value), so the serialized stanza is identical.
+ */
+public class AMPReceiptTemplate
+{
+	protected static final String PLACEHOLDER = "placeholder";
+
+	protected final Element template;
+
+	public AMPReceiptTemplate()
+	{
+		final Message msg = new Message();
+
+		msg.setFrom(PLACEHOLDER);
+		msg.setTo(PLACEHOLDER);
+		msg.setID(PLACEHOLDER);
+
+		final PacketExtension amp = new PacketExtension(AMPExtension.ELEMENT, AMPExtension.NAMESPACE);
+		final Element ampElement = amp.getElement();
+		ampElement.addAttribute("status", AMPExtension.Status.notify.name());
+		ampElement.addAttribute("to", PLACEHOLDER);
+		ampElement.addAttribute("from", PLACEHOLDER);
+
+		final Element ruleElement = ampElement.addElement(new QName(AMPExtension.Rule.ELEMENT));
+		ruleElement.addAttribute(AMPExtension.Action.ATTRIBUTE_NAME, AMPExtension.Action.notify.name());
+		ruleElement.addAttribute(AMPExtension.Condition.ATTRIBUTE_NAME, AMPDeliverCondition.NAME);
+		ruleElement.addAttribute("value", PLACEHOLDER);
+
+		msg.addExtension(amp);
+
+		this.template = msg.getElement().createCopy();
+	}
+
+	/**
+	 * Creates a receipt.
+	 * @param from The from address of the receipt (the recipient of the original message).
+	 * @param to The to address of the receipt (the sender of the original message).  May be null.
+	 * @param id The id of the original message.
+	 * @param ampTo The to attribute of the amp element.
+	 * @param ampFrom The from attribute of the amp element.  May be null.
+	 * @param value The deliver condition value.
+	 * @return The receipt message.
+	 */
+	public Message create(JID from, JID to, String id, String ampTo, String ampFrom, String value)
+	{
+		final Element element = template.createCopy();
+
+		final Element ampElement = element.element(AMPExtension.ELEMENT);
+		setAttribute(ampElement, "to", ampTo);
+		setAttribute(ampElement, "from", ampFrom);
+		setAttribute(ampElement.element(AMPExtension.Rule.ELEMENT), "value", value);
+
+		// the packet setters update the template's attributes in place and keep the parsed JIDs
+		final Message msg = new Message(element, true);
+		msg.setFrom(from);
+		msg.setTo(to);
+		msg.setID(id);
+
+		return msg;
+	}
+
+	protected void setAttribute(Element element, String name, String value)
+	{
+		final Attribute attribute = element.attribute(name);
+
+		if (value == null)
+			element.remove(attribute);
+		else
+			attribute.setValue(value);
+	}
+}
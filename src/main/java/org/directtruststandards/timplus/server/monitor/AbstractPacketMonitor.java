@@ -1,9 +1,8 @@
 package org.directtruststandards.timplus.server.monitor;
 
-import java.io.StringReader;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.directtruststandards.timplus.monitor.tx.TxParser;
@@ -11,13 +10,8 @@ import org.directtruststandards.timplus.monitor.tx.model.Tx;
 import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
 import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
 import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
-import org.dom4j.Document;
-import org.dom4j.Element;
-import org.dom4j.QName;
-import org.dom4j.io.SAXReader;
 import org.jivesoftware.openfire.RoutingTable;
 import org.jivesoftware.openfire.XMPPServer;
-import org.jivesoftware.openfire.domain.DomainManager;
 import org.jivesoftware.openfire.interceptor.PacketRejectedException;
 import org.jivesoftware.openfire.muc.MUCRole;
 import org.jivesoftware.openfire.muc.MUCRoom;
@@ -25,15 +19,12 @@ import org.jivesoftware.openfire.muc.MultiUserChatService;
 import org.jivesoftware.openfire.muc.spi.RemoteMUCCache;
 import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.smackx.amp.AMPDeliverCondition;
-import org.jivesoftware.smackx.amp.packet.AMPExtension;
-import org.jxmpp.jid.Jid;
-import org.jxmpp.jid.impl.JidCreate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
-import org.xmpp.packet.PacketExtension;
+import org.xmpp.packet.Presence;
 
 public abstract class AbstractPacketMonitor implements PacketMonitor
 {
@@ -41,12 +32,107 @@ public abstract class AbstractPacketMonitor implements PacketMonitor
 	
 	protected TxParser parser; 
 	
+	protected final PacketMonitorStats stats;
+	
+	protected PacketPreFilter preFilter;
+	
+	protected final RoomOccupantCache roomOccupants;
+	
+	protected JIDCache jidCache;
+	
+	protected final AMPReceiptTemplate ampReceiptTemplate;
+	
+	protected ExpirationErrorRouter expirationErrorRouter;
+	
+	protected MonitorMetrics metrics;
+	
+	protected OverloadController overloadController;
+	
 	public AbstractPacketMonitor(TxParser parser)
 	{
 		super();
 		
 		this.parser = parser;
 		
+		this.stats = new PacketMonitorStats();
+		
+		this.preFilter = new PacketPreFilter(stats);
+		
+		this.roomOccupants = new RoomOccupantCache();
+		
+		this.jidCache = new JIDCache();
+		
+		this.ampReceiptTemplate = new AMPReceiptTemplate();
+		
+		this.expirationErrorRouter = new ExpirationErrorRouter();
+		
+		this.metrics = new MonitorMetrics();
+	}
+	
+	/**
+	 * Sets the cache used to parse the addresses of monitored messages.
+	 * @param jidCache The JID cache.
+	 */
+	public void setJIDCache(JIDCache jidCache)
+	{
+		this.jidCache = jidCache;
+	}
+	
+	public JIDCache getJIDCache()
+	{
+		return jidCache;
+	}
+	
+	/**
+	 * Sets the router used to send the error messages of expired Txs.
+	 * @param expirationErrorRouter The expiration error router.
+	 */
+	public void setExpirationErrorRouter(ExpirationErrorRouter expirationErrorRouter)
+	{
+		this.expirationErrorRouter = expirationErrorRouter;
+	}
+	
+	public ExpirationErrorRouter getExpirationErrorRouter()
+	{
+		return expirationErrorRouter;
+	}
+	
+	/**
+	 * Sets the meters the monitor records to.  By default, measurements are discarded.
+	 * @param metrics The monitor metrics.
+	 */
+	public void setMetrics(MonitorMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	public MonitorMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Sets an optional controller that samples tracking and defers delivery receipts when the monitor falls behind.
+	 * @param overloadController The overload controller.
+	 */
+	public void setOverloadController(OverloadController overloadController)
+	{
+		this.overloadController = overloadController;
+	}
+	
+	public OverloadController getOverloadController()
+	{
+		return overloadController;
+	}
+	
+	public PacketMonitorStats getStats()
+	{
+		return stats;
+	}
+	
+	public RoomOccupantCache getRoomOccupantCache()
+	{
+		return roomOccupants;
 	}
 	
 	@Override
@@ -57,108 +143,154 @@ public abstract class AbstractPacketMonitor implements PacketMonitor
 		 * The boolean incoming is misleading.  It indicates if the message is incoming to the server from a connected client
 		 * or external server (true) of if it is destined to an edge client (false)
 		 */
+		metrics.intercepted(packet);
+		
 		try
 		{
-			if (packet instanceof Message)
+			if (packet instanceof Presence)
+			{
+				// rooms broadcast a presence to every occupant when someone joins, leaves, or changes nickname.
+				// Checked at every stage so a remote room snapshot rebuilt ahead of the RemoteMUCCache is dropped
+				roomOccupants.presenceIntercepted((Presence)packet);
+			}
+			else if (packet instanceof Message)
 			{
 				final Message messagePacket = Message.class.cast(packet);
-				final Tx tx = parser.parseStanza(packet.toXML());
-				if (tx != null)
+				stats.intercepted.increment();
+				
+				// cheap checks on the packet fields first so we only parse packets that we will actually track or acknowledge
+				final PacketPreFilter.Decision decision = preFilter.evaluate(messagePacket, incoming, processed);
+				if (decision == PacketPreFilter.Decision.REJECT)
+					return;
+				
+				final Tx tx = parsePacket(packet);
+				if (tx == null)
+					return;
+				
+				stats.parsed.increment();
+				
+				// the pre-filter has already checked that we own the sending domain of outgoing messages
+				// and the destination domain of everything sent to an edge client
+				switch (decision)
 				{
-					// Make sure this is a chat or group chat message.  We also want to start tracking the
-					// message before the rest of the server has a chance to process or drop the message
-					if (incoming && !processed && tx.getStanzaType() == TxStanzaType.MESSAGE)
+					case TRACK_SENT:
 					{
-						// ensure we have a from detail
+						// Make sure this is a chat or group chat message.  We also want to start tracking the
+						// message before the rest of the server has a chance to process or drop the message
 						final TxDetail fromDetail = tx.getDetail(TxDetailType.FROM);
-						if (fromDetail != null)
+						if (tx.getStanzaType() != TxStanzaType.MESSAGE || fromDetail == null)
+							return;
+						
+						final JID from = jidCache.getBareJID(fromDetail.getDetailValue());
+						if (messagePacket.getType() == Message.Type.groupchat)
+						{
+							// group chats are a special case because they can contain multiple recipients.
+							// Need to get the full list of recipients (real JIDs) from the room
+							
+							// Bare JID is the room name
+							final RoomOccupantSnapshot roomRecipients = getRoomOccupants(messagePacket.getTo().asBareJID());
+							
+							final TxDetail recipDetail = tx.getDetail(TxDetailType.RECIPIENTS);
+							if (recipDetail != null)
+								recipDetail.setDetailValue(roomRecipients.getRecipients());
+						}
+						// track the message unless the monitor is overloaded and sampling
+						if (overloadController == null || overloadController.shouldTrack(messagePacket.getID(), from.toString()))
 						{
-							// make sure we own the source domain
-							final Jid from = JidCreate.from(fromDetail.getDetailValue()).asBareJid();
-							if (DomainManager.getInstance().isRegisteredDomain(from.getDomain().toString()))
-							{
-								if (messagePacket.getType() == Message.Type.groupchat)
-								{
-									// group chats are a special case because they can contain multiple recipients.
-									// Need to get the full list of recipients (real JIDs) from the room
-									
-									// Bare JID is the room name
-									final Map<JID, JID> roomRecipients = getRoomParticipants(messagePacket.getTo().asBareJID());
-									final StringBuilder recipBuilder = new StringBuilder();
-									
-									final Iterator<JID> recipIter = roomRecipients.values().iterator();
-									while (recipIter.hasNext())
-									{
-										recipBuilder.append(recipIter.next().toString());
-										if (recipIter.hasNext())
-											recipBuilder.append(",");
-									}
-									final TxDetail recipDetail = tx.getDetail(TxDetailType.RECIPIENTS);
-									if (recipDetail != null)
-										recipDetail.setDetailValue(recipBuilder.toString());
-								}
-								// track the message
-								if (Log.isDebugEnabled())
-									Log.debug("Tracking outgoing message from " + packet.getFrom() + " to " + packet.getTo());
+							if (Log.isDebugEnabled())
+								Log.debug("Tracking outgoing message from " + packet.getFrom() + " to " + packet.getTo());
 
-								trackTx(tx);
-							}
+							track(tx);
 						}
+						break;
 					}
-					
-					else if (!incoming) 
+					case TRACK_NOTIFICATION:
 					{
-						// make sure we own the destination
+						// check for AMP or Error Messages and track them
 						final TxDetail toDetail = tx.getDetail(TxDetailType.RECIPIENTS);
+						if ((tx.getStanzaType() != TxStanzaType.AMP && tx.getStanzaType() != TxStanzaType.MESSAGE_ERROR) || toDetail == null)
+							return;
 						
-						if (toDetail != null)
-						{		
-							final JID to = new JID(toDetail.getDetailValue()).asBareJID();
-							if (DomainManager.getInstance().isRegisteredDomain(to.getDomain().toString()))
-							{
-								// check for AMP or Error Messages and track them
-								if (!processed && (tx.getStanzaType() == TxStanzaType.AMP || tx.getStanzaType() == TxStanzaType.MESSAGE_ERROR))
-								{
-									if (Log.isDebugEnabled())
-									{
-										if (tx.getStanzaType() == TxStanzaType.AMP)
-											Log.debug("Tracking AMP from " + packet.getFrom() + " to " + packet.getTo());
-										else
-											Log.debug("Tracking error from " + packet.getFrom() + " to " + packet.getTo());
-									}
-									//trackingChannel.send(withPayload(tx).build());
-									trackTx(tx);
-								}
-								// check for messages that have been delivered to the edge client
-								else if (processed && tx.getStanzaType() == TxStanzaType.MESSAGE)
-								{ 
-									// send an AMP message the message was delivered
-									if (Log.isDebugEnabled())
-										Log.debug("Message was delivered to final destination: from " + packet.getFrom() + " to " + packet.getTo());
+						// the message this refers to was sampled out, so tracking it would only leave an orphan group
+						if (overloadController != null && overloadController.isSampledOut(messagePacket.getID(), 
+								jidCache.getBareJID(toDetail.getDetailValue()).toString()))
+							return;
 
-									final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
-									final Packet msg = generateDeliveryAMPMessage(messagePacket, AMPDeliverCondition.Value.direct.name());
-									
-									final JID ampPacketTo = msg.getTo();
-									
-									if (ampPacketTo != null)
-										routingTable.routePacket(ampPacketTo, msg, false);
-								}
-							}
+						if (Log.isDebugEnabled())
+						{
+							if (tx.getStanzaType() == TxStanzaType.AMP)
+								Log.debug("Tracking AMP from " + packet.getFrom() + " to " + packet.getTo());
+							else
+								Log.debug("Tracking error from " + packet.getFrom() + " to " + packet.getTo());
 						}
+						track(tx);
+						break;
+					}
+					case ACKNOWLEDGE:
+					{
+						// check for messages that have been delivered to the edge client
+						if (tx.getStanzaType() != TxStanzaType.MESSAGE)
+							return;
+						
+						// send an AMP message the message was delivered
+						if (Log.isDebugEnabled())
+							Log.debug("Message was delivered to final destination: from " + packet.getFrom() + " to " + packet.getTo());
+
+						if (overloadController != null)
+							overloadController.acknowledge(() -> acknowledgeDelivery(messagePacket));
+						else
+							acknowledgeDelivery(messagePacket);
+						break;
 					}
+					default:
+						break;
 				}
 			}
 			
 		}
 		catch (Exception e)
 		{
+			// never let monitoring break packet processing, but count what was swallowed
+			metrics.exception(e);
 			
+			if (Log.isDebugEnabled())
+				Log.debug("Failed to monitor packet " + packet.getID(), e);
 		}
 	}
 	
 	
 	
+	protected Tx parsePacket(Packet packet)
+	{
+		final long start = System.nanoTime();
+		try
+		{
+			// avoid the serialize/re-parse round trip when the parser can read the packet directly
+			if (parser instanceof PacketTxParser)
+				return ((PacketTxParser)parser).parsePacket(packet);
+			
+			return parser.parseStanza(packet.toXML());
+		}
+		finally
+		{
+			metrics.parsed(System.nanoTime() - start);
+		}
+	}
+	
+	protected void track(Tx tx)
+	{
+		final long start = System.nanoTime();
+		
+		trackTx(tx);
+		
+		final long elapsed = System.nanoTime() - start;
+		metrics.tracked(elapsed);
+		if (overloadController != null)
+			overloadController.trackLatency(elapsed);
+		
+		stats.tracked.increment();
+	}
+	
 	@Override
 	public void messageBounced(Message message)
 	{
@@ -173,11 +305,9 @@ public abstract class AbstractPacketMonitor implements PacketMonitor
 
 		// only send an AMP message is we are storing a MESSAGE
 		// sending an AMP for other types of messages can result in infinite message loops
-		final Tx tx = parser.parseStanza(message.toXML());
+		final Tx tx = parsePacket(message);
 		if (tx != null && tx.getStanzaType() == TxStanzaType.MESSAGE)
 		{
-			
-			final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
 			final Packet msg = generateDeliveryAMPMessage(message, AMPDeliverCondition.Value.stored.name());
 			
 			final JID ampPacketTo = message.getFrom().asBareJID();
@@ -185,7 +315,8 @@ public abstract class AbstractPacketMonitor implements PacketMonitor
 			if (Log.isDebugEnabled())
 				Log.debug("Generating and sending storage offline AMP packet message  from " + ampPacketTo.toString() + " to " + msg.getTo());
 			
-			routingTable.routePacket(ampPacketTo, msg, false);
+			routePacket(ampPacketTo, msg);
+			metrics.receipt(AMPDeliverCondition.Value.stored.name());
 		}
 	}
 
@@ -193,115 +324,133 @@ public abstract class AbstractPacketMonitor implements PacketMonitor
 	@Override
 	public void sendMonitorExperationErrorMessages(Collection<String> errorMessages)
 	{
-		for (String msg : errorMessages)
-		{
-			try
-			{
-				final SAXReader saxBuilder = new SAXReader();
-				final Document document = saxBuilder.read(new StringReader(msg));
-				
-				final Packet packet = new Message(document.getRootElement());
-				
-				final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
-				
-				routingTable.routePacket(packet.getTo(), packet, false);
-			}
-			catch (Exception e)
-			{
-				Log.warn("Failed to send message expiration error message.", e);
-			}
-		}
-		
+		expirationErrorRouter.route(errorMessages);
 	}
 	
 	protected Packet generateDeliveryAMPMessage(Message originalPacket, String value)
 	{
-		final Message msg = new Message();
+		// resolve the group chat sender's real JID once for both the recipient and the AMP from attribute
+		final JID originalSendersJID = (originalPacket.getType() == Message.Type.groupchat) ?
+				nickNameToUserJID(originalPacket.getFrom()) : null;
 		
-		msg.setFrom(originalPacket.getTo());
-			
 		//
 		// For group chats, the message needs to be sent to the real JID and not the 
 		// the nickname
+		final JID to;
 		if (originalPacket.getType() == Message.Type.groupchat)
-			msg.setTo(nickNameToUserJID(originalPacket.getFrom()));
+			to = originalSendersJID;
 		else
-			msg.setTo(originalPacket.getFrom().asBareJID());
-		msg.setID(originalPacket.getID());
-		
-		final PacketExtension amp = new PacketExtension(AMPExtension.ELEMENT, AMPExtension.NAMESPACE);
-		final Element ampElement = amp.getElement();
-		ampElement.addAttribute("status", AMPExtension.Status.notify.name());
-		
-
-		ampElement.addAttribute("to", originalPacket.getTo().asBareJID().toString());
+			to = originalPacket.getFrom().asBareJID();
 		
 		// Per the TIM+ spec, group chat AMP message will have the From attribute in the rule element
 		// set to the original senders JID (not their nickname)
+		final String ampFrom;
 		if (originalPacket.getType() == Message.Type.groupchat)
-		{
-			final JID originalSendersJID = nickNameToUserJID(originalPacket.getFrom());
-			if (originalSendersJID != null)
-			ampElement.addAttribute("from", originalSendersJID.toString());
-		}
+			ampFrom = (originalSendersJID != null) ? originalSendersJID.toString() : null;
 		else
-			ampElement.addAttribute("from", originalPacket.getFrom().toString());
-		
-		final Element ruleElement = ampElement.addElement(new QName(AMPExtension.Rule.ELEMENT));
-		ruleElement.addAttribute(AMPExtension.Action.ATTRIBUTE_NAME, AMPExtension.Action.notify.name());
-		ruleElement.addAttribute(AMPExtension.Condition.ATTRIBUTE_NAME, AMPDeliverCondition.NAME);
-		ruleElement.addAttribute("value", value);
+			ampFrom = originalPacket.getFrom().toString();
 		
-		msg.addExtension(amp);
+		return ampReceiptTemplate.create(originalPacket.getTo(), to, originalPacket.getID(), 
+				originalPacket.getTo().toBareJID(), ampFrom, value);
+	}
+	
+	/**
+	 * Generates and sends the direct delivery receipt of a message delivered to a local client.
+	 * @param messagePacket The delivered message.
+	 */
+	protected void acknowledgeDelivery(Message messagePacket)
+	{
+		try
+		{
+			final Packet msg = generateDeliveryAMPMessage(messagePacket, AMPDeliverCondition.Value.direct.name());
+			
+			final JID ampPacketTo = msg.getTo();
+			
+			if (ampPacketTo != null)
+			{
+				routePacket(ampPacketTo, msg);
+				stats.acknowledged.increment();
+				metrics.receipt(AMPDeliverCondition.Value.direct.name());
+			}
+		}
+		catch (Exception e)
+		{
+			metrics.exception(e);
+			
+			if (Log.isDebugEnabled())
+				Log.debug("Failed to acknowledge delivery of message " + messagePacket.getID(), e);
+		}
+	}
+	
+	/**
+	 * Sends a packet generated by the monitor.
+	 * @param to The address to route the packet to.
+	 * @param packet The packet.
+	 */
+	protected void routePacket(JID to, Packet packet)
+	{
+		final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
 		
-		return msg;
+		routingTable.routePacket(to, packet, false);
+	}
+	
+	/**
+	 * @param roomJID The bare address of a room.
+	 * @return True if the room is hosted by a MUC service of this server.
+	 */
+	protected boolean isLocalRoom(JID roomJID)
+	{
+		return XMPPServer.getInstance().getRoutingTable().hasComponentRoute(roomJID);
 	}
 	
 	protected Map<JID, JID> getRoomParticipants(JID roomJID)
+	{
+		return getRoomOccupants(roomJID).getOccupants();
+	}
+	
+	protected RoomOccupantSnapshot getRoomOccupants(JID roomJID)
+	{
+        final boolean isLocal = isLocalRoom(roomJID);
+
+        // snapshots are cached until the room's occupants change.  Local rooms are read from
+        // the MUC service and remote rooms from the RemoteMUCCache
+        return roomOccupants.getSnapshot(roomJID, isLocal ? this::getLocalRoomParticipants : this::getRemoteRoomParticipants);
+	}
+	
+	protected Map<JID, JID> getLocalRoomParticipants(JID roomJID)
 	{		
 		final Map<JID, JID> retVal = new HashMap<>();
 		
-        final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
-        final boolean isLocal = routingTable.hasComponentRoute(roomJID);
-
-        if (isLocal)
+		// rooms owned by this server can be quickly looked up
+		// in the local MUC Room manager
+        final MultiUserChatService mucService = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatService(new JID(roomJID.getDomain()));
+        if (mucService != null)
         {
-    		// rooms owned by this server can be quickly looked up
-    		// in the local MUC Room manager
-            final MultiUserChatService mucService = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatService(new JID(roomJID.getDomain()));
-            if (mucService != null)
-            {
-            	final MUCRoom room = mucService.getChatRoom(roomJID.getNode());
-            	if (room != null)
-            		for (MUCRole occupant : room.getOccupants())
-            			retVal.put(new JID(roomJID.getNode(), roomJID.getDomain(), occupant.getNickname()), occupant.getUserAddress());
-            }
-        }
-        else
-        {
-        	return RemoteMUCCache.getInstance().getRemoteRoomOccupants(roomJID);
+        	final MUCRoom room = mucService.getChatRoom(roomJID.getNode());
+        	if (room != null)
+        		for (MUCRole occupant : room.getOccupants())
+        			retVal.put(new JID(roomJID.getNode(), roomJID.getDomain(), occupant.getNickname()), occupant.getUserAddress());
         }
 		
 		return retVal;
 	}
 	
+	protected Map<JID, JID> getRemoteRoomParticipants(JID roomJID)
+	{
+		final Map<JID, JID> remoteOccupants = RemoteMUCCache.getInstance().getRemoteRoomOccupants(roomJID);
+		
+		return (remoteOccupants != null) ? remoteOccupants : Collections.emptyMap();
+	}
+	
 	protected JID nickNameToUserJID(JID nickNameJID)
 	{
 		// the bare JID of the nickname is the room JID
-        final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
-        final boolean isLocal = routingTable.hasComponentRoute(nickNameJID.asBareJID());
-        
-        if (isLocal)
-        {
-        	for (Map.Entry<JID, JID> roomParticipant : getRoomParticipants(nickNameJID.asBareJID()).entrySet())
-        		if (roomParticipant.getKey().equals(nickNameJID))
-        			return roomParticipant.getValue();
-        }
-        else
-        {
-        	return RemoteMUCCache.getInstance().getRemoteNickNameJID(nickNameJID);
-        }
-        			
-		return null;
+		final JID roomJID = nickNameJID.asBareJID();
+		
+		final JID userJID = getRoomOccupants(roomJID).getUserJID(nickNameJID);
+		if (userJID == null && !isLocalRoom(roomJID))
+			return RemoteMUCCache.getInstance().getRemoteNickNameJID(nickNameJID);
+		
+		return userJID;
 	}
 }
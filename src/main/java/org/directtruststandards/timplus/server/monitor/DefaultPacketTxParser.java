@@ -0,0 +1,100 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.dom4j.Element;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+/**
+ * PacketTxParser that reads the dom4j element backing a packet instead of serializing the packet
+ * to XML and parsing it again.
+ * <p>
+ * Plain chat and group chat messages, which make up the bulk of the monitored traffic, are built directly
+ * from the element.  Any other stanza (AMP, errors, body-less messages, etc) is handed to the delegate parser
+ * so the resulting Tx is exactly what the delegate would have produced.
+ */
+public class DefaultPacketTxParser implements PacketTxParser
+{
+	protected static final String BODY_ELEMENT = "body";
+
+	protected static final String ERROR_ELEMENT = "error";
+
+	protected final TxParser delegate;
+
+	public DefaultPacketTxParser(TxParser delegate)
+	{
+		super();
+
+		this.delegate = delegate;
+	}
+
+	@Override
+	public Tx parseStanza(String stanza)
+	{
+		return delegate.parseStanza(stanza);
+	}
+
+	@Override
+	public Tx parsePacket(Packet packet)
+	{
+		if (!(packet instanceof Message))
+			return delegate.parseStanza(packet.toXML());
+
+		final Tx tx = parseMessageElement(packet.getElement());
+
+		return (tx != null) ? tx : delegate.parseStanza(packet.toXML());
+	}
+
+	/**
+	 * Builds a MESSAGE Tx from a chat or group chat message element.
+	 * @param element The message element.
+	 * @return The Tx, or null if the element is not a plain chat/group chat message and needs the full parser.
+	 */
+	protected Tx parseMessageElement(Element element)
+	{
+		final String type = element.attributeValue("type");
+		if (!Message.Type.chat.name().equals(type) && !Message.Type.groupchat.name().equals(type))
+			return null;
+
+		final String from = element.attributeValue("from");
+		final String to = element.attributeValue("to");
+		final String id = element.attributeValue("id");
+		if (from == null || to == null || id == null)
+			return null;
+
+		boolean hasBody = false;
+		for (Iterator<Element> iter = element.elementIterator(); iter.hasNext();)
+		{
+			final Element child = iter.next();
+			final String name = child.getName();
+
+			if (ERROR_ELEMENT.equals(name))
+				return null;
+
+			if (AMPExtension.ELEMENT.equals(name) && AMPExtension.NAMESPACE.equals(child.getNamespaceURI()))
+				return null;
+
+			if (BODY_ELEMENT.equals(name))
+				hasBody = true;
+		}
+
+		if (!hasBody)
+			return null;
+
+		final Map<String, TxDetail> details = new HashMap<>();
+		details.put(TxDetailType.FROM.getType(), new TxDetail(TxDetailType.FROM, from));
+		details.put(TxDetailType.RECIPIENTS.getType(), new TxDetail(TxDetailType.RECIPIENTS, to));
+		details.put(TxDetailType.MSG_ID.getType(), new TxDetail(TxDetailType.MSG_ID, id));
+
+		return new Tx(TxStanzaType.MESSAGE, details);
+	}
+}
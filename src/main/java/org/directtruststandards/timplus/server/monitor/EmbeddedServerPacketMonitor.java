@@ -15,6 +15,8 @@ public class EmbeddedServerPacketMonitor extends AbstractPacketMonitor implement
 {
 	protected MessageChannel trackingChannel;
 	
+	protected RingBufferTxDispatcher dispatcher;
+	
 	public EmbeddedServerPacketMonitor(TxParser parser, MessageChannel trackingChannel)
 	{
 		super(parser);
@@ -22,10 +24,23 @@ public class EmbeddedServerPacketMonitor extends AbstractPacketMonitor implement
 		this.trackingChannel = trackingChannel;
 	}
 
+	/**
+	 * Sets an optional dispatcher that moves tracking off of the packet processing thread.  If not set,
+	 * Txs are sent to the tracking channel on the calling thread.
+	 * @param dispatcher The asynchronous dispatcher.
+	 */
+	public void setDispatcher(RingBufferTxDispatcher dispatcher)
+	{
+		this.dispatcher = dispatcher;
+	}
+	
 	@Override
 	public void trackTx(Tx tx)
 	{
-		trackingChannel.send(withPayload(tx).build());
+		if (dispatcher != null)
+			dispatcher.publish(tx);
+		else
+			trackingChannel.send(withPayload(tx).build());
 	}
 
 	@Override
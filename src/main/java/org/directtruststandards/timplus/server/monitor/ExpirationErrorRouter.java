@@ -0,0 +1,239 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dom4j.Document;
+import org.dom4j.io.SAXReader;
+import org.jivesoftware.openfire.RoutingTable;
+import org.jivesoftware.openfire.XMPPServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+/**
+ * Routes the error messages the monitor generates for expired Txs.  A burst of timeouts (a remote domain going
+ * down, for example) produces a large number of error messages at once, so they are split into batches that
+ * are parsed and routed on a bounded pool of workers.  Each thread reuses its own SAX reader instead of
+ * creating one per message.
+ * <p>
+ * When the pool is full, the calling thread routes the batch itself, which slows the monitor's output down to
+ * the rate the errors can be routed.  If the router is not started or has no workers, every batch is routed
+ * on the calling thread.
+ */
+public class ExpirationErrorRouter
+{
+	private static final Logger Log = LoggerFactory.getLogger(ExpirationErrorRouter.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	protected static final ThreadLocal<SAXReader> readers = ThreadLocal.withInitial(SAXReader::new);
+
+	protected final int workers;
+
+	protected final int queueSize;
+
+	protected final int batchSize;
+
+	protected final LongAdder routed = new LongAdder();
+
+	protected final LongAdder failed = new LongAdder();
+
+	protected final LongAdder batches = new LongAdder();
+
+	protected final LongAdder batchNanos = new LongAdder();
+
+	protected final LongAccumulator maxBatchNanos = new LongAccumulator(Math::max, 0);
+
+	protected volatile ThreadPoolExecutor executor;
+
+	public ExpirationErrorRouter()
+	{
+		this(0, 0, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param workers The number of threads routing batches.  0 routes on the calling thread.
+	 * @param queueSize The number of batches waiting for a worker before the caller routes batches itself.
+	 * @param batchSize The maximum number of error messages in a batch.
+	 */
+	public ExpirationErrorRouter(int workers, int queueSize, int batchSize)
+	{
+		if (workers < 0)
+			throw new IllegalArgumentException("Workers must not be negative");
+
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be at least 1");
+
+		this.workers = workers;
+		this.queueSize = Math.max(1, queueSize);
+		this.batchSize = batchSize;
+	}
+
+	public synchronized void start()
+	{
+		if (executor != null || workers == 0)
+			return;
+
+		final AtomicInteger threadNum = new AtomicInteger();
+		executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), r ->
+		{
+			final Thread thread = new Thread(r, "monitor-expiration-errors-" + threadNum.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	public synchronized void stop()
+	{
+		if (executor == null)
+			return;
+
+		// let queued batches finish so errors are not lost on shutdown
+		executor.shutdown();
+		try
+		{
+			if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+				Log.warn("Expiration error messages were still being routed at shutdown.");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+	}
+
+	/**
+	 * Routes error messages in batches.
+	 * @param errorMessages The serialized error message stanzas.
+	 */
+	public void route(Collection<String> errorMessages)
+	{
+		final ThreadPoolExecutor pool = executor;
+
+		List<String> batch = new ArrayList<>(Math.min(batchSize, errorMessages.size()));
+		for (String msg : errorMessages)
+		{
+			batch.add(msg);
+			if (batch.size() == batchSize)
+			{
+				submit(pool, batch);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+
+		if (!batch.isEmpty())
+			submit(pool, batch);
+	}
+
+	/**
+	 * @return The number of error messages routed.
+	 */
+	public long getRouted()
+	{
+		return routed.sum();
+	}
+
+	/**
+	 * @return The number of error messages that could not be parsed or routed.
+	 */
+	public long getFailed()
+	{
+		return failed.sum();
+	}
+
+	/**
+	 * @return The number of batches routed.
+	 */
+	public long getBatches()
+	{
+		return batches.sum();
+	}
+
+	/**
+	 * @return The mean time in milliseconds to parse and route a batch.
+	 */
+	public double getMeanBatchLatency()
+	{
+		final long count = getBatches();
+
+		return (count == 0) ? 0.0 : batchNanos.sum() / 1000000.0 / count;
+	}
+
+	/**
+	 * @return The longest time in milliseconds to parse and route a batch.
+	 */
+	public double getMaxBatchLatency()
+	{
+		return maxBatchNanos.get() / 1000000.0;
+	}
+
+	/**
+	 * @return The number of batches waiting for a worker.
+	 */
+	public int getQueuedBatches()
+	{
+		final ThreadPoolExecutor pool = executor;
+
+		return (pool == null) ? 0 : pool.getQueue().size();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "routed=" + getRouted() + ", failed=" + getFailed() + ", batches=" + getBatches() + ", queuedBatches=" + getQueuedBatches() +
+				", meanBatchLatency=" + getMeanBatchLatency() + "ms, maxBatchLatency=" + getMaxBatchLatency() + "ms";
+	}
+
+	protected void submit(ThreadPoolExecutor pool, List<String> batch)
+	{
+		if (pool == null)
+			routeBatch(batch);
+		else
+			pool.execute(() -> routeBatch(batch));
+	}
+
+	protected void routeBatch(List<String> batch)
+	{
+		final long start = System.nanoTime();
+
+		final SAXReader reader = readers.get();
+		final RoutingTable routingTable = XMPPServer.getInstance().getRoutingTable();
+
+		for (String msg : batch)
+		{
+			try
+			{
+				final Document document = reader.read(new StringReader(msg));
+
+				final Packet packet = new Message(document.getRootElement());
+
+				routingTable.routePacket(packet.getTo(), packet, false);
+				routed.increment();
+			}
+			catch (Exception e)
+			{
+				failed.increment();
+				Log.warn("Failed to send message expiration error message.", e);
+			}
+		}
+
+		final long elapsed = System.nanoTime() - start;
+		batches.increment();
+		batchNanos.add(elapsed);
+		maxBatchNanos.accumulate(elapsed);
+
+		if (Log.isDebugEnabled())
+			Log.debug("Routed batch of " + batch.size() + " expiration error messages in " + (elapsed / 1000000.0) + "ms");
+	}
+}
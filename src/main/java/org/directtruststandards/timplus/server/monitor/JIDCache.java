@@ -0,0 +1,167 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xmpp.packet.JID;
+
+/**
+ * Bounded cache of parsed JIDs keyed by their string form.  The monitor sees the same handful of addresses on nearly
+ * every packet, so this saves the stringprep and allocations of parsing them again.
+ * <p>
+ * Eviction is generational: entries go into the current generation, and when it fills up to half the maximum size
+ * it becomes the previous generation and the old previous generation is dropped.  Hits in the previous generation are
+ * copied forward, so addresses in regular use survive.  Lookups never lock and the cache never holds more than the
+ * maximum size per JID form.
+ */
+public class JIDCache
+{
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	protected final Generations full;
+
+	protected final Generations bare;
+
+	protected final LongAdder hits = new LongAdder();
+
+	protected final LongAdder misses = new LongAdder();
+
+	public JIDCache()
+	{
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxSize The maximum number of cached full JIDs, and separately bare JIDs.
+	 */
+	public JIDCache(int maxSize)
+	{
+		if (maxSize < 2)
+			throw new IllegalArgumentException("Max size must be at least 2");
+
+		this.full = new Generations(maxSize / 2);
+		this.bare = new Generations(maxSize / 2);
+	}
+
+	/**
+	 * @param jid The string form of a JID.
+	 * @return The parsed JID.
+	 * @throws IllegalArgumentException If the string is not a valid JID.
+	 */
+	public JID getJID(String jid)
+	{
+		JID retVal = full.get(jid);
+		if (retVal != null)
+		{
+			hits.increment();
+			return retVal;
+		}
+
+		misses.increment();
+		retVal = new JID(jid);
+		full.put(jid, retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * @param jid The string form of a JID.
+	 * @return The parsed bare JID.
+	 * @throws IllegalArgumentException If the string is not a valid JID.
+	 */
+	public JID getBareJID(String jid)
+	{
+		JID retVal = bare.get(jid);
+		if (retVal != null)
+		{
+			hits.increment();
+			return retVal;
+		}
+
+		misses.increment();
+		retVal = loadJID(jid).asBareJID();
+		bare.put(jid, retVal);
+
+		return retVal;
+	}
+
+	/**
+	 * @return The number of lookups served from the cache.
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of lookups not served from the cache.
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/*
+	 * Full JID lookup that isn't counted, so a bare JID miss counts as exactly one miss
+	 */
+	protected JID loadJID(String jid)
+	{
+		JID retVal = full.get(jid);
+		if (retVal == null)
+		{
+			retVal = new JID(jid);
+			full.put(jid, retVal);
+		}
+
+		return retVal;
+	}
+
+	protected class Generations
+	{
+		protected final int generationSize;
+
+		protected volatile ConcurrentHashMap<String, JID> current = new ConcurrentHashMap<>();
+
+		protected volatile ConcurrentHashMap<String, JID> previous = new ConcurrentHashMap<>();
+
+		protected Generations(int generationSize)
+		{
+			this.generationSize = generationSize;
+		}
+
+		protected JID get(String key)
+		{
+			JID jid = current.get(key);
+			if (jid != null)
+				return jid;
+
+			jid = previous.get(key);
+			if (jid != null)
+				put(key, jid);
+
+			return jid;
+		}
+
+		protected void put(String key, JID jid)
+		{
+			ConcurrentHashMap<String, JID> gen = current;
+			if (gen.size() >= generationSize)
+				gen = rotate(gen);
+
+			gen.put(key, jid);
+		}
+
+		protected synchronized ConcurrentHashMap<String, JID> rotate(ConcurrentHashMap<String, JID> filled)
+		{
+			// another thread may have already rotated
+			if (current == filled)
+			{
+				previous = filled;
+				current = new ConcurrentHashMap<>();
+			}
+
+			return current;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.ToDoubleFunction;
+
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.directtruststandards.timplus.server.monitor.store.ShardedWriteBehindMessageGroupStore;
+import org.springframework.integration.store.MessageGroupStore;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Binds the counters and sizes the monitor components already keep (pre-filter stages, dispatcher drops, aggregator
+ * backlog, cache hit rates, etc) to a meter registry.  Values are read when the registry is scraped, so nothing is
+ * added to the packet path.  Optional components that are not set are not bound.
+ * <p>
+ * The group count of a persistent store is a query, so it is read at most once per group count interval however
+ * often the registry is scraped.
+ */
+public class MonitorMeterBinder implements MeterBinder
+{
+	protected static final String PREFIX = MonitorMetrics.PREFIX;
+
+	protected final AbstractPacketMonitor monitor;
+
+	protected RingBufferTxDispatcher dispatcher;
+
+	protected PartitionedTxAggregator aggregator;
+
+	protected MessageGroupStore groupStore;
+
+	protected TimingWheelTaskScheduler timeoutScheduler;
+
+	protected IntSupplier backlog;
+
+	protected long groupCountInterval = 30000;
+
+	public MonitorMeterBinder(AbstractPacketMonitor monitor)
+	{
+		this.monitor = monitor;
+	}
+
+	public void setDispatcher(RingBufferTxDispatcher dispatcher)
+	{
+		this.dispatcher = dispatcher;
+	}
+
+	public void setAggregator(PartitionedTxAggregator aggregator)
+	{
+		this.aggregator = aggregator;
+	}
+
+	public void setGroupStore(MessageGroupStore groupStore)
+	{
+		this.groupStore = groupStore;
+	}
+
+	public void setTimeoutScheduler(TimingWheelTaskScheduler timeoutScheduler)
+	{
+		this.timeoutScheduler = timeoutScheduler;
+	}
+
+	/**
+	 * @param backlog Supplies the number of Txs waiting to be tracked across the dispatcher and aggregator.
+	 */
+	public void setBacklog(IntSupplier backlog)
+	{
+		this.backlog = backlog;
+	}
+
+	/**
+	 * @param groupCountInterval Milliseconds the group store count is reused before the store is counted again.
+	 */
+	public void setGroupCountInterval(long groupCountInterval)
+	{
+		this.groupCountInterval = groupCountInterval;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry)
+	{
+		final PacketMonitorStats stats = monitor.getStats();
+		stageCounter(registry, "intercepted", stats, PacketMonitorStats::getIntercepted);
+		stageCounter(registry, "rejectedByFlags", stats, PacketMonitorStats::getRejectedByFlags);
+		stageCounter(registry, "rejectedByStanza", stats, PacketMonitorStats::getRejectedByStanza);
+		stageCounter(registry, "rejectedByDomain", stats, PacketMonitorStats::getRejectedByDomain);
+		stageCounter(registry, "parsed", stats, PacketMonitorStats::getParsed);
+		stageCounter(registry, "tracked", stats, PacketMonitorStats::getTracked);
+		stageCounter(registry, "acknowledged", stats, PacketMonitorStats::getAcknowledged);
+
+		final RoomOccupantCache roomCache = monitor.getRoomOccupantCache();
+		cacheMeters(registry, "room", roomCache, RoomOccupantCache::getHits, RoomOccupantCache::getMisses);
+		Gauge.builder(PREFIX + "cache.size", roomCache, RoomOccupantCache::size).tag("cache", "room").register(registry);
+
+		cacheMeters(registry, "jid", monitor.getJIDCache(), JIDCache::getHits, JIDCache::getMisses);
+
+		final RegisteredDomainCache domainCache = RegisteredDomainCache.getInstance();
+		cacheMeters(registry, "domain", domainCache, RegisteredDomainCache::getHits, RegisteredDomainCache::getMisses);
+		Gauge.builder(PREFIX + "cache.size", domainCache, RegisteredDomainCache::size).tag("cache", "domain").register(registry);
+
+		final ExpirationErrorRouter errorRouter = monitor.getExpirationErrorRouter();
+		FunctionCounter.builder(PREFIX + "expirationErrors", errorRouter, ExpirationErrorRouter::getRouted).tag("result", "routed").register(registry);
+		FunctionCounter.builder(PREFIX + "expirationErrors", errorRouter, ExpirationErrorRouter::getFailed).tag("result", "failed").register(registry);
+		FunctionCounter.builder(PREFIX + "expirationErrors.batches", errorRouter, ExpirationErrorRouter::getBatches).register(registry);
+		Gauge.builder(PREFIX + "expirationErrors.queued", errorRouter, ExpirationErrorRouter::getQueuedBatches).register(registry);
+		Gauge.builder(PREFIX + "expirationErrors.batchLatency.mean", errorRouter, ExpirationErrorRouter::getMeanBatchLatency).baseUnit("milliseconds").register(registry);
+		Gauge.builder(PREFIX + "expirationErrors.batchLatency.max", errorRouter, ExpirationErrorRouter::getMaxBatchLatency).baseUnit("milliseconds").register(registry);
+
+		final OverloadController overloadController = monitor.getOverloadController();
+		if (overloadController != null)
+		{
+			Gauge.builder(PREFIX + "overload.level", overloadController, c -> c.getLevel().ordinal())
+				.description("Overload level: 0 normal, 1 sampling, 2 deferring receipts")
+				.register(registry);
+			FunctionCounter.builder(PREFIX + "overload.transitions", overloadController, OverloadController::getTransitions).register(registry);
+			FunctionCounter.builder(PREFIX + "overload.sampledOut", overloadController, OverloadController::getSampledOut).register(registry);
+			FunctionCounter.builder(PREFIX + "overload.skippedNotifications", overloadController, OverloadController::getSkippedNotifications).register(registry);
+			FunctionCounter.builder(PREFIX + "overload.deferred", overloadController, OverloadController::getDeferred).register(registry);
+		}
+
+		if (dispatcher != null)
+		{
+			FunctionCounter.builder(PREFIX + "dispatcher.dropped", dispatcher, RingBufferTxDispatcher::getDropped).register(registry);
+			Gauge.builder(PREFIX + "dispatcher.buffered", dispatcher, RingBufferTxDispatcher::getBuffered).register(registry);
+		}
+
+		if (backlog != null)
+			Gauge.builder(PREFIX + "backlog", backlog, IntSupplier::getAsInt)
+				.description("Txs waiting to be tracked")
+				.register(registry);
+
+		// registered in both modes so dashboards and alerts don't depend on the aggregator configuration
+		final PartitionedTxAggregator partitioned = aggregator;
+		Gauge.builder(PREFIX + "aggregator.backlog", () -> (partitioned != null) ? partitioned.getBacklog() : 0)
+			.description("Txs waiting for an aggregator shard")
+			.register(registry);
+
+		if (groupStore != null)
+			Gauge.builder(PREFIX + "aggregator.groups", new CachedCount(groupStore::getMessageGroupCount, groupCountInterval), CachedCount::get)
+				.description("Open monitor groups waiting on their release or timeout")
+				.register(registry);
+
+		if (groupStore instanceof ShardedWriteBehindMessageGroupStore)
+			Gauge.builder(PREFIX + "store.pendingWrites", (ShardedWriteBehindMessageGroupStore)groupStore, ShardedWriteBehindMessageGroupStore::getPendingWrites)
+				.register(registry);
+
+		if (timeoutScheduler != null)
+		{
+			Gauge.builder(PREFIX + "timeouts.pending", timeoutScheduler, TimingWheelTaskScheduler::getPending).register(registry);
+			FunctionCounter.builder(PREFIX + "timeouts.overflowed", timeoutScheduler, TimingWheelTaskScheduler::getOverflowed)
+				.description("Group timeouts passed to the fallback scheduler because the timing wheel was behind")
+				.register(registry);
+		}
+	}
+
+	protected void stageCounter(MeterRegistry registry, String stage, PacketMonitorStats stats, ToDoubleFunction<PacketMonitorStats> count)
+	{
+		FunctionCounter.builder(PREFIX + "packets", stats, count).tag("stage", stage).register(registry);
+	}
+
+	/*
+	 * Reuses a count for an interval.  Concurrent scrapes of an expired count may both read it, which is harmless.
+	 */
+	protected static class CachedCount
+	{
+		protected final IntSupplier count;
+
+		protected final long intervalNanos;
+
+		protected volatile int value;
+
+		protected volatile long expires;
+
+		protected volatile boolean read;
+
+		protected CachedCount(IntSupplier count, long interval)
+		{
+			this.count = count;
+			this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+		}
+
+		protected int get()
+		{
+			final long now = System.nanoTime();
+			if (!read || now - expires >= 0)
+			{
+				value = count.getAsInt();
+				expires = now + intervalNanos;
+				read = true;
+			}
+
+			return value;
+		}
+	}
+
+	protected <T> void cacheMeters(MeterRegistry registry, String cache, T obj, ToDoubleFunction<T> hits, ToDoubleFunction<T> misses)
+	{
+		FunctionCounter.builder(PREFIX + "cache.requests", obj, hits).tag("cache", cache).tag("result", "hit").register(registry);
+		FunctionCounter.builder(PREFIX + "cache.requests", obj, misses).tag("cache", cache).tag("result", "miss").register(registry);
+	}
+}
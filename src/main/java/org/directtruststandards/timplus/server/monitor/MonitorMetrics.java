@@ -0,0 +1,139 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Micrometer meters recorded on the packet monitor's hot path: packets intercepted per stanza type, Tx parse and
+ * tracking latency, exceptions swallowed by the interceptor per exception type, and AMP receipts generated per
+ * deliver condition.  Meters that are known up front are created once so recording is only a counter or timer update.
+ * <p>
+ * The default constructor records to a registry with no backing registries, which discards every measurement.
+ */
+public class MonitorMetrics
+{
+	public static final String PREFIX = "timplus.monitor.";
+
+	protected final MeterRegistry registry;
+
+	protected final Map<Message.Type, Counter> messagesIntercepted = new EnumMap<>(Message.Type.class);
+
+	protected final Counter presenceIntercepted;
+
+	protected final Counter iqIntercepted;
+
+	protected final Timer parseTimer;
+
+	protected final Timer trackTimer;
+
+	protected final Map<Class<?>, Counter> exceptions = new ConcurrentHashMap<>();
+
+	protected final Map<String, Counter> receipts = new ConcurrentHashMap<>();
+
+	public MonitorMetrics()
+	{
+		this(new CompositeMeterRegistry());
+	}
+
+	public MonitorMetrics(MeterRegistry registry)
+	{
+		this.registry = registry;
+
+		for (Message.Type type : Message.Type.values())
+			messagesIntercepted.put(type, interceptedCounter("message-" + type.name()));
+
+		this.presenceIntercepted = interceptedCounter("presence");
+		this.iqIntercepted = interceptedCounter("iq");
+
+		this.parseTimer = Timer.builder(PREFIX + "parse")
+				.description("Time to parse an intercepted packet into a Tx")
+				.publishPercentileHistogram()
+				.register(registry);
+
+		this.trackTimer = Timer.builder(PREFIX + "track")
+				.description("Time to hand a Tx to the monitor for tracking")
+				.publishPercentileHistogram()
+				.register(registry);
+	}
+
+	public MeterRegistry getRegistry()
+	{
+		return registry;
+	}
+
+	/**
+	 * Counts a packet seen by the interceptor.
+	 * @param packet The intercepted packet.
+	 */
+	public void intercepted(Packet packet)
+	{
+		if (packet instanceof Message)
+			messagesIntercepted.get(((Message)packet).getType()).increment();
+		else if (packet instanceof Presence)
+			presenceIntercepted.increment();
+		else if (packet instanceof IQ)
+			iqIntercepted.increment();
+	}
+
+	/**
+	 * Records the time to parse a packet.
+	 * @param nanos Elapsed nanoseconds.
+	 */
+	public void parsed(long nanos)
+	{
+		parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the time to track a Tx.
+	 * @param nanos Elapsed nanoseconds.
+	 */
+	public void tracked(long nanos)
+	{
+		trackTimer.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Counts an exception swallowed by the interceptor.
+	 * @param e The exception.
+	 */
+	public void exception(Exception e)
+	{
+		exceptions.computeIfAbsent(e.getClass(), c -> Counter.builder(PREFIX + "exceptions")
+				.description("Exceptions swallowed while monitoring packets")
+				.tag("exception", c.getSimpleName())
+				.register(registry)).increment();
+	}
+
+	/**
+	 * Counts generated AMP receipts.
+	 * @param condition The deliver condition value (direct or stored).
+	 */
+	public void receipt(String condition)
+	{
+		receipts.computeIfAbsent(condition, c -> Counter.builder(PREFIX + "receipts")
+				.description("AMP delivery receipts generated")
+				.tag("condition", c)
+				.register(registry)).increment();
+	}
+
+	protected Counter interceptedCounter(String stanza)
+	{
+		return Counter.builder(PREFIX + "intercepted")
+				.description("Packets seen by the monitor interceptor")
+				.tag("stanza", stanza)
+				.register(registry);
+	}
+}
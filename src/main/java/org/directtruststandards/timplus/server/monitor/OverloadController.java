@@ -0,0 +1,391 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Degrades message tracking when the monitor falls behind so the XMPP routing threads are not stalled by it.
+ * The controller periodically checks the tracking backlog (Txs queued for the aggregator) and the mean time the
+ * routing threads spent handing Txs to the monitor since the last check, and moves between levels:
+ * <ol>
+ *     <li>NORMAL: everything is tracked and receipts are generated inline.</li>
+ *     <li>SAMPLING: only a fraction of newly sent messages are tracked.  The decision is a hash of the message id and
+ *     sender, so it is the same for every copy of a message, and the messages left out are remembered until their
+ *     notifications could have arrived.  AMP and error notifications are skipped only for those messages, so
+ *     messages tracked before sampling started still complete and no orphan groups are created.</li>
+ *     <li>DEFERRING: sampling continues and delivery receipts are generated on a separate thread instead of the
+ *     routing thread.</li>
+ * </ol>
+ * A level is left only once both measurements drop below half of that level's thresholds so the controller
+ * does not flap around a threshold.  Packets themselves are never dropped or delayed by the controller.
+ */
+public class OverloadController
+{
+	private static final Logger Log = LoggerFactory.getLogger(OverloadController.class);
+
+	public enum Level
+	{
+		NORMAL,
+
+		SAMPLING,
+
+		DEFERRING
+	}
+
+	protected final long checkInterval;
+
+	protected final int samplingBacklog;
+
+	protected final int deferBacklog;
+
+	protected final long samplingLatencyNanos;
+
+	protected final long deferLatencyNanos;
+
+	protected final double sampleRatio;
+
+	protected final int deferQueueSize;
+
+	protected IntSupplier backlog = () -> 0;
+
+	protected volatile Level level = Level.NORMAL;
+
+	protected final LongAdder trackCount = new LongAdder();
+
+	protected final LongAdder trackNanos = new LongAdder();
+
+	protected volatile double meanTrackLatency;
+
+	protected volatile int lastBacklog;
+
+	protected final LongAdder transitions = new LongAdder();
+
+	protected final LongAdder sampledOut = new LongAdder();
+
+	protected final LongAdder deferred = new LongAdder();
+
+	protected final LongAdder skippedNotifications = new LongAdder();
+
+	protected final Map<String, Long> sampledOutMessages = new ConcurrentHashMap<>();
+
+	protected volatile long sampledOutTtlNanos = TimeUnit.MINUTES.toNanos(3);
+
+	protected volatile int maxSampledOut = 100000;
+
+	protected ScheduledExecutorService checker;
+
+	protected ThreadPoolExecutor deferredReceipts;
+
+	/**
+	 * Constructor.
+	 * @param checkInterval Milliseconds between load checks.
+	 * @param samplingBacklog Backlog at which tracking is sampled.
+	 * @param deferBacklog Backlog at which receipts are deferred.
+	 * @param samplingLatency Mean tracking latency in milliseconds at which tracking is sampled.
+	 * @param deferLatency Mean tracking latency in milliseconds at which receipts are deferred.
+	 * @param sampleRatio Fraction of sent messages still tracked while sampling.
+	 * @param deferQueueSize Deferred receipts waiting to be generated before the routing thread generates them itself.
+	 */
+	public OverloadController(long checkInterval, int samplingBacklog, int deferBacklog, double samplingLatency, double deferLatency,
+			double sampleRatio, int deferQueueSize)
+	{
+		if (checkInterval <= 0)
+			throw new IllegalArgumentException("Check interval must be positive");
+
+		if (sampleRatio < 0.0 || sampleRatio > 1.0)
+			throw new IllegalArgumentException("Sample ratio must be between 0 and 1");
+
+		this.checkInterval = checkInterval;
+		this.samplingBacklog = samplingBacklog;
+		this.deferBacklog = Math.max(samplingBacklog, deferBacklog);
+		this.samplingLatencyNanos = (long)(samplingLatency * 1000000);
+		this.deferLatencyNanos = Math.max(samplingLatencyNanos, (long)(deferLatency * 1000000));
+		this.sampleRatio = sampleRatio;
+		this.deferQueueSize = Math.max(1, deferQueueSize);
+	}
+
+	/**
+	 * Sets the source of the tracking backlog.  Defaults to no backlog, in which case only latency is considered.
+	 * @param backlog Supplies the number of Txs waiting to be aggregated.
+	 */
+	public void setBacklog(IntSupplier backlog)
+	{
+		this.backlog = backlog;
+	}
+
+	/**
+	 * @param sampledOutTtl Milliseconds a sampled out message is remembered so its notifications are skipped.
+	 * Generally the general condition timeout.
+	 */
+	public void setSampledOutTtl(long sampledOutTtl)
+	{
+		this.sampledOutTtlNanos = TimeUnit.MILLISECONDS.toNanos(sampledOutTtl);
+	}
+
+	/**
+	 * @param maxSampledOut The maximum number of sampled out messages remembered.  When exceeded, the notifications
+	 * of the oldest are tracked and left to expire in the store.
+	 */
+	public void setMaxSampledOut(int maxSampledOut)
+	{
+		this.maxSampledOut = maxSampledOut;
+	}
+
+	public synchronized void start()
+	{
+		if (checker != null)
+			return;
+
+		// a full queue (or stopping) generates the receipt on the routing thread rather than losing it
+		deferredReceipts = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(deferQueueSize), r ->
+		{
+			final Thread thread = new Thread(r, "monitor-deferred-receipts");
+			thread.setDaemon(true);
+			return thread;
+		}, (r, executor) -> r.run());
+
+		checker = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			final Thread thread = new Thread(r, "monitor-overload-controller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		checker.scheduleWithFixedDelay(this::check, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop()
+	{
+		if (checker == null)
+			return;
+
+		checker.shutdownNow();
+		checker = null;
+
+		level = Level.NORMAL;
+
+		// generate any receipts still waiting
+		deferredReceipts.shutdown();
+		try
+		{
+			deferredReceipts.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		deferredReceipts = null;
+	}
+
+	/**
+	 * Records the time a routing thread spent handing a Tx to the monitor.
+	 * @param nanos Elapsed nanoseconds.
+	 */
+	public void trackLatency(long nanos)
+	{
+		trackCount.increment();
+		trackNanos.add(nanos);
+	}
+
+	/**
+	 * Decides if a newly sent message is tracked.
+	 * @param messageId The id of the message.
+	 * @param sender The bare address of the sender.
+	 * @return False if the message should not be tracked at the current level.
+	 */
+	public boolean shouldTrack(String messageId, String sender)
+	{
+		if (level == Level.NORMAL || inSample(messageId, sender))
+			return true;
+
+		final long now = System.nanoTime();
+		if (sampledOutMessages.size() >= maxSampledOut)
+			purge(now);
+
+		sampledOutMessages.put(key(messageId, sender), now + sampledOutTtlNanos);
+
+		sampledOut.increment();
+		return false;
+	}
+
+	/**
+	 * Decides if an AMP or error notification is skipped because the message it refers to was not tracked.
+	 * @param messageId The id of the notification, which is the id of the original message.
+	 * @param sender The bare address of the original sender (the recipient of the notification).
+	 * @return True if the original message was sampled out.
+	 */
+	public boolean isSampledOut(String messageId, String sender)
+	{
+		// most messages are in the sample, and nothing is remembered while not sampling
+		if (sampledOutMessages.isEmpty() || inSample(messageId, sender))
+			return false;
+
+		final Long expires = sampledOutMessages.get(key(messageId, sender));
+		if (expires == null || expires - System.nanoTime() <= 0)
+			return false;
+
+		skippedNotifications.increment();
+		return true;
+	}
+
+	/**
+	 * Generates a delivery receipt inline, or on the deferred receipt thread when deferring.
+	 * @param receipt Generates and sends the receipt.
+	 */
+	public void acknowledge(Runnable receipt)
+	{
+		final ThreadPoolExecutor executor = deferredReceipts;
+		if (level != Level.DEFERRING || executor == null)
+		{
+			receipt.run();
+			return;
+		}
+
+		deferred.increment();
+		executor.execute(receipt);
+	}
+
+	public Level getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * @return The number of level changes.
+	 */
+	public long getTransitions()
+	{
+		return transitions.sum();
+	}
+
+	/**
+	 * @return The number of sent messages not tracked because of sampling.
+	 */
+	public long getSampledOut()
+	{
+		return sampledOut.sum();
+	}
+
+	/**
+	 * @return The number of AMP and error notifications not tracked because their message was sampled out.
+	 */
+	public long getSkippedNotifications()
+	{
+		return skippedNotifications.sum();
+	}
+
+	/**
+	 * @return The number of receipts generated off of the routing threads.
+	 */
+	public long getDeferred()
+	{
+		return deferred.sum();
+	}
+
+	/**
+	 * @return The backlog at the last check.
+	 */
+	public int getLastBacklog()
+	{
+		return lastBacklog;
+	}
+
+	/**
+	 * @return The mean tracking latency in milliseconds between the last two checks.
+	 */
+	public double getMeanTrackLatency()
+	{
+		return meanTrackLatency;
+	}
+
+	protected void check()
+	{
+		try
+		{
+			final long count = trackCount.sumThenReset();
+			final long nanos = trackNanos.sumThenReset();
+			final long meanNanos = (count == 0) ? 0 : nanos / count;
+			final int currentBacklog = backlog.getAsInt();
+
+			meanTrackLatency = meanNanos / 1000000.0;
+			lastBacklog = currentBacklog;
+
+			final Level current = level;
+			final Level next = nextLevel(current, currentBacklog, meanNanos);
+			if (next != current)
+			{
+				level = next;
+				transitions.increment();
+
+				Log.warn("Monitor overload level changed from " + current + " to " + next + ": backlog=" + currentBacklog +
+						", meanTrackLatency=" + meanTrackLatency + "ms");
+			}
+		}
+		catch (Exception e)
+		{
+			Log.warn("Failed to check monitor load.", e);
+		}
+	}
+
+	/*
+	 * Deterministic per message, so the sent message and every notification for it get the same answer
+	 */
+	protected boolean inSample(String messageId, String sender)
+	{
+		if (sampleRatio >= 1.0)
+			return true;
+
+		// spread the string hashes (Fibonacci hashing) and compare the top 53 bits as a fraction
+		final long hash = (31L * Objects.hashCode(messageId) + Objects.hashCode(sender)) * 0x9E3779B97F4A7C15L;
+
+		return (hash >>> 11) * 0x1.0p-53 < sampleRatio;
+	}
+
+	protected String key(String messageId, String sender)
+	{
+		return messageId + ' ' + sender;
+	}
+
+	/*
+	 * Drops expired sampled out messages, and everything if that isn't enough.
+	 */
+	protected void purge(long now)
+	{
+		final Iterator<Long> iter = sampledOutMessages.values().iterator();
+		while (iter.hasNext())
+			if (iter.next() - now <= 0)
+				iter.remove();
+
+		if (sampledOutMessages.size() >= maxSampledOut)
+			sampledOutMessages.clear();
+	}
+
+	protected Level nextLevel(Level current, int currentBacklog, long meanNanos)
+	{
+		if (currentBacklog >= deferBacklog || meanNanos >= deferLatencyNanos)
+			return Level.DEFERRING;
+
+		// hysteresis: stay at a level until the load is well below what triggered it
+		if (current == Level.DEFERRING && (currentBacklog >= deferBacklog / 2 || meanNanos >= deferLatencyNanos / 2))
+			return Level.DEFERRING;
+
+		if (currentBacklog >= samplingBacklog || meanNanos >= samplingLatencyNanos)
+			return Level.SAMPLING;
+
+		if (current != Level.NORMAL && (currentBacklog >= samplingBacklog / 2 || meanNanos >= samplingLatencyNanos / 2))
+			return Level.SAMPLING;
+
+		return Level.NORMAL;
+	}
+}
@@ -0,0 +1,100 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for each stage of the packet monitor's decision pipeline.  Counters are striped so they can be
+ * updated from every packet processing thread without contention.
+ */
+public class PacketMonitorStats
+{
+	protected final LongAdder intercepted = new LongAdder();
+
+	protected final LongAdder rejectedByFlags = new LongAdder();
+
+	protected final LongAdder rejectedByStanza = new LongAdder();
+
+	protected final LongAdder rejectedByDomain = new LongAdder();
+
+	protected final LongAdder parsed = new LongAdder();
+
+	protected final LongAdder tracked = new LongAdder();
+
+	protected final LongAdder acknowledged = new LongAdder();
+
+	/**
+	 * @return The number of message packets seen by the monitor.
+	 */
+	public long getIntercepted()
+	{
+		return intercepted.sum();
+	}
+
+	/**
+	 * @return The number of packets rejected on the incoming/processed flags.
+	 */
+	public long getRejectedByFlags()
+	{
+		return rejectedByFlags.sum();
+	}
+
+	/**
+	 * @return The number of packets rejected on the message type and AMP/error children.
+	 */
+	public long getRejectedByStanza()
+	{
+		return rejectedByStanza.sum();
+	}
+
+	/**
+	 * @return The number of packets rejected because the from/to domain is not hosted locally.
+	 */
+	public long getRejectedByDomain()
+	{
+		return rejectedByDomain.sum();
+	}
+
+	/**
+	 * @return The number of packets that passed the pre-filter and were parsed into a Tx.
+	 */
+	public long getParsed()
+	{
+		return parsed.sum();
+	}
+
+	/**
+	 * @return The number of Txs sent for tracking.
+	 */
+	public long getTracked()
+	{
+		return tracked.sum();
+	}
+
+	/**
+	 * @return The number of delivery acknowledgments (AMP messages) generated.
+	 */
+	public long getAcknowledged()
+	{
+		return acknowledged.sum();
+	}
+
+	/**
+	 * @return The fraction of intercepted packets rejected before parsing.
+	 */
+	public double getRejectRatio()
+	{
+		final long total = getIntercepted();
+		if (total == 0)
+			return 0.0;
+
+		return (double)(getRejectedByFlags() + getRejectedByStanza() + getRejectedByDomain()) / total;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "intercepted=" + getIntercepted() + ", rejectedByFlags=" + getRejectedByFlags() + ", rejectedByStanza=" + getRejectedByStanza() +
+				", rejectedByDomain=" + getRejectedByDomain() + ", parsed=" + getParsed() + ", tracked=" + getTracked() +
+				", acknowledged=" + getAcknowledged();
+	}
+}
@@ -0,0 +1,102 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+/**
+ * First stage of the packet monitor.  Decides from packet fields alone (no Tx parsing) whether a message
+ * can possibly be tracked or acknowledged by the monitor.  The stages are evaluated cheapest first:
+ * <ol>
+ *     <li>The interceptor's incoming/processed flags.</li>
+ *     <li>The message type and presence of an AMP or error child.</li>
+ *     <li>Whether the sender (outgoing) or recipient (delivery) domain is hosted by this server.</li>
+ * </ol>
+ * The monitor acts on the decision once the packet is parsed, checking only that the Tx agrees with the stanza
+ * type; the domain checks are not repeated.
+ */
+public class PacketPreFilter
+{
+	protected static final QName AMP_QNAME = QName.get(AMPExtension.ELEMENT, AMPExtension.NAMESPACE);
+
+	protected static final String ERROR_ELEMENT = "error";
+
+	public enum Decision
+	{
+		/**
+		 * The packet will not be tracked or acknowledged.
+		 */
+		REJECT,
+
+		/**
+		 * A message sent by a local user that may need to be tracked.
+		 */
+		TRACK_SENT,
+
+		/**
+		 * An AMP or error message destined to a local user that may need to be tracked.
+		 */
+		TRACK_NOTIFICATION,
+
+		/**
+		 * A message delivered to a local user that may need a delivery AMP.
+		 */
+		ACKNOWLEDGE
+	}
+
+	protected final PacketMonitorStats stats;
+
+	public PacketPreFilter(PacketMonitorStats stats)
+	{
+		super();
+
+		this.stats = stats;
+	}
+
+	public Decision evaluate(Message message, boolean incoming, boolean processed)
+	{
+		// stage 1: flags.  Nothing is done with incoming packets after they have been processed
+		if (incoming && processed)
+		{
+			stats.rejectedByFlags.increment();
+			return Decision.REJECT;
+		}
+
+		// stage 2: stanza type and AMP/error children
+		final Element element = message.getElement();
+		final boolean isNotification = message.getType() == Message.Type.error || element.element(ERROR_ELEMENT) != null
+				|| element.element(AMP_QNAME) != null;
+
+		final Decision decision;
+		if (incoming)
+			decision = isNotification ? Decision.REJECT : Decision.TRACK_SENT;
+		else if (processed)
+			decision = isNotification ? Decision.REJECT : Decision.ACKNOWLEDGE;
+		else
+			decision = isNotification ? Decision.TRACK_NOTIFICATION : Decision.REJECT;
+
+		if (decision == Decision.REJECT)
+		{
+			stats.rejectedByStanza.increment();
+			return Decision.REJECT;
+		}
+
+		// stage 3: we must own the sending domain for outgoing messages and the destination
+		// domain for everything sent to an edge client
+		if (!isLocalDomain(incoming ? message.getFrom() : message.getTo()))
+		{
+			stats.rejectedByDomain.increment();
+			return Decision.REJECT;
+		}
+
+		return decision;
+	}
+
+	protected boolean isLocalDomain(JID jid)
+	{
+		return jid != null && RegisteredDomainCache.getInstance().isRegisteredDomain(jid.getDomain());
+	}
+}
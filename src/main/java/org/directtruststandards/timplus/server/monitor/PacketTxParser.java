@@ -0,0 +1,14 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.xmpp.packet.Packet;
+
+/**
+ * TxParser that can build a Tx directly from an already parsed server packet without
+ * serializing the packet back into a string.
+ */
+public interface PacketTxParser extends TxParser
+{
+	public Tx parsePacket(Packet packet);
+}
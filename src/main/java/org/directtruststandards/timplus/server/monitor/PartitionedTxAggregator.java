@@ -0,0 +1,322 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.directtruststandards.timplus.monitor.condition.TxReleaseStrategy;
+import org.directtruststandards.timplus.monitor.condition.TxTimeoutCondition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.aggregator.AggregatingMessageHandler;
+import org.springframework.integration.aggregator.CorrelationStrategy;
+import org.springframework.integration.aggregator.DefaultAggregatingMessageGroupProcessor;
+import org.springframework.integration.expression.FunctionExpression;
+import org.springframework.integration.handler.AbstractMessageProducingHandler;
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.integration.store.MessageGroupStore;
+import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.integration.support.management.ManageableLifecycle;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.scheduling.TaskScheduler;
+
+/**
+ * Aggregates monitor Txs across multiple independent shards.  Each Tx is assigned to a shard by the hash of its
+ * correlation key, so all Txs for a message group always land on the same shard.  Every shard has its own aggregator,
+ * message group store, lock registry, and worker thread, so groups on different shards never contend with each other.
+ * <p>
+ * Each shard aggregator is configured exactly like the single aggregator of the monitor flow: the same correlation
+ * and release strategies, group timeout from the TxTimeoutCondition, and partial results sent on expiry.  Released
+ * groups from every shard are sent to this handler's output channel.
+ */
+public class PartitionedTxAggregator extends AbstractMessageProducingHandler implements ManageableLifecycle
+{
+	private static final Logger Log = LoggerFactory.getLogger(PartitionedTxAggregator.class);
+
+	protected final CorrelationStrategy correlationStrategy;
+
+	protected final TxReleaseStrategy releaseStrategy;
+
+	protected final TxTimeoutCondition timeoutCondition;
+
+	protected final IntFunction<MessageGroupStore> storeFactory;
+
+	protected final IntFunction<LockRegistry> lockRegistryFactory;
+
+	protected final int shardQueueSize;
+
+	protected final Shard[] shards;
+
+	protected TaskScheduler timeoutScheduler;
+
+	protected volatile boolean running;
+
+	/**
+	 * Constructor.
+	 * @param partitions The number of shards.
+	 * @param shardQueueSize The maximum number of Txs waiting for each shard's worker thread.  When full, the
+	 * publishing thread waits for room.
+	 * @param correlationStrategy The correlation strategy used to group Txs and assign them to shards.
+	 * @param releaseStrategy The release strategy.
+	 * @param timeoutCondition The group timeout condition.
+	 * @param storeFactory Creates (or returns) the message group store for a shard index.
+	 * @param lockRegistryFactory Creates (or returns) the lock registry for a shard index.
+	 */
+	public PartitionedTxAggregator(int partitions, int shardQueueSize, CorrelationStrategy correlationStrategy, TxReleaseStrategy releaseStrategy,
+			TxTimeoutCondition timeoutCondition, IntFunction<MessageGroupStore> storeFactory, IntFunction<LockRegistry> lockRegistryFactory)
+	{
+		super();
+
+		if (partitions < 1)
+			throw new IllegalArgumentException("Partition count must be greater than 0");
+
+		this.correlationStrategy = correlationStrategy;
+		this.releaseStrategy = releaseStrategy;
+		this.timeoutCondition = timeoutCondition;
+		this.storeFactory = storeFactory;
+		this.lockRegistryFactory = lockRegistryFactory;
+		this.shardQueueSize = shardQueueSize;
+		this.shards = new Shard[partitions];
+	}
+
+	/**
+	 * Sets the scheduler used for group timeouts by every shard.  If not set, the shards use the
+	 * integration task scheduler.
+	 * @param timeoutScheduler The group timeout scheduler.
+	 */
+	public void setTimeoutScheduler(TaskScheduler timeoutScheduler)
+	{
+		this.timeoutScheduler = timeoutScheduler;
+	}
+
+	@Override
+	protected void onInit()
+	{
+		super.onInit();
+
+		// all shards release into this handler's output channel
+		final MessageChannel releaseChannel = (message, timeout) ->
+		{
+			final MessageChannel out = getOutputChannel();
+			if (out == null)
+				throw new MessageDeliveryException(message, "No output channel configured for the partitioned Tx aggregator");
+
+			return out.send(message, timeout);
+		};
+
+		for (int i = 0; i < shards.length; ++i)
+		{
+			final AggregatingMessageHandler aggregator = new AggregatingMessageHandler(new DefaultAggregatingMessageGroupProcessor(),
+					storeFactory.apply(i), correlationStrategy, releaseStrategy);
+			aggregator.setGroupTimeoutExpression(new FunctionExpression<MessageGroup>(g -> timeoutCondition.getTimeout(g)));
+			aggregator.setSendPartialResultOnExpiry(true);
+			aggregator.setLockRegistry(lockRegistryFactory.apply(i));
+			aggregator.setOutputChannel(releaseChannel);
+			aggregator.setComponentName("monitor-aggregator-shard-" + i);
+			if (timeoutScheduler != null)
+				aggregator.setTaskScheduler(timeoutScheduler);
+			if (getBeanFactory() != null)
+				aggregator.setBeanFactory(getBeanFactory());
+			aggregator.afterPropertiesSet();
+
+			shards[i] = new Shard(i, aggregator);
+		}
+	}
+
+	@Override
+	protected void handleMessageInternal(Message<?> message)
+	{
+		final Shard shard = shards[shardIndex(message)];
+
+		final ThreadPoolExecutor executor = shard.executor;
+		if (executor == null)
+		{
+			// not started, so aggregate on the caller's thread
+			aggregate(shard, message);
+			return;
+		}
+
+		executor.execute(() ->
+		{
+			try
+			{
+				aggregate(shard, message);
+			}
+			catch (Exception e)
+			{
+				Log.warn("Failed to aggregate Tx on monitor shard " + shard.index, e);
+			}
+		});
+	}
+
+	/**
+	 * Aggregates a Tx on its shard.  Txs of the same correlation key are aggregated in the order they were handled.
+	 * @param shard The shard of the Tx.
+	 * @param message The Tx message.
+	 */
+	protected void aggregate(Shard shard, Message<?> message)
+	{
+		shard.aggregator.handleMessage(message);
+	}
+
+	protected int shardIndex(Message<?> message)
+	{
+		final Object key = correlationStrategy.getCorrelationKey(message);
+
+		// a missing key is rejected by the aggregator itself; any shard will do
+		return (key == null) ? 0 : Math.floorMod(key.hashCode(), shards.length);
+	}
+
+	/**
+	 * @return The number of Txs waiting for a shard worker across all shards.
+	 */
+	public int getBacklog()
+	{
+		int backlog = 0;
+		for (Shard shard : shards)
+			if (shard != null)
+				backlog += shard.getBacklog();
+
+		return backlog;
+	}
+
+	/**
+	 * @return The number of shards.
+	 */
+	public int getPartitions()
+	{
+		return shards.length;
+	}
+
+	@Override
+	public synchronized void start()
+	{
+		if (running)
+			return;
+
+		for (Shard shard : shards)
+			shard.start();
+
+		running = true;
+
+		Log.info("Partitioned monitor aggregator started with " + shards.length + " shards");
+	}
+
+	@Override
+	public synchronized void stop()
+	{
+		if (!running)
+			return;
+
+		running = false;
+
+		for (Shard shard : shards)
+			shard.stop();
+	}
+
+	@Override
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	@Override
+	public String getComponentType()
+	{
+		return "partitioned-aggregator";
+	}
+
+	protected class Shard
+	{
+		protected final int index;
+
+		protected final AggregatingMessageHandler aggregator;
+
+		protected volatile ThreadPoolExecutor executor;
+
+		protected Shard(int index, AggregatingMessageHandler aggregator)
+		{
+			this.index = index;
+			this.aggregator = aggregator;
+		}
+
+		protected void start()
+		{
+			// one worker per shard; if it falls too far behind the caller waits for room, which applies back
+			// pressure without ever dropping a Tx or letting it overtake the Txs queued before it
+			executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(shardQueueSize),
+				r ->
+				{
+					final Thread thread = new Thread(r, "monitor-aggregator-shard-" + index);
+					thread.setDaemon(true);
+					return thread;
+				},
+				this::enqueue);
+
+			aggregator.start();
+		}
+
+		/*
+		 * Rejection handler: waits for room in the queue.  Once the shard is shutting down the task runs on
+		 * the caller, but only after the worker has finished the queued tasks.
+		 */
+		protected void enqueue(Runnable task, ThreadPoolExecutor exec)
+		{
+			try
+			{
+				while (!exec.isShutdown())
+				{
+					if (exec.getQueue().offer(task, 100, TimeUnit.MILLISECONDS))
+					{
+						// a shutdown that started before the offer may have already stopped the worker
+						if (exec.isShutdown() && exec.remove(task))
+							runAfterDrain(task, exec);
+
+						return;
+					}
+				}
+
+				runAfterDrain(task, exec);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("Interrupted waiting for room on monitor shard " + index, e);
+			}
+		}
+
+		protected void runAfterDrain(Runnable task, ThreadPoolExecutor exec) throws InterruptedException
+		{
+			if (!exec.awaitTermination(5, TimeUnit.SECONDS))
+				Log.warn("Monitor shard " + index + " did not drain before shutdown");
+
+			task.run();
+		}
+
+		protected void stop()
+		{
+			executor.shutdown();
+			try
+			{
+				if (!executor.awaitTermination(5, TimeUnit.SECONDS))
+					Log.warn("Monitor shard " + index + " did not drain before shutdown");
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			aggregator.stop();
+		}
+
+		protected int getBacklog()
+		{
+			final ThreadPoolExecutor exec = executor;
+			return (exec == null) ? 0 : exec.getQueue().size();
+		}
+	}
+}
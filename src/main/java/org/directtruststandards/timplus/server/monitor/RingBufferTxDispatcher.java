@@ -0,0 +1,247 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.springframework.integration.support.MessageBuilder.withPayload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.MessageChannel;
+
+/**
+ * Hands Txs off from the XMPP packet processing threads to dedicated worker threads that send them to the
+ * monitor's tracking channel.  This keeps the aggregator, message store writes, and lock acquisition off of
+ * the routing path.
+ * <p>
+ * Txs are buffered in a bounded ring buffer that is allocated up front.  What happens when the buffer is full
+ * is controlled by the {@link OverflowPolicy}.
+ */
+public class RingBufferTxDispatcher
+{
+	private static final Logger Log = LoggerFactory.getLogger(RingBufferTxDispatcher.class);
+
+	protected static final long BLOCK_RECHECK_INTERVAL = 100;
+
+	public enum OverflowPolicy
+	{
+		/**
+		 * The publishing thread waits until there is room in the buffer.  No Txs are lost.
+		 */
+		BLOCK,
+
+		/**
+		 * The oldest buffered Tx is discarded to make room for the new one.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * The new Tx is discarded and counted.
+		 */
+		DROP_AND_COUNT
+	}
+
+	protected final MessageChannel trackingChannel;
+
+	protected final BlockingQueue<Tx> buffer;
+
+	protected final int workerCount;
+
+	protected final OverflowPolicy overflowPolicy;
+
+	protected final LongAdder dropped = new LongAdder();
+
+	protected final List<Thread> workers;
+
+	protected volatile boolean running;
+
+	public RingBufferTxDispatcher(MessageChannel trackingChannel, int capacity, int workerCount, OverflowPolicy overflowPolicy)
+	{
+		super();
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("Buffer capacity must be greater than 0");
+
+		if (workerCount < 1)
+			throw new IllegalArgumentException("Worker count must be greater than 0");
+
+		this.trackingChannel = trackingChannel;
+		this.buffer = new ArrayBlockingQueue<>(capacity);
+		this.workerCount = workerCount;
+		this.overflowPolicy = overflowPolicy;
+		this.workers = new ArrayList<>(workerCount);
+	}
+
+	public synchronized void start()
+	{
+		if (running)
+			return;
+
+		running = true;
+		for (int i = 0; i < workerCount; ++i)
+		{
+			final Thread worker = new Thread(this::drain, "monitor-tx-dispatcher-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		Log.info("Asynchronous monitor Tx dispatcher started with " + workerCount + " workers, buffer capacity " +
+				buffer.remainingCapacity() + ", and overflow policy " + overflowPolicy);
+	}
+
+	public synchronized void stop()
+	{
+		if (!running)
+			return;
+
+		running = false;
+		for (Thread worker : workers)
+			worker.interrupt();
+
+		for (Thread worker : workers)
+		{
+			try
+			{
+				worker.join(5000);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		workers.clear();
+
+		// flush anything left so it is not lost on a clean shutdown
+		flush();
+
+		Log.info("Asynchronous monitor Tx dispatcher stopped");
+	}
+
+	/**
+	 * Publishes a Tx to the buffer.
+	 * @param tx The Tx to track.
+	 * @return True if the Tx was buffered, false if it was discarded.
+	 */
+	public boolean publish(Tx tx)
+	{
+		if (!running)
+		{
+			// not started (or shut down), so track on the caller's thread
+			send(tx);
+			return true;
+		}
+
+		final boolean buffered = enqueue(tx);
+
+		// stop() may have drained the buffer for the last time between the check above and the enqueue
+		if (buffered && !running)
+			flush();
+
+		return buffered;
+	}
+
+	protected boolean enqueue(Tx tx)
+	{
+		switch (overflowPolicy)
+		{
+			case BLOCK:
+			{
+				try
+				{
+					// wait in steps so a publisher waiting on a full buffer notices when the workers have stopped
+					while (!buffer.offer(tx, BLOCK_RECHECK_INTERVAL, TimeUnit.MILLISECONDS))
+					{
+						if (!running)
+						{
+							send(tx);
+							return true;
+						}
+					}
+					return true;
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					dropped.increment();
+					return false;
+				}
+			}
+			case DROP_OLDEST:
+			{
+				while (!buffer.offer(tx))
+				{
+					if (buffer.poll() != null)
+						dropped.increment();
+				}
+				return true;
+			}
+			default:
+			{
+				if (buffer.offer(tx))
+					return true;
+
+				dropped.increment();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of Txs discarded because the buffer was full.
+	 */
+	public long getDropped()
+	{
+		return dropped.sum();
+	}
+
+	/**
+	 * @return The number of Txs waiting in the buffer.
+	 */
+	public int getBuffered()
+	{
+		return buffer.size();
+	}
+
+	protected void drain()
+	{
+		while (running)
+		{
+			try
+			{
+				send(buffer.take());
+			}
+			catch (InterruptedException e)
+			{
+				// stop() interrupts the workers
+			}
+		}
+	}
+
+	/*
+	 * Sends the buffered Txs on the caller's thread.
+	 */
+	protected void flush()
+	{
+		Tx tx;
+		while ((tx = buffer.poll()) != null)
+			send(tx);
+	}
+
+	protected void send(Tx tx)
+	{
+		try
+		{
+			trackingChannel.send(withPayload(tx).build());
+		}
+		catch (Exception e)
+		{
+			Log.warn("Failed to send Tx to the monitor tracking channel.", e);
+		}
+	}
+}
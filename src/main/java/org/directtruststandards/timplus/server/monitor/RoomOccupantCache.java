@@ -0,0 +1,246 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.jivesoftware.openfire.muc.MUCEventListener;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Presence;
+
+/**
+ * Caches an occupant snapshot per room so group chat messages don't walk the room's occupants for every message.
+ * <p>
+ * Snapshots of local rooms are invalidated by the MUC events of this node (occupant joined, left, or changed nickname,
+ * and room destroyed) when the cache is registered with the MUCEventDispatcher.  The presence a room broadcasts to its
+ * occupants on the same changes also invalidates the room's snapshot, which covers rooms hosted by other nodes or
+ * servers.  Snapshots expire after a short time in case an invalidation is missed, and the number of cached rooms
+ * is bounded.
+ */
+public class RoomOccupantCache implements MUCEventListener
+{
+	protected static final String MUC_USER_NAMESPACE = "http://jabber.org/protocol/muc#user";
+
+	/*
+	 * A room being loaded holds a placeholder entry without a snapshot.  Invalidating the room removes
+	 * the placeholder, so a snapshot that may have been read before the change is not cached, while loads
+	 * of other rooms are unaffected.
+	 */
+	protected final ConcurrentMap<JID, CachedSnapshot> snapshots = new ConcurrentHashMap<>();
+
+	protected final LongAdder hits = new LongAdder();
+
+	protected final LongAdder misses = new LongAdder();
+
+	protected volatile long ttlNanos = TimeUnit.SECONDS.toNanos(30);
+
+	protected volatile int maxEntries = 10000;
+
+	/**
+	 * Gets the snapshot of a room, loading and caching it if needed.
+	 * @param roomJID The bare JID of the room.
+	 * @param loader Reads the room's current occupant JID to real JID map.
+	 * @return The room's occupant snapshot.
+	 */
+	public RoomOccupantSnapshot getSnapshot(JID roomJID, Function<JID, Map<JID, JID>> loader)
+	{
+		final CachedSnapshot cached = snapshots.get(roomJID);
+		if (cached != null && cached.snapshot != null && cached.expires - System.nanoTime() > 0)
+		{
+			hits.increment();
+			return cached.snapshot;
+		}
+
+		misses.increment();
+
+		if (snapshots.size() >= maxEntries)
+			purge();
+
+		final CachedSnapshot loading = new CachedSnapshot(null, 0);
+		snapshots.put(roomJID, loading);
+
+		final RoomOccupantSnapshot snapshot;
+		try
+		{
+			snapshot = new RoomOccupantSnapshot(loader.apply(roomJID));
+		}
+		catch (RuntimeException e)
+		{
+			snapshots.remove(roomJID, loading);
+			throw e;
+		}
+
+		// not cached if the room was invalidated (or another load took over) while loading
+		snapshots.replace(roomJID, loading, new CachedSnapshot(snapshot, System.nanoTime() + ttlNanos));
+
+		return snapshot;
+	}
+
+	/**
+	 * Invalidates the snapshot of a room.
+	 * @param roomJID The bare JID of the room.
+	 */
+	public void invalidate(JID roomJID)
+	{
+		snapshots.remove(roomJID);
+	}
+
+	/**
+	 * Invalidates the snapshot of the room that sent an occupant presence if the presence is a join, leave, or
+	 * nickname change (status 303, sent as unavailable) that the room's cached snapshot does not reflect yet.
+	 * Occupant status updates and the copies of a change broadcast to the other occupants leave the snapshot alone.
+	 * @param presence The presence packet.
+	 */
+	public void presenceIntercepted(Presence presence)
+	{
+		final JID from = presence.getFrom();
+		if (from == null || from.getNode() == null || from.getResource() == null)
+			return;
+
+		final boolean unavailable = presence.getType() == Presence.Type.unavailable;
+		if ((presence.getType() != null && !unavailable) || presence.getChildElement("x", MUC_USER_NAMESPACE) == null)
+			return;
+
+		final JID roomJID = from.asBareJID();
+		final CachedSnapshot cached = snapshots.get(roomJID);
+		if (cached == null)
+			return;
+
+		// a load in progress may have read the room before the change
+		if (cached.snapshot == null)
+		{
+			snapshots.remove(roomJID, cached);
+			return;
+		}
+
+		// a leave or nickname change of a cached occupant, or a join of an occupant that isn't cached
+		final boolean cachedOccupant = cached.snapshot.getUserJID(from) != null;
+		if (unavailable == cachedOccupant)
+			snapshots.remove(roomJID, cached);
+	}
+
+	@Override
+	public void roomCreated(JID roomJID)
+	{
+
+	}
+
+	@Override
+	public void roomDestroyed(JID roomJID)
+	{
+		invalidate(roomJID.asBareJID());
+	}
+
+	@Override
+	public void occupantJoined(JID roomJID, JID user, String nickname)
+	{
+		invalidate(roomJID.asBareJID());
+	}
+
+	@Override
+	public void occupantLeft(JID roomJID, JID user)
+	{
+		invalidate(roomJID.asBareJID());
+	}
+
+	@Override
+	public void nicknameChanged(JID roomJID, JID user, String oldNickname, String newNickname)
+	{
+		invalidate(roomJID.asBareJID());
+	}
+
+	@Override
+	public void messageReceived(JID roomJID, JID user, String nickname, Message message)
+	{
+
+	}
+
+	@Override
+	public void privateMessageRecieved(JID toJID, JID fromJID, Message message)
+	{
+
+	}
+
+	@Override
+	public void roomSubjectChanged(JID roomJID, JID user, String newSubject)
+	{
+
+	}
+
+	/**
+	 * @param ttl The time in milliseconds a room's snapshot is cached.
+	 */
+	public void setTtl(long ttl)
+	{
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+	}
+
+	/**
+	 * @param maxEntries The maximum number of cached rooms.
+	 */
+	public void setMaxEntries(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return The number of lookups served from the cache.
+	 */
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of lookups that loaded the room's occupants.
+	 */
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of cached rooms.
+	 */
+	public int size()
+	{
+		return snapshots.size();
+	}
+
+	/*
+	 * Drops expired snapshots, and everything if that isn't enough.  Only reached when the map is full.
+	 */
+	protected void purge()
+	{
+		final long now = System.nanoTime();
+
+		final Iterator<CachedSnapshot> iter = snapshots.values().iterator();
+		while (iter.hasNext())
+		{
+			final CachedSnapshot cached = iter.next();
+			if (cached.snapshot != null && cached.expires - now <= 0)
+				iter.remove();
+		}
+
+		if (snapshots.size() >= maxEntries)
+			snapshots.clear();
+	}
+
+	protected static class CachedSnapshot
+	{
+		protected final RoomOccupantSnapshot snapshot;
+
+		protected final long expires;
+
+		protected CachedSnapshot(RoomOccupantSnapshot snapshot, long expires)
+		{
+			this.snapshot = snapshot;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xmpp.packet.JID;
+
+/**
+ * Immutable view of a room's occupants at a point in time: the occupant (room/nickname) JID to real JID map,
+ * which doubles as the nickname index for resolving a sender's real JID, and the comma separated real JID list
+ * used as the recipients of a group chat Tx.
+ */
+public class RoomOccupantSnapshot
+{
+	protected final Map<JID, JID> occupants;
+
+	protected final String recipients;
+
+	/**
+	 * Constructor.
+	 * @param occupants Map of occupant JIDs to real JIDs.  The map is copied.
+	 */
+	public RoomOccupantSnapshot(Map<JID, JID> occupants)
+	{
+		this.occupants = Collections.unmodifiableMap(new LinkedHashMap<>(occupants));
+
+		final StringBuilder recipBuilder = new StringBuilder();
+		final Iterator<JID> recipIter = this.occupants.values().iterator();
+		while (recipIter.hasNext())
+		{
+			recipBuilder.append(recipIter.next().toString());
+			if (recipIter.hasNext())
+				recipBuilder.append(",");
+		}
+		this.recipients = recipBuilder.toString();
+	}
+
+	/**
+	 * @return Unmodifiable map of occupant JIDs to real JIDs.
+	 */
+	public Map<JID, JID> getOccupants()
+	{
+		return occupants;
+	}
+
+	/**
+	 * @param occupantJID The occupant's room/nickname JID.
+	 * @return The occupant's real JID, or null if there is no occupant with the nickname.
+	 */
+	public JID getUserJID(JID occupantJID)
+	{
+		return occupants.get(occupantJID);
+	}
+
+	/**
+	 * @return Comma separated list of the occupants' real JIDs.
+	 */
+	public String getRecipients()
+	{
+		return recipients;
+	}
+}
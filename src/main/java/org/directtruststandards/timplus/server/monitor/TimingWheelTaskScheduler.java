@@ -0,0 +1,613 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Hashed timing wheel for the one-shot group timeouts of the monitor aggregators.
+ * <p>
+ * Aggregators schedule a forced completion for every open message group and cancel it when the group is released.
+ * A ScheduledThreadPoolExecutor keeps these in a heap, so each schedule and cancel is O(log n) under a single lock,
+ * which becomes the bottleneck with hundreds of thousands of in flight messages.  Here a schedule is an append
+ * to a lock free queue and a cancel is a state change; both are O(1).  A single ticker thread moves new timeouts
+ * into wheel buckets, unlinks cancelled ones, and hands every timeout due in a tick to the expiry threads as a
+ * single batch.
+ * <p>
+ * At most {@link #MAX_NEW_TIMEOUTS} timeouts wait for the ticker.  When schedules outpace it, further timeouts go to
+ * the fallback scheduler instead, so they still fire and can be cancelled, but at heap cost.
+ * <p>
+ * Timeouts fire with tick granularity, never early, and at most one tick late (plus expiry thread backlog).
+ * Periodic and trigger based tasks are not supported by the wheel and are passed to the fallback scheduler, or to a
+ * single thread scheduler of its own when there is none.
+ */
+public class TimingWheelTaskScheduler implements TaskScheduler
+{
+	private static final Logger Log = LoggerFactory.getLogger(TimingWheelTaskScheduler.class);
+
+	/*
+	 * Upper bound on the number of new timeouts moved into the wheel per tick so a flood of
+	 * schedules can't stall expiry.
+	 */
+	protected static final int MAX_TRANSFER_PER_TICK = 100000;
+
+	/*
+	 * Upper bound on the number of new timeouts waiting for the ticker.  The same as the per tick
+	 * transfer so a tick always drains what was queued before it.
+	 */
+	protected static final int MAX_NEW_TIMEOUTS = MAX_TRANSFER_PER_TICK;
+
+	/*
+	 * Caps the delay of a single timeout so deadlines can't overflow.
+	 */
+	protected static final long MAX_DELAY_NANOS = Long.MAX_VALUE / 4;
+
+	protected static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(WheelTimeout.class, "state");
+
+	protected final long tickNanos;
+
+	protected final Bucket[] wheel;
+
+	protected final int mask;
+
+	protected final int expiryThreads;
+
+	protected final TaskScheduler fallback;
+
+	/*
+	 * Created on first use when no fallback scheduler is given
+	 */
+	protected volatile ThreadPoolTaskScheduler internalFallback;
+
+	protected final long startNanos;
+
+	protected final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+	/*
+	 * Size of newTimeouts, which the queue itself can't report in constant time
+	 */
+	protected final AtomicInteger newTimeoutCount = new AtomicInteger();
+
+	protected final LongAdder overflowed = new LongAdder();
+
+	protected final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+	protected final AtomicInteger pending = new AtomicInteger();
+
+	protected long tick;
+
+	protected volatile boolean running;
+
+	protected Thread ticker;
+
+	protected ExecutorService expiryExecutor;
+
+	/**
+	 * Constructor.
+	 * @param tickDuration The duration of one tick in milliseconds.
+	 * @param wheelSize The number of buckets.  Rounded up to a power of 2.
+	 * @param expiryThreads The number of threads that run expired tasks.
+	 * @param fallback Scheduler used for periodic and trigger based tasks.  May be null, in which case those tasks run on
+	 * an internal single thread scheduler.
+	 */
+	public TimingWheelTaskScheduler(long tickDuration, int wheelSize, int expiryThreads, TaskScheduler fallback)
+	{
+		if (tickDuration < 1)
+			throw new IllegalArgumentException("Tick duration must be at least 1 ms");
+
+		if (wheelSize < 1 || wheelSize > (1 << 30))
+			throw new IllegalArgumentException("Wheel size must be between 1 and 2^30");
+
+		if (expiryThreads < 1)
+			throw new IllegalArgumentException("Expiry thread count must be greater than 0");
+
+		final int size = (wheelSize == 1) ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; ++i)
+			wheel[i] = new Bucket();
+		this.mask = size - 1;
+		this.expiryThreads = expiryThreads;
+		this.fallback = fallback;
+		this.startNanos = System.nanoTime();
+	}
+
+	public synchronized void start()
+	{
+		if (running)
+			return;
+
+		expiryExecutor = Executors.newFixedThreadPool(expiryThreads, new ThreadFactory()
+		{
+			protected final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				final Thread thread = new Thread(r, "monitor-timeout-expiry-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		running = true;
+
+		ticker = new Thread(this::runTicker, "monitor-timeout-wheel");
+		ticker.setDaemon(true);
+		ticker.start();
+
+		Log.info("Monitor timeout wheel started with " + wheel.length + " buckets of " +
+				TimeUnit.NANOSECONDS.toMillis(tickNanos) + " ms");
+	}
+
+	public synchronized void stop()
+	{
+		if (!running)
+			return;
+
+		running = false;
+
+		ticker.interrupt();
+		try
+		{
+			ticker.join(TimeUnit.SECONDS.toMillis(5));
+
+			expiryExecutor.shutdown();
+			expiryExecutor.awaitTermination(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		ticker = null;
+		expiryExecutor = null;
+
+		if (internalFallback != null)
+		{
+			internalFallback.shutdown();
+			internalFallback = null;
+		}
+
+		Log.info("Monitor timeout wheel stopped with " + pending.get() + " pending timeouts");
+	}
+
+	/**
+	 * @return The number of timeouts that have been scheduled but have neither fired nor been cancelled.
+	 */
+	public int getPending()
+	{
+		return pending.get();
+	}
+
+	/**
+	 * @return The number of timeouts passed to the fallback scheduler because too many new timeouts were waiting
+	 * for the ticker.
+	 */
+	public long getOverflowed()
+	{
+		return overflowed.sum();
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable task, Date startTime)
+	{
+		if (newTimeoutCount.incrementAndGet() > MAX_NEW_TIMEOUTS)
+		{
+			newTimeoutCount.decrementAndGet();
+			overflowed.increment();
+			return getFallback().schedule(task, startTime);
+		}
+
+		final long delayNanos = TimeUnit.MILLISECONDS.toNanos(startTime.getTime() - System.currentTimeMillis());
+		final WheelTimeout timeout = new WheelTimeout(task, System.nanoTime() + Math.min(Math.max(0, delayNanos), MAX_DELAY_NANOS));
+
+		pending.incrementAndGet();
+		newTimeouts.add(timeout);
+
+		return timeout;
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable task, Trigger trigger)
+	{
+		return getFallback().schedule(task, trigger);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Date startTime, long period)
+	{
+		return getFallback().scheduleAtFixedRate(task, startTime, period);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period)
+	{
+		return getFallback().scheduleAtFixedRate(task, period);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Date startTime, long delay)
+	{
+		return getFallback().scheduleWithFixedDelay(task, startTime, delay);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay)
+	{
+		return getFallback().scheduleWithFixedDelay(task, delay);
+	}
+
+	protected TaskScheduler getFallback()
+	{
+		if (fallback != null)
+			return fallback;
+
+		ThreadPoolTaskScheduler scheduler = internalFallback;
+		if (scheduler == null)
+		{
+			synchronized (this)
+			{
+				scheduler = internalFallback;
+				if (scheduler == null)
+				{
+					scheduler = new ThreadPoolTaskScheduler();
+					scheduler.setThreadNamePrefix("monitor-timeout-periodic-");
+					scheduler.setDaemon(true);
+					scheduler.initialize();
+					internalFallback = scheduler;
+				}
+			}
+		}
+
+		return scheduler;
+	}
+
+	protected void runTicker()
+	{
+		while (running)
+		{
+			final long tickDeadline = waitForNextTick();
+			if (tickDeadline < 0)
+				continue;
+
+			final Bucket bucket = wheel[(int)(tick & mask)];
+
+			removeCancelled();
+			transferNewTimeouts();
+
+			final List<WheelTimeout> expired = bucket.expire(tickDeadline);
+			if (!expired.isEmpty())
+				expire(expired);
+
+			++tick;
+		}
+	}
+
+	/*
+	 * Sleeps until the end of the current tick.  Returns the tick deadline relative to
+	 * the start time, or -1 if interrupted by stop.
+	 */
+	protected long waitForNextTick()
+	{
+		final long deadline = tickNanos * (tick + 1);
+
+		for (;;)
+		{
+			final long current = System.nanoTime() - startNanos;
+			final long sleepMillis = (deadline - current + 999999) / 1000000;
+
+			if (sleepMillis <= 0)
+				return current;
+
+			try
+			{
+				Thread.sleep(sleepMillis);
+			}
+			catch (InterruptedException e)
+			{
+				if (!running)
+					return -1;
+			}
+		}
+	}
+
+	protected void transferNewTimeouts()
+	{
+		for (int i = 0; i < MAX_TRANSFER_PER_TICK; ++i)
+		{
+			final WheelTimeout timeout = newTimeouts.poll();
+			if (timeout == null)
+				break;
+
+			newTimeoutCount.decrementAndGet();
+
+			// cancelled before it made it into the wheel
+			if (timeout.state != WheelTimeout.ST_INIT)
+				continue;
+
+			final long calculated = (timeout.deadline - startNanos) / tickNanos;
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+
+			// already due timeouts go in the current bucket
+			final long ticks = Math.max(calculated, tick);
+			wheel[(int)(ticks & mask)].add(timeout);
+		}
+	}
+
+	protected void removeCancelled()
+	{
+		WheelTimeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null)
+		{
+			if (timeout.bucket != null)
+				timeout.bucket.remove(timeout);
+		}
+	}
+
+	protected void expire(List<WheelTimeout> expired)
+	{
+		try
+		{
+			expiryExecutor.execute(() ->
+			{
+				for (WheelTimeout timeout : expired)
+					timeout.expire();
+			});
+		}
+		catch (Exception e)
+		{
+			// shutting down; run them here rather than losing them
+			for (WheelTimeout timeout : expired)
+				timeout.expire();
+		}
+	}
+
+	/*
+	 * Doubly linked list of timeouts.  Only touched by the ticker thread.
+	 */
+	protected class Bucket
+	{
+		protected WheelTimeout head;
+
+		protected WheelTimeout tail;
+
+		protected void add(WheelTimeout timeout)
+		{
+			timeout.bucket = this;
+			if (head == null)
+			{
+				head = tail = timeout;
+			}
+			else
+			{
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		protected WheelTimeout remove(WheelTimeout timeout)
+		{
+			final WheelTimeout next = timeout.next;
+
+			if (timeout.prev != null)
+				timeout.prev.next = next;
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+
+			if (timeout == head)
+			{
+				if (timeout == tail)
+				{
+					head = tail = null;
+				}
+				else
+				{
+					head = next;
+				}
+			}
+			else if (timeout == tail)
+			{
+				tail = timeout.prev;
+			}
+
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+
+			return next;
+		}
+
+		protected List<WheelTimeout> expire(long tickDeadline)
+		{
+			List<WheelTimeout> expired = null;
+
+			WheelTimeout timeout = head;
+			while (timeout != null)
+			{
+				if (timeout.state != WheelTimeout.ST_INIT)
+				{
+					timeout = remove(timeout);
+				}
+				else if (timeout.remainingRounds <= 0 && timeout.deadline - startNanos <= tickDeadline)
+				{
+					final WheelTimeout next = remove(timeout);
+					if (expired == null)
+						expired = new ArrayList<>();
+					expired.add(timeout);
+					timeout = next;
+				}
+				else
+				{
+					if (timeout.remainingRounds > 0)
+						--timeout.remainingRounds;
+					timeout = timeout.next;
+				}
+			}
+
+			return (expired == null) ? Collections.emptyList() : expired;
+		}
+	}
+
+	protected class WheelTimeout implements ScheduledFuture<Object>
+	{
+		protected static final int ST_INIT = 0;
+
+		protected static final int ST_RUNNING = 1;
+
+		protected static final int ST_DONE = 2;
+
+		protected static final int ST_CANCELLED = 3;
+
+		protected final Runnable task;
+
+		protected final long deadline;
+
+		protected volatile int state = ST_INIT;
+
+		protected Throwable failure;
+
+		// owned by the ticker thread
+		protected long remainingRounds;
+
+		protected Bucket bucket;
+
+		protected WheelTimeout next;
+
+		protected WheelTimeout prev;
+
+		protected WheelTimeout(Runnable task, long deadline)
+		{
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		protected void expire()
+		{
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_RUNNING))
+				return;
+
+			pending.decrementAndGet();
+			try
+			{
+				task.run();
+			}
+			catch (Throwable e)
+			{
+				failure = e;
+				Log.warn("Monitor timeout task failed.", e);
+			}
+
+			synchronized (this)
+			{
+				state = ST_DONE;
+				notifyAll();
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED))
+				return false;
+
+			pending.decrementAndGet();
+			cancelledTimeouts.add(this);
+
+			synchronized (this)
+			{
+				notifyAll();
+			}
+
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return state == ST_CANCELLED;
+		}
+
+		@Override
+		public boolean isDone()
+		{
+			return state >= ST_DONE;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit)
+		{
+			return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o)
+		{
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+		@Override
+		public Object get() throws InterruptedException, ExecutionException
+		{
+			synchronized (this)
+			{
+				while (!isDone())
+					wait();
+			}
+
+			return result();
+		}
+
+		@Override
+		public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			final long end = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (this)
+			{
+				while (!isDone())
+				{
+					final long remaining = end - System.nanoTime();
+					if (remaining <= 0)
+						throw new TimeoutException();
+
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+			}
+
+			return result();
+		}
+
+		protected Object result() throws ExecutionException
+		{
+			if (state == ST_CANCELLED)
+				throw new CancellationException();
+
+			if (failure != null)
+				throw new ExecutionException(failure);
+
+			return null;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package org.directtruststandards.timplus.server.monitor.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.integration.store.MessageGroupMetadata;
+import org.springframework.integration.store.MessageGroupStore;
+import org.springframework.messaging.Message;
+
+/**
+ * Message group store made of independent shards, with each group kept in the shard picked by the hash of its group id.
+ * Operations on a group go to its shard; counts, iteration, expiry callbacks, and expiry cover every shard, so a reaper
+ * or meter given this store sees all of the groups.
+ * <p>
+ * Shard assignment uses the same hash as the {@link org.directtruststandards.timplus.server.monitor.PartitionedTxAggregator},
+ * so with the same shard count each aggregator shard can use its own store shard directly via {@link #getShard(int)}.
+ */
+public class ShardedMessageGroupStore implements MessageGroupStore
+{
+	protected final MessageGroupStore[] shards;
+
+	/**
+	 * Constructor.
+	 * @param shardCount The number of shards.
+	 * @param shardFactory Creates the store for a shard index.
+	 */
+	public ShardedMessageGroupStore(int shardCount, IntFunction<? extends MessageGroupStore> shardFactory)
+	{
+		if (shardCount < 1)
+			throw new IllegalArgumentException("Shard count must be greater than 0");
+
+		this.shards = new MessageGroupStore[shardCount];
+		for (int i = 0; i < shardCount; ++i)
+			shards[i] = shardFactory.apply(i);
+	}
+
+	/**
+	 * @param index The shard index.
+	 * @return The shard at the given index.
+	 */
+	public MessageGroupStore getShard(int index)
+	{
+		return shards[index];
+	}
+
+	/**
+	 * @return The number of shards.
+	 */
+	public int getShardCount()
+	{
+		return shards.length;
+	}
+
+	protected MessageGroupStore getShard(Object groupId)
+	{
+		return shards[Math.floorMod(groupId.hashCode(), shards.length)];
+	}
+
+	@Override
+	public int messageGroupSize(Object groupId)
+	{
+		return getShard(groupId).messageGroupSize(groupId);
+	}
+
+	@Override
+	public MessageGroup getMessageGroup(Object groupId)
+	{
+		return getShard(groupId).getMessageGroup(groupId);
+	}
+
+	@Override
+	public MessageGroup addMessageToGroup(Object groupId, Message<?> message)
+	{
+		return getShard(groupId).addMessageToGroup(groupId, message);
+	}
+
+	@Override
+	public Message<?> pollMessageFromGroup(Object groupId)
+	{
+		return getShard(groupId).pollMessageFromGroup(groupId);
+	}
+
+	@Override
+	public void removeMessageGroup(Object groupId)
+	{
+		getShard(groupId).removeMessageGroup(groupId);
+	}
+
+	@Override
+	public int getMessageCountForAllMessageGroups()
+	{
+		int count = 0;
+		for (MessageGroupStore shard : shards)
+			count += shard.getMessageCountForAllMessageGroups();
+
+		return count;
+	}
+
+	@Override
+	public int getMessageGroupCount()
+	{
+		int count = 0;
+		for (MessageGroupStore shard : shards)
+			count += shard.getMessageGroupCount();
+
+		return count;
+	}
+
+	@Override
+	public void removeMessagesFromGroup(Object key, Collection<Message<?>> messages)
+	{
+		getShard(key).removeMessagesFromGroup(key, messages);
+	}
+
+	@Override
+	public void removeMessagesFromGroup(Object key, Message<?>... messages)
+	{
+		getShard(key).removeMessagesFromGroup(key, messages);
+	}
+
+	@Override
+	public void registerMessageGroupExpiryCallback(MessageGroupCallback callback)
+	{
+		for (MessageGroupStore shard : shards)
+			shard.registerMessageGroupExpiryCallback(callback);
+	}
+
+	@Override
+	public int expireMessageGroups(long timeout)
+	{
+		int expired = 0;
+		for (MessageGroupStore shard : shards)
+			expired += shard.expireMessageGroups(timeout);
+
+		return expired;
+	}
+
+	@Override
+	public void setLastReleasedSequenceNumberForGroup(Object groupId, int sequenceNumber)
+	{
+		getShard(groupId).setLastReleasedSequenceNumberForGroup(groupId, sequenceNumber);
+	}
+
+	@Override
+	public Iterator<MessageGroup> iterator()
+	{
+		final List<MessageGroup> groups = new ArrayList<>();
+		for (MessageGroupStore shard : shards)
+			shard.iterator().forEachRemaining(groups::add);
+
+		return groups.iterator();
+	}
+
+	@Override
+	public void completeGroup(Object groupId)
+	{
+		getShard(groupId).completeGroup(groupId);
+	}
+
+	@Override
+	public MessageGroupMetadata getGroupMetadata(Object groupId)
+	{
+		return getShard(groupId).getGroupMetadata(groupId);
+	}
+
+	@Override
+	public Message<?> getOneMessageFromGroup(Object groupId)
+	{
+		return getShard(groupId).getOneMessageFromGroup(groupId);
+	}
+
+	@Override
+	public void addMessagesToGroup(Object groupId, Message<?>... messages)
+	{
+		getShard(groupId).addMessagesToGroup(groupId, messages);
+	}
+
+	@Override
+	public Collection<Message<?>> getMessagesForGroup(Object groupId)
+	{
+		return getShard(groupId).getMessagesForGroup(groupId);
+	}
+}
@@ -0,0 +1,152 @@
+package org.directtruststandards.timplus.server.monitor.store;
+
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.integration.store.MessageGroupStore;
+
+/**
+ * Message group store for the monitor that keeps all groups in memory, split across independent shards by group id,
+ * and writes changes behind to a persistent store (generally the JDBC message store) in batches.
+ * <p>
+ * On start, every group in the persistent store is loaded back into its shard so in flight messages survive a
+ * restart.  On stop, all pending changes are flushed.  Groups are not tagged with an owning node, so the persistent
+ * store must not be shared with other servers.
+ */
+public class ShardedWriteBehindMessageGroupStore extends ShardedMessageGroupStore
+{
+	private static final Logger Log = LoggerFactory.getLogger(ShardedWriteBehindMessageGroupStore.class);
+
+	protected final MessageGroupStore persistentStore;
+
+	protected final long flushInterval;
+
+	protected final int batchSize;
+
+	protected ScheduledExecutorService flusher;
+
+	/**
+	 * Constructor.
+	 * @param persistentStore The store that changes are written behind to.
+	 * @param shardCount The number of in-memory shards.
+	 * @param flushInterval The time in milliseconds between flushes.
+	 * @param batchSize The maximum number of changes written per shard per flush round.
+	 */
+	public ShardedWriteBehindMessageGroupStore(MessageGroupStore persistentStore, int shardCount, long flushInterval, int batchSize)
+	{
+		super(shardCount, i -> new WriteBehindMessageGroupStore(persistentStore));
+
+		this.persistentStore = persistentStore;
+		this.flushInterval = flushInterval;
+		this.batchSize = batchSize;
+	}
+
+	public synchronized void start()
+	{
+		if (flusher != null)
+			return;
+
+		recover();
+
+		flusher = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			final Thread thread = new Thread(r, "monitor-store-write-behind");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop()
+	{
+		if (flusher == null)
+			return;
+
+		flusher.shutdown();
+		try
+		{
+			flusher.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		flusher = null;
+
+		// write out anything left
+		flush();
+	}
+
+	/**
+	 * Writes all pending changes of every shard to the persistent store.
+	 */
+	public void flush()
+	{
+		try
+		{
+			for (int i = 0; i < shards.length; ++i)
+				while (getShard(i).flush(batchSize) > 0);
+		}
+		catch (Exception e)
+		{
+			Log.warn("Failed to flush monitor groups to the persistent store.", e);
+		}
+	}
+
+	protected void recover()
+	{
+		int recovered = 0;
+		try
+		{
+			final Iterator<MessageGroup> groups = persistentStore.iterator();
+			while (groups.hasNext())
+			{
+				final MessageGroup group = groups.next();
+				try
+				{
+					getShard(group.getGroupId()).recoverGroup(group);
+					++recovered;
+				}
+				catch (Exception e)
+				{
+					Log.warn("Failed to recover monitor group " + group.getGroupId() + " from the persistent store.", e);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			Log.warn("Failed to read monitor groups from the persistent store.  Starting with an empty monitor store.", e);
+		}
+
+		Log.info("Recovered " + recovered + " monitor groups from the persistent store into " + shards.length + " shards");
+	}
+
+	@Override
+	public WriteBehindMessageGroupStore getShard(int index)
+	{
+		return (WriteBehindMessageGroupStore)super.getShard(index);
+	}
+
+	/**
+	 * @return The number of changes waiting to be written to the persistent store across all shards.
+	 */
+	public int getPendingWrites()
+	{
+		int pending = 0;
+		for (int i = 0; i < shards.length; ++i)
+			pending += getShard(i).getPendingWrites();
+
+		return pending;
+	}
+
+	@Override
+	protected WriteBehindMessageGroupStore getShard(Object groupId)
+	{
+		return (WriteBehindMessageGroupStore)super.getShard(groupId);
+	}
+}
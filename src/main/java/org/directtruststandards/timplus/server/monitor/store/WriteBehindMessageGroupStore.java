@@ -0,0 +1,323 @@
+package org.directtruststandards.timplus.server.monitor.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.integration.store.MessageGroupFactory;
+import org.springframework.integration.store.MessageGroupStore;
+import org.springframework.integration.store.SimpleMessageStore;
+import org.springframework.messaging.Message;
+
+/**
+ * In-memory message group store that records every change and writes it to a persistent store in batches
+ * from a background thread.  Reads are served entirely from memory.
+ * <p>
+ * Batches are coalesced per group before they are written.  Most monitored messages are acknowledged within
+ * seconds, so a group that is created and removed within the same batch never touches the persistent store.
+ * <p>
+ * This is a single shard of a {@link ShardedWriteBehindMessageGroupStore}, which owns the flush schedule and
+ * recovery on startup.
+ */
+public class WriteBehindMessageGroupStore extends SimpleMessageStore
+{
+	private static final Logger Log = LoggerFactory.getLogger(WriteBehindMessageGroupStore.class);
+
+	protected enum OpType
+	{
+		ADD,
+		REMOVE_MESSAGES,
+		REMOVE_GROUP,
+		COMPLETE,
+		LAST_RELEASED
+	}
+
+	protected static class Op
+	{
+		protected final OpType type;
+
+		protected final Object groupId;
+
+		protected final List<Message<?>> messages;
+
+		protected final int sequence;
+
+		protected Op(OpType type, Object groupId, List<Message<?>> messages, int sequence)
+		{
+			this.type = type;
+			this.groupId = groupId;
+			this.messages = messages;
+			this.sequence = sequence;
+		}
+	}
+
+	protected final MessageGroupStore persistentStore;
+
+	protected final Queue<Op> pending = new ConcurrentLinkedQueue<>();
+
+	protected final AtomicInteger pendingCount = new AtomicInteger();
+
+	/*
+	 * Groups that have been written to (or recovered from) the persistent store.  Used to skip
+	 * persistent deletes for groups that never made it out of memory.
+	 */
+	protected final Set<Object> persistedGroups = ConcurrentHashMap.newKeySet();
+
+	/*
+	 * Creation times of the groups being recovered, so a recovered group keeps the timestamp its group
+	 * timeout and expiry are measured from instead of restarting the clock
+	 */
+	protected final Map<Object, Long> recoveringTimestamps = new ConcurrentHashMap<>();
+
+	protected final MessageGroupFactory groupFactory = new RecoveringMessageGroupFactory();
+
+	public WriteBehindMessageGroupStore(MessageGroupStore persistentStore)
+	{
+		super();
+
+		this.persistentStore = persistentStore;
+	}
+
+	@Override
+	public void addMessagesToGroup(Object groupId, Message<?>... messages)
+	{
+		super.addMessagesToGroup(groupId, messages);
+
+		enqueue(new Op(OpType.ADD, groupId, new ArrayList<>(Arrays.asList(messages)), 0));
+	}
+
+	@Override
+	public void removeMessagesFromGroup(Object key, Collection<Message<?>> messages)
+	{
+		super.removeMessagesFromGroup(key, messages);
+
+		enqueue(new Op(OpType.REMOVE_MESSAGES, key, new ArrayList<>(messages), 0));
+	}
+
+	@Override
+	public void clearMessageGroup(Object groupId)
+	{
+		final Collection<Message<?>> messages = getMessagesForGroup(groupId);
+
+		super.clearMessageGroup(groupId);
+
+		if (!messages.isEmpty())
+			enqueue(new Op(OpType.REMOVE_MESSAGES, groupId, new ArrayList<>(messages), 0));
+	}
+
+	@Override
+	public Message<?> pollMessageFromGroup(Object groupId)
+	{
+		final Message<?> message = super.pollMessageFromGroup(groupId);
+
+		if (message != null)
+			enqueue(new Op(OpType.REMOVE_MESSAGES, groupId, Collections.singletonList(message), 0));
+
+		return message;
+	}
+
+	@Override
+	public void removeMessageGroup(Object groupId)
+	{
+		super.removeMessageGroup(groupId);
+
+		enqueue(new Op(OpType.REMOVE_GROUP, groupId, null, 0));
+	}
+
+	@Override
+	public void completeGroup(Object groupId)
+	{
+		super.completeGroup(groupId);
+
+		enqueue(new Op(OpType.COMPLETE, groupId, null, 0));
+	}
+
+	@Override
+	public void setLastReleasedSequenceNumberForGroup(Object groupId, int sequenceNumber)
+	{
+		super.setLastReleasedSequenceNumberForGroup(groupId, sequenceNumber);
+
+		enqueue(new Op(OpType.LAST_RELEASED, groupId, null, sequenceNumber));
+	}
+
+	@Override
+	protected MessageGroupFactory getMessageGroupFactory()
+	{
+		return (groupFactory == null) ? super.getMessageGroupFactory() : groupFactory;
+	}
+
+	/**
+	 * @return The number of changes waiting to be written to the persistent store.
+	 */
+	public int getPendingWrites()
+	{
+		return pendingCount.get();
+	}
+
+	/**
+	 * Loads a group read from the persistent store into memory without queuing it to be written back.  The group
+	 * keeps its original creation time.
+	 * @param group The persisted group.
+	 */
+	protected void recoverGroup(MessageGroup group)
+	{
+		final Object groupId = group.getGroupId();
+
+		recoveringTimestamps.put(groupId, group.getTimestamp());
+		try
+		{
+			super.addMessagesToGroup(groupId, group.getMessages().toArray(new Message<?>[0]));
+		}
+		finally
+		{
+			recoveringTimestamps.remove(groupId);
+		}
+
+		if (group.getLastReleasedMessageSequenceNumber() > 0)
+			super.setLastReleasedSequenceNumberForGroup(groupId, group.getLastReleasedMessageSequenceNumber());
+
+		if (group.isComplete())
+			super.completeGroup(groupId);
+
+		persistedGroups.add(groupId);
+	}
+
+	/**
+	 * Writes up to batchSize pending changes to the persistent store.
+	 * @param batchSize The maximum number of changes to take from the queue.
+	 * @return The number of changes taken from the queue.
+	 */
+	protected int flush(int batchSize)
+	{
+		// coalesce the batch per group, keeping the order of each group's changes
+		final Map<Object, List<Op>> groupOps = new LinkedHashMap<>();
+		int taken = 0;
+		Op op;
+		while (taken < batchSize && (op = pending.poll()) != null)
+		{
+			++taken;
+
+			if (op.type == OpType.REMOVE_GROUP)
+			{
+				// nothing earlier in the batch matters once the group is removed, and if it was never
+				// written there is nothing to delete
+				groupOps.remove(op.groupId);
+				if (persistedGroups.contains(op.groupId))
+					groupOps.computeIfAbsent(op.groupId, k -> new ArrayList<>()).add(op);
+
+				continue;
+			}
+
+			final List<Op> ops = groupOps.computeIfAbsent(op.groupId, k -> new ArrayList<>());
+			final Op last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+			if (last != null && last.type == OpType.ADD && op.type == OpType.ADD)
+				last.messages.addAll(op.messages);
+			else
+				ops.add(op);
+		}
+		pendingCount.addAndGet(-taken);
+
+		for (List<Op> ops : groupOps.values())
+			for (Op groupOp : ops)
+			{
+				try
+				{
+					write(groupOp);
+				}
+				catch (Exception e)
+				{
+					Log.warn("Failed to write monitor group " + groupOp.groupId + " change " + groupOp.type + " to the persistent store.", e);
+				}
+			}
+
+		return taken;
+	}
+
+	protected void write(Op op)
+	{
+		switch (op.type)
+		{
+			case ADD:
+				persistentStore.addMessagesToGroup(op.groupId, op.messages.toArray(new Message<?>[0]));
+				persistedGroups.add(op.groupId);
+				break;
+			case REMOVE_MESSAGES:
+				persistentStore.removeMessagesFromGroup(op.groupId, op.messages);
+				break;
+			case REMOVE_GROUP:
+				persistentStore.removeMessageGroup(op.groupId);
+				persistedGroups.remove(op.groupId);
+				break;
+			case COMPLETE:
+				persistentStore.completeGroup(op.groupId);
+				persistedGroups.add(op.groupId);
+				break;
+			case LAST_RELEASED:
+				persistentStore.setLastReleasedSequenceNumberForGroup(op.groupId, op.sequence);
+				persistedGroups.add(op.groupId);
+				break;
+		}
+	}
+
+	protected void enqueue(Op op)
+	{
+		pending.add(op);
+		pendingCount.incrementAndGet();
+	}
+
+	/*
+	 * Creates groups with the store's configured factory, except that a group being recovered is created
+	 * with its persisted timestamp
+	 */
+	protected class RecoveringMessageGroupFactory implements MessageGroupFactory
+	{
+		@Override
+		public MessageGroup create(Object groupId)
+		{
+			final Long timestamp = recoveringTimestamps.get(groupId);
+
+			return (timestamp == null) ? delegate().create(groupId) : delegate().create(Collections.emptyList(), groupId, timestamp, false);
+		}
+
+		@Override
+		public MessageGroup create(Collection<? extends Message<?>> messages, Object groupId)
+		{
+			return delegate().create(messages, groupId);
+		}
+
+		@Override
+		public MessageGroup create(Collection<? extends Message<?>> messages, Object groupId, long timestamp, boolean complete)
+		{
+			return delegate().create(messages, groupId, timestamp, complete);
+		}
+
+		@Override
+		public MessageGroup create(MessageGroupStore messageGroupStore, Object groupId)
+		{
+			return delegate().create(messageGroupStore, groupId);
+		}
+
+		@Override
+		public MessageGroup create(MessageGroupStore messageGroupStore, Object groupId, long timestamp, boolean complete)
+		{
+			return delegate().create(messageGroupStore, groupId, timestamp, complete);
+		}
+
+		protected MessageGroupFactory delegate()
+		{
+			return WriteBehindMessageGroupStore.super.getMessageGroupFactory();
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.directtruststandards.timplus.server.rest;
 
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
 import org.directtruststandards.timplus.server.rest.dto.DomainCreationRequest;
 import org.directtruststandards.timplus.server.rest.dto.DomainCreationResponse;
 import org.jivesoftware.openfire.domain.DomainManager;
@@ -31,8 +32,8 @@ public class DomainController {
                     .body(new DomainCreationResponse(false, "Domain already exists", domainName));
             }
             
-            // Create the domain
-            DomainManager.getInstance().createDomain(domainName, true);
+            // Create the domain and share it with the other cluster nodes
+            RegisteredDomainCache.getInstance().createDomain(domainName);
             
             LOGGER.info("Domain '{}' created via REST API", domainName);
             
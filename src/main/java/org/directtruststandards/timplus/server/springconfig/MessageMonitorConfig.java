@@ -1,53 +1,406 @@
 package org.directtruststandards.timplus.server.springconfig;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.IntFunction;
+
+import javax.annotation.PreDestroy;
+
 import org.directtruststandards.timplus.monitor.condition.TxReleaseStrategy;
 import org.directtruststandards.timplus.monitor.condition.TxTimeoutCondition;
 import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
 import org.directtruststandards.timplus.monitor.spring.RouteComponents;
 import org.directtruststandards.timplus.monitor.spring.ScheduledRouteReaper;
+import org.directtruststandards.timplus.server.monitor.AbstractPacketMonitor;
+import org.directtruststandards.timplus.server.monitor.DefaultPacketTxParser;
 import org.directtruststandards.timplus.server.monitor.EmbeddedServerPacketMonitor;
+import org.directtruststandards.timplus.server.monitor.ExpirationErrorRouter;
+import org.directtruststandards.timplus.server.monitor.JIDCache;
+import org.directtruststandards.timplus.server.monitor.MonitorMeterBinder;
+import org.directtruststandards.timplus.server.monitor.MonitorMetrics;
+import org.directtruststandards.timplus.server.monitor.OverloadController;
 import org.directtruststandards.timplus.server.monitor.PacketMonitor;
+import org.directtruststandards.timplus.server.monitor.PartitionedTxAggregator;
+import org.directtruststandards.timplus.server.monitor.RingBufferTxDispatcher;
+import org.directtruststandards.timplus.server.monitor.TimingWheelTaskScheduler;
+import org.directtruststandards.timplus.server.monitor.store.ShardedMessageGroupStore;
+import org.directtruststandards.timplus.server.monitor.store.ShardedWriteBehindMessageGroupStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.integration.aggregator.CorrelationStrategy;
 import org.springframework.integration.channel.QueueChannel;
+import org.springframework.integration.context.IntegrationContextUtils;
 import org.springframework.integration.dsl.IntegrationFlow;
 import org.springframework.integration.dsl.IntegrationFlows;
 import org.springframework.integration.dsl.MessageChannels;
 import org.springframework.integration.store.MessageGroupStore;
+import org.springframework.integration.store.MessageGroupStoreReaper;
+import org.springframework.integration.store.SimpleMessageStore;
+import org.springframework.integration.support.locks.DefaultLockRegistry;
 import org.springframework.integration.support.locks.LockRegistry;
 import org.springframework.integration.transformer.Transformer;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
+import org.springframework.scheduling.TaskScheduler;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Configuration
 @Import({RouteComponents.class, ScheduledRouteReaper.class})
 public class MessageMonitorConfig
 {
+	@Value("${timplus.monitor.async.bufferSize:65536}")
+	protected int asyncBufferSize;
+	
+	@Value("${timplus.monitor.async.workers:1}")
+	protected int asyncWorkers;
+	
+	@Value("${timplus.monitor.async.overflowPolicy:BLOCK}")
+	protected String asyncOverflowPolicy;
+	
+	@Value("${timplus.monitor.aggregator.partitions:1}")
+	protected int aggregatorPartitions;
+	
+	@Value("${timplus.monitor.aggregator.partitionQueueSize:10000}")
+	protected int aggregatorPartitionQueueSize;
+	
+	@Value("${timplus.monitor.store.writeBehind.enabled:false}")
+	protected boolean writeBehindEnabled;
+	
+	@Value("${timplus.monitor.store.writeBehind.shards:0}")
+	protected int writeBehindShards;
+	
+	@Value("${timplus.monitor.store.writeBehind.flushInterval:1000}")
+	protected long writeBehindFlushInterval;
+	
+	@Value("${timplus.monitor.store.writeBehind.batchSize:1000}")
+	protected int writeBehindBatchSize;
+	
+	@Value("${timplus.monitor.timeoutWheel.tickDuration:100}")
+	protected long timeoutWheelTickDuration;
+	
+	@Value("${timplus.monitor.timeoutWheel.wheelSize:512}")
+	protected int timeoutWheelSize;
+	
+	@Value("${timplus.monitor.timeoutWheel.expiryThreads:1}")
+	protected int timeoutWheelExpiryThreads;
+	
+	@Value("${timplus.monitor.jidCache.maxSize:10000}")
+	protected int jidCacheMaxSize;
+	
+	@Value("${timplus.monitor.roomCache.ttl:30000}")
+	protected long roomCacheTtl;
+	
+	@Value("${timplus.monitor.roomCache.maxSize:10000}")
+	protected int roomCacheMaxSize;
+	
+	@Value("${timplus.monitor.expirationErrors.workers:0}")
+	protected int expirationErrorWorkers;
+	
+	@Value("${timplus.monitor.expirationErrors.queueSize:64}")
+	protected int expirationErrorQueueSize;
+	
+	@Value("${timplus.monitor.expirationErrors.batchSize:100}")
+	protected int expirationErrorBatchSize;
+	
+	@Value("${timplus.monitor.overload.checkInterval:1000}")
+	protected long overloadCheckInterval;
+	
+	@Value("${timplus.monitor.overload.samplingBacklog:5000}")
+	protected int overloadSamplingBacklog;
+	
+	@Value("${timplus.monitor.overload.deferBacklog:20000}")
+	protected int overloadDeferBacklog;
+	
+	@Value("${timplus.monitor.overload.samplingLatency:5}")
+	protected double overloadSamplingLatency;
+	
+	@Value("${timplus.monitor.overload.deferLatency:20}")
+	protected double overloadDeferLatency;
+	
+	@Value("${timplus.monitor.overload.sampleRatio:0.25}")
+	protected double overloadSampleRatio;
+	
+	@Value("${timplus.monitor.overload.deferQueueSize:10000}")
+	protected int overloadDeferQueueSize;
+	
+	@Value("${timplus.monitor.store.reaper.interval:10000}")
+	protected long storeReaperInterval;
+	
+	@Value("${timplus.monitor.store.reaper.timeout:${timplus.monitor.condition.generalConditionTimeout:180000}}")
+	protected long storeReaperTimeout;
+	
+	@Value("${timplus.monitor.metrics.groupCountInterval:30000}")
+	protected long metricsGroupCountInterval;
+	
+	@Value("${timplus.server.enableClustering:false}")
+	protected boolean enableClustering;
+	
+	protected ScheduledFuture<?> storeReaperFuture;
+	
+	protected MessageGroupStore monitorGroupStore;
+	
+	protected PartitionedTxAggregator partitionedAggregator;
+	
+	@Autowired
+	protected ObjectProvider<RingBufferTxDispatcher> txDispatcherProvider;
+	
+	@Autowired
+	protected ObjectProvider<TimingWheelTaskScheduler> timeoutSchedulerProvider;
+	
+	@Autowired
+	protected ObjectProvider<OverloadController> overloadControllerProvider;
+	
+	@Autowired
+	protected ObjectProvider<MeterRegistry> meterRegistryProvider;
+	
 	@Bean
 	public IntegrationFlow monitorFlow(@Qualifier("monitorStart") MessageChannel inputChannel, @Qualifier("monitorStart") MessageChannel receive, CorrelationStrategy correlationStradegy, 
 			TxReleaseStrategy releaseStrategy, TxTimeoutCondition timeoutCondition, MessageGroupStore messageGroupStore, 
 			LockRegistry lockRegistry, Transformer transformer)
 	{
+		final int partitions = monitorPartitions();
+		
+		final MessageGroupStore groupStore = monitorGroupStore(messageGroupStore, partitions);
+		monitorGroupStore = groupStore;
+		
+		final TimingWheelTaskScheduler timeoutScheduler = timeoutSchedulerProvider.getIfAvailable();
+		
+		if (partitions > 1)
+		{
+			// Shard the aggregation by correlation key.  Each aggregator shard gets its own store shard
+			// (the store shards are lined up with the aggregator shards) so each group has exactly one 
+			// expiry callback.  A store shared by all shards would expire a reaped group once per shard.
+			// Local lock registries are split per shard; a distributed lock registry is shared.
+			if (!(groupStore instanceof ShardedMessageGroupStore))
+				throw new IllegalStateException("timplus.monitor.aggregator.partitions greater than 1 requires an in-memory message store "
+						+ "or timplus.monitor.store.writeBehind.enabled; set partitions to 1 to aggregate on the shared store.");
+			
+			final ShardedMessageGroupStore shardedStore = (ShardedMessageGroupStore)groupStore;
+			final IntFunction<MessageGroupStore> shardStores = i -> shardedStore.getShard(i);
+			
+			final IntFunction<LockRegistry> shardLocks = (lockRegistry instanceof DefaultLockRegistry) ? 
+					i -> new DefaultLockRegistry() : i -> lockRegistry;
+			
+			final PartitionedTxAggregator aggregator = new PartitionedTxAggregator(partitions, aggregatorPartitionQueueSize, correlationStradegy, 
+					releaseStrategy, timeoutCondition, shardStores, shardLocks);
+			aggregator.setTimeoutScheduler(timeoutScheduler);
+			partitionedAggregator = aggregator;
+			
+			return IntegrationFlows.from(inputChannel)
+			.handle(aggregator)
+			.filter(releaseStrategy)
+			.transform(transformer)
+			.handle((MessageHandler)monitoringInterceptor())
+			.get();
+		}
+		
 		return IntegrationFlows.from(inputChannel)
-		.aggregate(a -> a.correlationStrategy(correlationStradegy)
+		.aggregate(a -> 
+		{
+			a.correlationStrategy(correlationStradegy)
 		       .releaseStrategy(releaseStrategy)
 		       .groupTimeout(g -> timeoutCondition.getTimeout(g))
 		       .sendPartialResultOnExpiry(true)
-		       .messageStore(messageGroupStore))	
+		       .messageStore(groupStore);
+			
+			if (timeoutScheduler != null)
+				a.taskScheduler(timeoutScheduler);
+		})	
 		.filter(releaseStrategy)
 		.transform(transformer)
 		.handle((MessageHandler)monitoringInterceptor())
 		.get();
 	}	
+	
+	protected int monitorPartitions()
+	{
+		return (aggregatorPartitions > 0) ? aggregatorPartitions : Runtime.getRuntime().availableProcessors();
+	}
+	
+	/*
+	 * Without write-behind, an in-memory store is split into one store per 
+	 * aggregator shard.  Either way the shards are wrapped in one store so the 
+	 * reaper and meters see every group.
+	 */
+	protected MessageGroupStore monitorGroupStore(MessageGroupStore messageGroupStore, int partitions)
+	{
+		if (writeBehindEnabled)
+			return monitorWriteBehindStore(messageGroupStore);
+		
+		return (partitions > 1 && messageGroupStore instanceof SimpleMessageStore) ? 
+				new ShardedMessageGroupStore(partitions, i -> new SimpleMessageStore()) : messageGroupStore;
+	}
+	
+	/*
+	 * Optionally keep monitor groups in memory and write them behind to the
+	 * configured (generally JDBC) store in batches.  Groups are recovered from
+	 * the persistent store on startup.  The persistent store holds no owning node,
+	 * so a clustered node would recover and expire the groups of every other node;
+	 * write-behind is refused when clustering is enabled.  Not an autowire candidate
+	 * so it does not compete with the configured store.
+	 */
+	@Bean(initMethod = "start", destroyMethod = "stop", autowireCandidate = false)
+	@ConditionalOnProperty(name="timplus.monitor.store.writeBehind.enabled", havingValue="true")
+	public ShardedWriteBehindMessageGroupStore monitorWriteBehindStore(MessageGroupStore messageGroupStore)
+	{
+		if (enableClustering)
+			throw new IllegalStateException("timplus.monitor.store.writeBehind.enabled cannot be used with timplus.server.enableClustering; "
+					+ "every node would recover and expire the monitor groups of the other nodes.");
+		
+		// line the store shards up with the aggregator shards when partitioned
+		final int partitions = monitorPartitions();
+		final int shards = (partitions > 1) ? partitions : 
+			(writeBehindShards > 0) ? writeBehindShards : Runtime.getRuntime().availableProcessors();
+		
+		return new ShardedWriteBehindMessageGroupStore(messageGroupStore, shards, writeBehindFlushInterval, writeBehindBatchSize);
+	}
+	
+	/*
+	 * The route reaper only sees the configured store, so a monitor store that
+	 * wraps it gets its own reaper.  Groups that never had a group timeout
+	 * scheduled (such as groups recovered on startup) are expired by it.
+	 */
+	@Bean
+	public SmartInitializingSingleton monitorStoreReaper(@Qualifier(IntegrationContextUtils.TASK_SCHEDULER_BEAN_NAME) ObjectProvider<TaskScheduler> taskScheduler)
+	{
+		return () ->
+		{
+			final TaskScheduler scheduler = taskScheduler.getIfAvailable();
+			if (!(monitorGroupStore instanceof ShardedMessageGroupStore) || scheduler == null)
+				return;
+			
+			final MessageGroupStoreReaper reaper = new MessageGroupStoreReaper(monitorGroupStore);
+			reaper.setTimeout(storeReaperTimeout);
+			storeReaperFuture = scheduler.scheduleWithFixedDelay(reaper, storeReaperInterval);
+		};
+	}
+	
+	@PreDestroy
+	public void shutdown()
+	{
+		if (storeReaperFuture != null)
+			storeReaperFuture.cancel(false);
+	}
 
 	
 	@Bean
 	public PacketMonitor monitoringInterceptor()
 	{
-		return new EmbeddedServerPacketMonitor(new DefaultTxParser(), monitorStart());
+		final EmbeddedServerPacketMonitor monitor = new EmbeddedServerPacketMonitor(new DefaultPacketTxParser(new DefaultTxParser()), monitorStart());
+		monitor.setJIDCache(new JIDCache(jidCacheMaxSize));
+		monitor.getRoomOccupantCache().setTtl(roomCacheTtl);
+		monitor.getRoomOccupantCache().setMaxEntries(roomCacheMaxSize);
+		monitor.setExpirationErrorRouter(expirationErrorRouter());
+		
+		final RingBufferTxDispatcher dispatcher = txDispatcherProvider.getIfAvailable();
+		if (dispatcher != null)
+			monitor.setDispatcher(dispatcher);
+		
+		final OverloadController overloadController = overloadControllerProvider.getIfAvailable();
+		if (overloadController != null)
+			monitor.setOverloadController(overloadController);
+		
+		return monitor;
+	}
+	
+	/*
+	 * Optionally move tracking off of the XMPP packet processing threads.  Txs are
+	 * buffered and sent to the monitor flow by dedicated worker threads.
+	 */
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	@ConditionalOnProperty(name="timplus.monitor.async.enabled", havingValue="true")
+	public RingBufferTxDispatcher txDispatcher()
+	{
+		return new RingBufferTxDispatcher(monitorStart(), asyncBufferSize, asyncWorkers, 
+				RingBufferTxDispatcher.OverflowPolicy.valueOf(asyncOverflowPolicy.toUpperCase()));
+	}
+	
+	/*
+	 * Optionally drive monitor group timeouts from a hashed timing wheel instead of
+	 * the integration task scheduler.  Periodic tasks still go to the integration
+	 * scheduler.
+	 */
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	@ConditionalOnProperty(name="timplus.monitor.timeoutWheel.enabled", havingValue="true")
+	public TimingWheelTaskScheduler monitorTimeoutScheduler(@Qualifier(IntegrationContextUtils.TASK_SCHEDULER_BEAN_NAME) ObjectProvider<TaskScheduler> taskScheduler)
+	{
+		return new TimingWheelTaskScheduler(timeoutWheelTickDuration, timeoutWheelSize, timeoutWheelExpiryThreads, taskScheduler.getIfAvailable());
+	}
+	
+	/*
+	 * Optionally sample tracking and defer delivery receipts when the monitor falls
+	 * behind.  The backlog is read from the async dispatcher and partitioned aggregator
+	 * when they are configured.
+	 */
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	@ConditionalOnProperty(name="timplus.monitor.overload.enabled", havingValue="true")
+	public OverloadController monitorOverloadController()
+	{
+		final OverloadController controller = new OverloadController(overloadCheckInterval, overloadSamplingBacklog, overloadDeferBacklog, 
+				overloadSamplingLatency, overloadDeferLatency, overloadSampleRatio, overloadDeferQueueSize);
+		controller.setBacklog(this::trackingBacklog);
+		controller.setSampledOutTtl(storeReaperTimeout);
+		
+		return controller;
+	}
+	
+	protected int trackingBacklog()
+	{
+		int backlog = 0;
+		
+		final RingBufferTxDispatcher dispatcher = txDispatcherProvider.getIfAvailable();
+		if (dispatcher != null)
+			backlog += dispatcher.getBuffered();
+		
+		if (partitionedAggregator != null)
+			backlog += partitionedAggregator.getBacklog();
+		
+		return backlog;
+	}
+	
+	/*
+	 * Records monitor meters to the actuator meter registry.  Binding waits until every
+	 * singleton is created so the aggregator, group store, and optional components
+	 * built by the other beans can be included.
+	 */
+	@Bean
+	public SmartInitializingSingleton monitorMetricsBinder()
+	{
+		return () ->
+		{
+			final MeterRegistry registry = meterRegistryProvider.getIfAvailable();
+			if (registry == null)
+				return;
+			
+			final AbstractPacketMonitor monitor = (AbstractPacketMonitor)monitoringInterceptor();
+			monitor.setMetrics(new MonitorMetrics(registry));
+			
+			final MonitorMeterBinder binder = new MonitorMeterBinder(monitor);
+			binder.setDispatcher(txDispatcherProvider.getIfAvailable());
+			binder.setAggregator(partitionedAggregator);
+			binder.setGroupStore(monitorGroupStore);
+			binder.setTimeoutScheduler(timeoutSchedulerProvider.getIfAvailable());
+			binder.setBacklog(this::trackingBacklog);
+			binder.setGroupCountInterval(metricsGroupCountInterval);
+			binder.bindTo(registry);
+		};
+	}
+	
+	/*
+	 * Routes the error messages of expired Txs in batches, optionally on a bounded
+	 * pool of workers instead of the thread handling the monitor output.
+	 */
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public ExpirationErrorRouter expirationErrorRouter()
+	{
+		return new ExpirationErrorRouter(expirationErrorWorkers, expirationErrorQueueSize, expirationErrorBatchSize);
 	}
 	
 	@Bean
@@ -4,11 +4,15 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
 
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.directtruststandards.timplus.server.monitor.AbstractPacketMonitor;
+import org.directtruststandards.timplus.server.monitor.PacketMonitor;
 import org.jivesoftware.openfire.filetransfer.proxy.credentials.ProxyServerCredentialManager;
 import org.jivesoftware.openfire.trustbundle.TrustBundle;
 import org.jivesoftware.openfire.trustbundle.TrustBundleManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
@@ -17,6 +21,9 @@ public class ServerScheduledTasks
 {
 	private static final Logger Log = LoggerFactory.getLogger(ServerScheduledTasks.class);	
 	
+	@Autowired
+	protected PacketMonitor packetMonitor;
+	
 	@Scheduled(fixedRateString = "${timplus.proxyCredentials.pruner.period:3600000}")
 	public void pruneExpiredCredentialsTask()
 	{
@@ -60,4 +67,17 @@ public class ServerScheduledTasks
 		}
 		
 	}
+	
+	@Scheduled(fixedRateString = "${timplus.monitor.stats.logPeriod:300000}")
+	public void logMonitorStatsTask()
+	{
+		if (Log.isDebugEnabled() && packetMonitor instanceof AbstractPacketMonitor)
+		{
+			final AbstractPacketMonitor monitor = (AbstractPacketMonitor)packetMonitor;
+			Log.debug("Packet monitor stats: " + monitor.getStats() + ", rejectRatio=" + monitor.getStats().getRejectRatio());
+			
+			final RegisteredDomainCache domainCache = RegisteredDomainCache.getInstance();
+			Log.debug("Registered domain cache: size=" + domainCache.size() + ", hits=" + domainCache.getHits() + ", misses=" + domainCache.getMisses());
+		}
+	}
 }
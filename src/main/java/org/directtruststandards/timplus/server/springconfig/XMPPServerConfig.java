@@ -12,8 +12,18 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.directtruststandards.timplus.cluster.routing.DelegatedRemotePacketRouterFactory;
 import org.directtruststandards.timplus.common.crypto.KeyStoreProtectionManager;
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.directtruststandards.timplus.server.http.AdmissionControlFilter;
+import org.directtruststandards.timplus.server.http.AdmissionController;
+import org.directtruststandards.timplus.server.http.AdmissionMeterBinder;
+import org.directtruststandards.timplus.server.http.HttpBindMeterBinder;
+import org.directtruststandards.timplus.server.http.StaticAssetCompressor;
+import org.directtruststandards.timplus.server.http.StaticAssetServlet;
+import org.directtruststandards.timplus.server.http.WebSocketTransportServlet;
+import org.directtruststandards.timplus.server.monitor.AbstractPacketMonitor;
 import org.directtruststandards.timplus.server.monitor.PacketMonitor;
 import org.directtruststandards.timplus.server.handlers.DomainCreationIQHandler;
+import org.directtruststandards.timplus.server.tls.TLSProviders;
 import org.jivesoftware.openfire.OfflineMessageStrategy;
 import org.jivesoftware.openfire.RemotePacketRouter;
 import org.jivesoftware.openfire.XMPPServer;
@@ -22,7 +32,9 @@ import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.domain.DomainManager;
 import org.jivesoftware.openfire.filetransfer.proxy.FileTransferProxy;
 import org.jivesoftware.openfire.handler.IQvCardHandler;
+import org.jivesoftware.openfire.http.HttpBindManager;
 import org.jivesoftware.openfire.interceptor.InterceptorManager;
+import org.jivesoftware.openfire.muc.MUCEventDispatcher;
 import org.jivesoftware.openfire.muc.spi.RemoteMUCCache;
 import org.jivesoftware.openfire.user.User;
 import org.jivesoftware.openfire.user.UserManager;
@@ -32,14 +44,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
 
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.core.io.support.ResourcePatternResolver;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 @Configuration
 public class XMPPServerConfig
 {
@@ -83,6 +99,102 @@ public class XMPPServerConfig
 	@Value("${timplus.domain.allowClientCreation:false}")
 	protected boolean allowClientDomainCreation;
 	
+	@Value("${timplus.httpbind.processingMode:platform}")
+	protected String httpBindProcessingMode;
+	
+	@Value("${timplus.httpbind.http2.enabled:false}")
+	protected boolean httpBindHttp2Enabled;
+	
+	@Value("${timplus.httpbind.http2.maxConcurrentStreams:128}")
+	protected int httpBindHttp2MaxConcurrentStreams;
+	
+	@Value("${timplus.httpbind.threads:}")
+	protected String httpBindThreads;
+	
+	@Value("${timplus.httpbind.connector.acceptors:}")
+	protected String httpBindAcceptors;
+	
+	@Value("${timplus.httpbind.connector.selectors:}")
+	protected String httpBindSelectors;
+	
+	@Value("${timplus.httpbind.connector.acceptQueueSize:}")
+	protected String httpBindAcceptQueueSize;
+	
+	@Value("${timplus.httpbind.connector.idleTimeout:}")
+	protected String httpBindIdleTimeout;
+	
+	@Value("${timplus.httpbind.connector.outputBufferSize:}")
+	protected String httpBindOutputBufferSize;
+	
+	@Value("${timplus.httpbind.connector.drainTimeout:}")
+	protected String httpBindDrainTimeout;
+	
+	@Value("${timplus.httpbind.websocket.compression.enabled:true}")
+	protected boolean websocketCompressionEnabled;
+	
+	@Value("${timplus.httpbind.websocket.compression.level:-1}")
+	protected int websocketCompressionLevel;
+	
+	@Value("${timplus.httpbind.websocket.compression.clientMaxWindowBits:15}")
+	protected int websocketClientMaxWindowBits;
+	
+	@Value("${timplus.httpbind.websocket.compression.contextTakeover:true}")
+	protected boolean websocketContextTakeover;
+	
+	@Value("${timplus.httpbind.websocket.coalesce.delay:0}")
+	protected long websocketCoalesceDelay;
+	
+	@Value("${timplus.admission.enabled:false}")
+	protected boolean admissionEnabled;
+	
+	@Value("${timplus.admission.client.rate:20}")
+	protected int admissionClientRate;
+	
+	@Value("${timplus.admission.client.burst:40}")
+	protected int admissionClientBurst;
+	
+	@Value("${timplus.admission.domain.rate:1000}")
+	protected int admissionDomainRate;
+	
+	@Value("${timplus.admission.domain.burst:2000}")
+	protected int admissionDomainBurst;
+	
+	@Value("${timplus.admission.maxKeys:100000}")
+	protected int admissionMaxKeys;
+	
+	@Value("${timplus.admission.maxConcurrent:0}")
+	protected int admissionMaxConcurrent;
+	
+	@Value("${timplus.tls.provider:jdk}")
+	protected String tlsProvider;
+	
+	@Value("${timplus.tls.sessionCache.size:20480}")
+	protected int tlsSessionCacheSize;
+	
+	@Value("${timplus.tls.sessionCache.timeout:86400}")
+	protected int tlsSessionTimeout;
+	
+	@Value("${timplus.tls.sessionTickets:true}")
+	protected boolean tlsSessionTickets;
+	
+	@Value("${timplus.static.precompress:false}")
+	protected boolean staticPrecompress;
+	
+	@Value("${timplus.static.precompress.minSize:1024}")
+	protected int staticPrecompressMinSize;
+	
+	@Value("${timplus.static.cacheControl:}")
+	protected String staticCacheControl;
+	
+	@Value("${timplus.domain.cache.ttl:300000}")
+	protected long domainCacheTtl;
+	
+	@Value("${timplus.domain.cache.negativeTtl:30000}")
+	protected long domainCacheNegativeTtl;
+	
+	@Value("${timplus.domain.cache.maxEntries:10000}")
+	protected int domainCacheMaxEntries;
+	
 	@Bean()
 	@ConditionalOnMissingBean
 	public XMPPServer xmppServer(ApplicationContext appCtx, PacketMonitor packetMonitor, KeyStoreProtectionManager keyStoreManager) throws Exception
@@ -91,6 +203,11 @@ public class XMPPServerConfig
 		
 		System.setProperty(OPENFIRE_HOME_PROP, openFireHome);
 		
+		// the TLS implementation and session resumption defaults must be in place before Openfire or
+		// Jetty create their first SSL context
+		TLSProviders.install(tlsProvider);
+		TLSProviders.configureSessions(tlsSessionCacheSize, tlsSessionTickets);
+		
 		writeOpenFireConfig();
 		
 		writeSecurityConfig();
@@ -106,9 +223,27 @@ public class XMPPServerConfig
 		// and are read from Spring configuration.
 		configureOptions();
 		
+		if (staticPrecompress)
+			precompressStaticAssets();
+		
+		// registered domain lookups on the packet path are served from memory
+		RegisteredDomainCache.getInstance().setTtl(domainCacheTtl);
+		RegisteredDomainCache.getInstance().setNegativeTtl(domainCacheNegativeTtl);
+		RegisteredDomainCache.getInstance().setMaxEntries(domainCacheMaxEntries);
+		
+		// per client and per domain rate limits of the BOSH, websocket, and REST endpoints
+		if (admissionEnabled)
+			AdmissionController.getInstance().configure(admissionClientRate, admissionClientBurst, admissionDomainRate, admissionDomainBurst, 
+					admissionMaxKeys, admissionMaxConcurrent);
+		AdmissionController.getInstance().setEnabled(admissionEnabled);
+		
 		// setup the packet intercepter for message monitoring
 		InterceptorManager.getInstance().addInterceptor(packetMonitor);
 		
+		// occupant changes of local rooms invalidate the monitor's room snapshots
+		if (packetMonitor instanceof AbstractPacketMonitor)
+			MUCEventDispatcher.addListener(((AbstractPacketMonitor)packetMonitor).getRoomOccupantCache());
+		
 		// setup the offline message listener
 		OfflineMessageStrategy.addListener(packetMonitor);
 		
@@ -162,6 +297,40 @@ public class XMPPServerConfig
 		return server;
 	}
 	
+	/**
+	 * Publishes HTTP-bind thread pool and connector saturation through the actuator metrics.
+	 */
+	@Bean
+	public MeterBinder httpBindMeterBinder(XMPPServer xmppServer)
+	{
+		return new HttpBindMeterBinder();
+	}
+	
+	/**
+	 * Publishes admitted and rejected BOSH, websocket, and REST requests through the actuator metrics.
+	 */
+	@Bean
+	public MeterBinder admissionMeterBinder()
+	{
+		return new AdmissionMeterBinder();
+	}
+	
+	/**
+	 * Applies admission control to the REST API.  The filter passes everything through unless admission control
+	 * is enabled.  The REST API is not served by the HTTP-bind server, so its thread pool is only protected by
+	 * the concurrency limit, and the filter applies the proxy header settings itself.
+	 */
+	@Bean
+	public FilterRegistrationBean<AdmissionControlFilter> apiAdmissionFilter(XMPPServer xmppServer)
+	{
+		final FilterRegistrationBean<AdmissionControlFilter> registration = 
+				new FilterRegistrationBean<>(new AdmissionControlFilter(AdmissionController.Endpoint.API, () -> false, true));
+		registration.addUrlPatterns("/api/*");
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		
+		return registration;
+	}
+	
 	
 
 	
@@ -338,16 +507,74 @@ public class XMPPServerConfig
 		 * Sets the flag to ignore CRL checking
 		 */
 		JiveGlobals.setProperty( CRLRevocationManager.PROPERTY_CRL_IGNORE_CLR_CHECKING,  Boolean.toString(ingoreCLRChecking));
+		
+		/*
+		 * BOSH and websocket requests are handled on platform threads, or on virtual threads when supported by the JVM
+		 */
+		JiveGlobals.setProperty( HttpBindManager.HTTP_BIND_THREAD_MODE,  httpBindProcessingMode);
+		
+		/*
+		 * HTTP/2 (h2 through ALPN on the secure port, h2c on the plain port) for BOSH clients
+		 */
+		JiveGlobals.setProperty( HttpBindManager.HTTP_BIND_HTTP2_ENABLED,  Boolean.toString(httpBindHttp2Enabled));
+		JiveGlobals.setProperty( HttpBindManager.HTTP_BIND_HTTP2_MAX_CONCURRENT_STREAMS,  Integer.toString(httpBindHttp2MaxConcurrentStreams));
+		
+		/*
+		 * HTTP-bind thread pool and connector tuning.  Only set when configured so the existing
+		 * (or core count based) defaults apply otherwise
+		 */
+		setPropertyIfConfigured(HttpBindManager.HTTP_BIND_THREADS, httpBindThreads);
+		setPropertyIfConfigured(HttpBindManager.HTTP_BIND_ACCEPTORS, httpBindAcceptors);
+		setPropertyIfConfigured(HttpBindManager.HTTP_BIND_SELECTORS, httpBindSelectors);
+		setPropertyIfConfigured(HttpBindManager.HTTP_BIND_ACCEPT_QUEUE_SIZE, httpBindAcceptQueueSize);
+		setPropertyIfConfigured(HttpBindManager.HTTP_BIND_IDLE_TIMEOUT, httpBindIdleTimeout);
+		setPropertyIfConfigured(HttpBindManager.HTTP_BIND_OUTPUT_BUFFER_SIZE, httpBindOutputBufferSize);
+		setPropertyIfConfigured(HttpBindManager.HTTP_BIND_DRAIN_TIMEOUT, httpBindDrainTimeout);
+		
+		/*
+		 * Websocket permessage-deflate and write coalescing, read when a websocket connection opens
+		 */
+		JiveGlobals.setProperty( WebSocketTransportServlet.COMPRESSION_ENABLED,  Boolean.toString(websocketCompressionEnabled));
+		JiveGlobals.setProperty( WebSocketTransportServlet.COMPRESSION_LEVEL,  Integer.toString(websocketCompressionLevel));
+		JiveGlobals.setProperty( WebSocketTransportServlet.COMPRESSION_CLIENT_MAX_WINDOW_BITS,  Integer.toString(websocketClientMaxWindowBits));
+		JiveGlobals.setProperty( WebSocketTransportServlet.COMPRESSION_CONTEXT_TAKEOVER,  Boolean.toString(websocketContextTakeover));
+		JiveGlobals.setProperty( WebSocketTransportServlet.COALESCE_DELAY,  Long.toString(websocketCoalesceDelay));
+		
+		/*
+		 * TLS session cache of the HTTP-bind secure port
+		 */
+		JiveGlobals.setProperty( HttpBindManager.HTTP_BIND_TLS_SESSION_CACHE_SIZE,  Integer.toString(tlsSessionCacheSize));
+		JiveGlobals.setProperty( HttpBindManager.HTTP_BIND_TLS_SESSION_TIMEOUT,  Integer.toString(tlsSessionTimeout));
+		
+		/*
+		 * Cache-Control header of the static files of the admin console and web client
+		 */
+		JiveGlobals.setProperty( StaticAssetServlet.CACHE_CONTROL_PROPERTY,  StringUtils.trimToEmpty(staticCacheControl));
 
 	}
 	
+	protected void precompressStaticAssets()
+	{
+		final StaticAssetCompressor compressor = new StaticAssetCompressor(staticPrecompressMinSize);
+		
+		// the admin console and any other plugin web apps, and the web client served by the HTTP-bind server
+		compressor.compress(new File("./plugins"));
+		compressor.compress(new File(JiveGlobals.getHomeDirectory() + File.separator + "resources" + File.separator + "spank"));
+	}
+	
+	protected void setPropertyIfConfigured(String property, String value)
+	{
+		if (!StringUtils.isEmpty(value))
+			JiveGlobals.setProperty(property, value.trim());
+	}
+	
 	protected void setAdminAcount()
 	{		
         try 
         {        	
     		//lets make sure our default domain has been added to the Domain manager
     		if (!DomainManager.getInstance().isRegisteredDomain(domain))
-    			DomainManager.getInstance().createDomain(domain, true);        	
+    			RegisteredDomainCache.getInstance().createDomain(domain);        	
         	
         	if (adminUsername.indexOf("@") == -1)
         		adminUsername = (adminUsername + "@" + domain.toLowerCase());
@@ -0,0 +1,141 @@
+package org.directtruststandards.timplus.server.tls;
+
+import java.lang.reflect.Method;
+import java.security.Provider;
+import java.security.Security;
+
+import javax.net.ssl.SSLEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the TLS implementation used by the c2s, s2s, and HTTP-bind listeners.  Openfire and Jetty create their SSL
+ * contexts without naming a provider, so the selected provider is installed JVM wide as the most preferred one.
+ * <p>
+ * <b>jdk</b> is the JDK's own JSSE implementation.  <b>conscrypt</b> is Google's JSSE provider over BoringSSL (the
+ * OpenSSL fork), which handshakes considerably faster.  It is optional: the org.conscrypt:conscrypt-openjdk-uber jar
+ * must be on the classpath (the conscrypt build profile), otherwise the JDK implementation is kept.
+ * <p>
+ * Session resumption is configured through the JVM wide defaults as well, so it also applies to the contexts
+ * Openfire creates for c2s and s2s.  These must be set before the first SSL context is created.
+ */
+public class TLSProviders
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(TLSProviders.class);
+
+	public static final String PROVIDER_JDK = "jdk";
+
+	public static final String PROVIDER_CONSCRYPT = "conscrypt";
+
+	/**
+	 * Default number of sessions kept by each server session cache; the JDK 11+ default.  JDK 8 defaults to unbounded.
+	 */
+	public static final int SESSION_CACHE_SIZE_DEFAULT = 20480;
+
+	/**
+	 * Default lifetime of a cached session in seconds.
+	 */
+	public static final int SESSION_TIMEOUT_DEFAULT = 86400;
+
+	protected static final String SESSION_CACHE_SIZE_PROPERTY = "javax.net.ssl.sessionCacheSize";
+
+	protected static final String SERVER_SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
+
+	protected static final String CONSCRYPT_CLASS = "org.conscrypt.Conscrypt";
+
+	protected static volatile Method conscryptIsConscrypt;
+
+	protected static volatile Method conscryptSetUseSessionTickets;
+
+	protected static volatile boolean sessionTickets = true;
+
+	private TLSProviders()
+	{
+
+	}
+
+	/**
+	 * Installs a TLS provider as the most preferred provider.
+	 * @param name {@link #PROVIDER_JDK} or {@link #PROVIDER_CONSCRYPT}.
+	 * @return The provider in effect, {@link #PROVIDER_JDK} when the requested provider is not available.
+	 */
+	public static synchronized String install(String name)
+	{
+		if (!PROVIDER_CONSCRYPT.equalsIgnoreCase(name))
+		{
+			if (!PROVIDER_JDK.equalsIgnoreCase(name))
+				LOGGER.warn("Unknown TLS provider {}, using the JDK TLS implementation", name);
+
+			return PROVIDER_JDK;
+		}
+
+		try
+		{
+			final Class<?> conscrypt = Class.forName(CONSCRYPT_CLASS);
+			if (!(Boolean)conscrypt.getMethod("isAvailable").invoke(null))
+			{
+				LOGGER.warn("Conscrypt TLS provider requested but its native library is not available for this platform, using the JDK TLS implementation");
+				return PROVIDER_JDK;
+			}
+
+			final Provider provider = (Provider)conscrypt.getMethod("newProvider").invoke(null);
+			if (Security.getProvider(provider.getName()) == null)
+				Security.insertProviderAt(provider, 1);
+
+			conscryptIsConscrypt = conscrypt.getMethod("isConscrypt", SSLEngine.class);
+			conscryptSetUseSessionTickets = conscrypt.getMethod("setUseSessionTickets", SSLEngine.class, boolean.class);
+
+			LOGGER.info("Using the Conscrypt (BoringSSL) TLS provider {}", provider.getInfo());
+			return PROVIDER_CONSCRYPT;
+		}
+		catch (ClassNotFoundException e)
+		{
+			LOGGER.warn("Conscrypt TLS provider requested but it is not on the classpath, using the JDK TLS implementation");
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			LOGGER.warn("Conscrypt TLS provider could not be installed, using the JDK TLS implementation", e);
+		}
+		return PROVIDER_JDK;
+	}
+
+	/**
+	 * Sets the JVM wide session resumption defaults.  Values already given on the command line are kept.
+	 * @param sessionCacheSize The number of sessions each server and client session cache holds, 0 for no limit.
+	 * @param sessionTickets Whether the JDK server issues stateless session tickets (Java 13 and later).
+	 */
+	public static void configureSessions(int sessionCacheSize, boolean sessionTickets)
+	{
+		if (System.getProperty(SESSION_CACHE_SIZE_PROPERTY) == null)
+			System.setProperty(SESSION_CACHE_SIZE_PROPERTY, Integer.toString(sessionCacheSize));
+
+		if (System.getProperty(SERVER_SESSION_TICKETS_PROPERTY) == null)
+			System.setProperty(SERVER_SESSION_TICKETS_PROPERTY, Boolean.toString(sessionTickets));
+
+		TLSProviders.sessionTickets = sessionTickets;
+	}
+
+	/**
+	 * Enables session tickets on a server engine when they are configured.  The JDK engines follow the JVM wide
+	 * setting, but Conscrypt engines do not issue tickets unless asked to per engine.  Must be called before the
+	 * handshake starts.
+	 * @param engine The engine.
+	 */
+	public static void enableSessionTickets(SSLEngine engine)
+	{
+		final Method isConscrypt = conscryptIsConscrypt;
+		if (isConscrypt == null || !sessionTickets)
+			return;
+
+		try
+		{
+			if ((Boolean)isConscrypt.invoke(null, engine))
+				conscryptSetUseSessionTickets.invoke(null, engine, true);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			LOGGER.debug("Unable to enable session tickets on {}", engine, e);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.openfire.http;
+
+import java.io.IOException;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The changes {@link HttpBindManager} makes to the connectors of a running server: replacing a connector, taking a
+ * replaced connector out of the server while its connections drain, and reloading the TLS configuration in place.
+ */
+final class HttpBindConnectors {
+
+    private static final Logger Log = LoggerFactory.getLogger(HttpBindConnectors.class);
+
+    private HttpBindConnectors() {
+    }
+
+    /**
+     * Replaces a connector of a running server. The old connector stops accepting and releases its port, but keeps
+     * its established connections. A replacement on another port is started first, so when it cannot be started (for
+     * example, because its port is in use) the old connector is left as it was. A replacement on the same port needs
+     * the old connector's port released first; when it then fails, the old connector is restarted, which closes its
+     * connections.
+     *
+     * @param server the running server.
+     * @param name the name of the connector, for logging.
+     * @param old the connector being replaced, or null when there is none.
+     * @param replacement the new connector, or null to only remove the old one.
+     * @return true if the old connector is no longer in use and should be retired with {@link #detach(Server, ServerConnector)}.
+     */
+    static boolean replace(Server server, String name, ServerConnector old, ServerConnector replacement) {
+        final boolean samePort = old != null && replacement != null && old.getPort() == replacement.getPort();
+
+        if (old != null && (replacement == null || samePort)) {
+            close(old);
+        }
+
+        if (replacement != null) {
+            try {
+                bind(replacement);
+                server.addConnector(replacement);
+                server.manage(replacement);
+                replacement.start();
+                Log.info("HTTP binding: {} connector now listening on port {}", name, replacement.getLocalPort());
+            }
+            catch (Exception e) {
+                Log.error("Error starting the {} HTTP binding connector, keeping the current one", name, e);
+                try {
+                    replacement.stop();
+                }
+                catch (Exception ex) {
+                    Log.debug("Unable to stop the {} HTTP binding connector that failed to start", name, ex);
+                }
+                server.removeConnector(replacement);
+
+                if (!samePort) {
+                    // the old connector, if any, was never closed
+                    return false;
+                }
+                try {
+                    // closing the connector ended its acceptor threads, which only a restart creates again
+                    old.stop();
+                    old.start();
+                    return false;
+                }
+                catch (Exception ex) {
+                    Log.error("Error reopening the {} HTTP binding connector", name, ex);
+                    return true;
+                }
+            }
+
+            if (old != null && !samePort) {
+                close(old);
+            }
+        }
+
+        return old != null;
+    }
+
+    /**
+     * Stops a connector from accepting and releases its port. Its established connections stay open.
+     */
+    private static void close(ServerConnector connector) {
+        connector.setAccepting(false);
+        connector.close();
+    }
+
+    /**
+     * Binds a connector to its port. The port of a connector that was just closed is only released once its acceptor
+     * threads have returned, so binding is retried for a moment.
+     */
+    static void bind(ServerConnector connector) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                connector.open();
+                return;
+            }
+            catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    /**
+     * Takes a replaced connector out of the server without stopping it, so its established connections are served
+     * until it is stopped.
+     */
+    static void detach(Server server, ServerConnector connector) {
+        // removing a managed connector from the server would stop it
+        server.unmanage(connector);
+        server.removeConnector(connector);
+    }
+
+    /**
+     * Applies a new TLS configuration to a running connection factory. Established connections keep their session,
+     * and new handshakes use the new configuration.
+     *
+     * @param current the TLS configuration of the running connector.
+     * @param configured the TLS configuration created from the current certificates and settings.
+     */
+    static void reloadSslContext(SslContextFactory current, SslContextFactory configured) throws Exception {
+        current.reload(factory -> copySslConfiguration(configured, factory));
+    }
+
+    /**
+     * Copies the parts of a TLS configuration that follow the certificate stores and the BOSH listener settings.
+     * Everything else, such as the cipher order needed by HTTP/2, is left as it is.
+     */
+    private static void copySslConfiguration(SslContextFactory from, SslContextFactory to) {
+        if (from.getSslContext() != null) {
+            to.setSslContext(from.getSslContext());
+        }
+        else {
+            to.setKeyStore(from.getKeyStore());
+            to.setTrustStore(from.getTrustStore());
+        }
+        to.setNeedClientAuth(from.getNeedClientAuth());
+        to.setWantClientAuth(from.getWantClientAuth());
+        to.setIncludeProtocols(from.getIncludeProtocols());
+        to.setExcludeProtocols(from.getExcludeProtocols());
+        to.setIncludeCipherSuites(from.getIncludeCipherSuites());
+        to.setExcludeCipherSuites(from.getExcludeCipherSuites());
+    }
+}
@@ -18,15 +18,34 @@ package org.jivesoftware.openfire.http;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLEngine;
+import javax.servlet.DispatcherType;
 
 import org.apache.jasper.servlet.JasperInitializer;
 import org.apache.tomcat.InstanceManager;
 import org.apache.tomcat.SimpleInstanceManager;
+import org.directtruststandards.timplus.server.http.AdmissionControlFilter;
+import org.directtruststandards.timplus.server.http.AdmissionController;
+import org.directtruststandards.timplus.server.http.StaticAssetServlet;
+import org.directtruststandards.timplus.server.http.WebSocketTransportServlet;
+import org.directtruststandards.timplus.server.tls.TLSProviders;
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.AbstractHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
 import org.eclipse.jetty.plus.annotation.ContainerInitializer;
+import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.ForwardedRequestCustomizer;
 import org.eclipse.jetty.server.Handler;
@@ -39,11 +58,13 @@ import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.WebAppLoaderFix;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.jivesoftware.openfire.Connection;
 import org.jivesoftware.openfire.JMXManager;
@@ -54,7 +75,6 @@ import org.jivesoftware.openfire.spi.ConnectionConfiguration;
 import org.jivesoftware.openfire.spi.ConnectionManagerImpl;
 import org.jivesoftware.openfire.spi.ConnectionType;
 import org.jivesoftware.openfire.spi.EncryptionArtifactFactory;
-import org.jivesoftware.openfire.websocket.OpenfireWebSocketServlet;
 import org.jivesoftware.util.CertificateEventListener;
 import org.jivesoftware.util.CertificateManager;
 import org.jivesoftware.util.JiveConstants;
@@ -90,15 +110,21 @@ public final class HttpBindManager implements CertificateEventListener, Property
 
     public static final int HTTP_BIND_THREADS_DEFAULT = 200;
 
-    private static final String HTTP_BIND_FORWARDED = "httpbind.forwarded.enabled";
+    public static final String HTTP_BIND_THREAD_MODE = "httpbind.client.processing.mode";
+
+    public static final String HTTP_BIND_THREAD_MODE_PLATFORM = "platform";
+
+    public static final String HTTP_BIND_THREAD_MODE_VIRTUAL = "virtual";
 
-    private static final String HTTP_BIND_FORWARDED_FOR = "httpbind.forwarded.for.header";
+    public static final String HTTP_BIND_FORWARDED = "httpbind.forwarded.enabled";
+
+    public static final String HTTP_BIND_FORWARDED_FOR = "httpbind.forwarded.for.header";
 
     private static final String HTTP_BIND_FORWARDED_SERVER = "httpbind.forwarded.server.header";
 
-    private static final String HTTP_BIND_FORWARDED_HOST = "httpbind.forwarded.host.header";
+    public static final String HTTP_BIND_FORWARDED_HOST = "httpbind.forwarded.host.header";
 
-    private static final String HTTP_BIND_FORWARDED_HOST_NAME = "httpbind.forwarded.host.name";
+    public static final String HTTP_BIND_FORWARDED_HOST_NAME = "httpbind.forwarded.host.name";
 
     // http binding CORS default properties
 
@@ -120,12 +146,72 @@ public final class HttpBindManager implements CertificateEventListener, Property
 
     public static final int HTTP_BIND_REQUEST_HEADER_SIZE_DEFAULT = 32768;
 
-    public static Map<String, Boolean> HTTP_BIND_ALLOWED_ORIGINS = new HashMap<>();
+    public static final String HTTP_BIND_HTTP2_ENABLED = "httpbind.http2.enabled";
+
+    public static final boolean HTTP_BIND_HTTP2_ENABLED_DEFAULT = false;
+
+    public static final String HTTP_BIND_HTTP2_MAX_CONCURRENT_STREAMS = "httpbind.http2.maxConcurrentStreams";
+
+    public static final int HTTP_BIND_HTTP2_MAX_CONCURRENT_STREAMS_DEFAULT = 128;
+
+    public static final String HTTP_BIND_HTTP2_SESSION_RECV_WINDOW = "httpbind.http2.initialSessionRecvWindow";
+
+    public static final int HTTP_BIND_HTTP2_SESSION_RECV_WINDOW_DEFAULT = 1024 * 1024;
+
+    public static final String HTTP_BIND_HTTP2_STREAM_RECV_WINDOW = "httpbind.http2.initialStreamRecvWindow";
+
+    public static final int HTTP_BIND_HTTP2_STREAM_RECV_WINDOW_DEFAULT = 512 * 1024;
+
+    public static final String HTTP_BIND_HTTP2_STREAM_IDLE_TIMEOUT = "httpbind.http2.streamIdleTimeout";
+
+    public static final String HTTP_BIND_CONNECTOR_PLAIN = "plain";
+
+    public static final String HTTP_BIND_CONNECTOR_SECURE = "secure";
+
+    public static final String HTTP_BIND_ACCEPTORS = "httpbind.connector.acceptors";
+
+    public static final String HTTP_BIND_SELECTORS = "httpbind.connector.selectors";
+
+    public static final String HTTP_BIND_ACCEPT_QUEUE_SIZE = "httpbind.connector.acceptQueueSize";
+
+    public static final int HTTP_BIND_ACCEPT_QUEUE_SIZE_DEFAULT = 0;
+
+    public static final String HTTP_BIND_IDLE_TIMEOUT = "httpbind.connector.idleTimeout";
+
+    public static final long HTTP_BIND_IDLE_TIMEOUT_DEFAULT = 30000;
+
+    public static final String HTTP_BIND_OUTPUT_BUFFER_SIZE = "httpbind.connector.outputBufferSize";
+
+    public static final int HTTP_BIND_OUTPUT_BUFFER_SIZE_DEFAULT = 32768;
+
+    public static final String HTTP_BIND_TLS_SESSION_CACHE_SIZE = "httpbind.tls.sessionCacheSize";
+
+    public static final String HTTP_BIND_TLS_SESSION_TIMEOUT = "httpbind.tls.sessionTimeout";
+
+    public static final String HTTP_BIND_DRAIN_TIMEOUT = "httpbind.connector.drainTimeout";
+
+    public static final long HTTP_BIND_DRAIN_TIMEOUT_DEFAULT = 300000;
 
     private static HttpBindManager instance = new HttpBindManager();
 
     private Server httpBindServer;
 
+    /**
+     * The CORS and proxy header settings. Replaced as a whole when one of them changes.
+     */
+    private volatile HttpBindSettings settings;
+
+    /**
+     * Applies the proxy headers of the current {@link #settings} to each request. Installed on every connector, so
+     * that enabling or changing the proxy headers does not require new connectors.
+     */
+    private final HttpConfiguration.Customizer forwardedCustomizer = HttpBindSettings.forwardedCustomizer(() -> settings);
+
+    /**
+     * Connectors that have been replaced, and are kept running until their connections have closed.
+     */
+    private final Set<ServerConnector> retiringConnectors = ConcurrentHashMap.newKeySet();
+
     private final HttpSessionManager httpSessionManager;
 
     /**
@@ -171,6 +257,7 @@ public final class HttpBindManager implements CertificateEventListener, Property
         JiveGlobals.migrateProperty(HTTP_BIND_PORT);
         JiveGlobals.migrateProperty(HTTP_BIND_SECURE_PORT);
         JiveGlobals.migrateProperty(HTTP_BIND_THREADS);
+        JiveGlobals.migrateProperty(HTTP_BIND_THREAD_MODE);
         JiveGlobals.migrateProperty(HTTP_BIND_FORWARDED);
         JiveGlobals.migrateProperty(HTTP_BIND_FORWARDED_FOR);
         JiveGlobals.migrateProperty(HTTP_BIND_FORWARDED_SERVER);
@@ -179,12 +266,22 @@ public final class HttpBindManager implements CertificateEventListener, Property
         JiveGlobals.migrateProperty(HTTP_BIND_CORS_ENABLED);
         JiveGlobals.migrateProperty(HTTP_BIND_CORS_ALLOW_ORIGIN);
         JiveGlobals.migrateProperty(HTTP_BIND_REQUEST_HEADER_SIZE);
+        JiveGlobals.migrateProperty(HTTP_BIND_HTTP2_ENABLED);
+        JiveGlobals.migrateProperty(HTTP_BIND_HTTP2_MAX_CONCURRENT_STREAMS);
+        JiveGlobals.migrateProperty(HTTP_BIND_ACCEPTORS);
+        JiveGlobals.migrateProperty(HTTP_BIND_SELECTORS);
+        JiveGlobals.migrateProperty(HTTP_BIND_ACCEPT_QUEUE_SIZE);
+        JiveGlobals.migrateProperty(HTTP_BIND_IDLE_TIMEOUT);
+        JiveGlobals.migrateProperty(HTTP_BIND_OUTPUT_BUFFER_SIZE);
+        JiveGlobals.migrateProperty(HTTP_BIND_DRAIN_TIMEOUT);
+        JiveGlobals.migrateProperty(HTTP_BIND_TLS_SESSION_CACHE_SIZE);
+        JiveGlobals.migrateProperty(HTTP_BIND_TLS_SESSION_TIMEOUT);
 
         PropertyEventDispatcher.addListener( this );
         this.httpSessionManager = new HttpSessionManager();
 
-        // setup the cache for the allowed origins
-        this.setupAllowedOriginsMap();
+        // read the CORS and proxy header settings
+        this.settings = HttpBindSettings.load(this);
 
         // Setup the default handlers. Order is important here. First, evaluate if the 'standard' handlers can be used to fulfill requests.
         this.handlerList.addHandler( createBoshHandler() );
@@ -209,13 +306,7 @@ public final class HttpBindManager implements CertificateEventListener, Property
             return;
         }
 
-        // this is the number of threads allocated to each connector/port
-        final int processingThreads = JiveGlobals.getIntProperty(HTTP_BIND_THREADS, HTTP_BIND_THREADS_DEFAULT);
-
-        final QueuedThreadPool tp = new QueuedThreadPool(processingThreads);
-        tp.setName("Jetty-QTP-BOSH");
-
-        httpBindServer = new Server(tp);
+        httpBindServer = new Server(createThreadPool());
         if (JMXManager.isEnabled()) {
             JMXManager jmx = JMXManager.getInstance();
             httpBindServer.addBean(jmx.getContainer());
@@ -265,6 +356,10 @@ public final class HttpBindManager implements CertificateEventListener, Property
             tempFileToucherTask = null;
         }
 
+        for (final ServerConnector connector : retiringConnectors) {
+            stopRetiredConnector(connector);
+        }
+
         if (httpBindServer != null) {
             try {
                 handlerList.stop();
@@ -279,6 +374,42 @@ public final class HttpBindManager implements CertificateEventListener, Property
         }
     }
 
+    /**
+     * Creates the pool that runs the selectors and request handling of all connectors. Virtual threads are used when
+     * {@link #HTTP_BIND_THREAD_MODE} is 'virtual' and the JVM supports them, otherwise a platform thread pool sized by
+     * {@link #HTTP_BIND_THREADS}.
+     *
+     * @return the thread pool (never null).
+     */
+    private ThreadPool createThreadPool() {
+        final String mode = JiveGlobals.getProperty(HTTP_BIND_THREAD_MODE, HTTP_BIND_THREAD_MODE_PLATFORM);
+        if (HTTP_BIND_THREAD_MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            if (VirtualThreadPool.isSupported()) {
+                Log.info("HTTP bind service is handling requests on virtual threads");
+                return new VirtualThreadPool("Jetty-VT-BOSH");
+            }
+            Log.warn("Virtual threads were requested for HTTP binding but are not available on Java {}. Using a platform thread pool.",
+                System.getProperty("java.version"));
+        }
+
+        // this is the number of threads allocated to each connector/port
+        final int processingThreads = JiveGlobals.getIntProperty(HTTP_BIND_THREADS, HTTP_BIND_THREADS_DEFAULT);
+
+        final QueuedThreadPool tp = new QueuedThreadPool(processingThreads);
+        tp.setName("Jetty-QTP-BOSH");
+        return tp;
+    }
+
+    /**
+     * Returns the thread pool of the running HTTP binding server.
+     *
+     * @return the thread pool, or null when the server is not running.
+     */
+    public ThreadPool getThreadPool() {
+        final Server server = httpBindServer;
+        return server == null ? null : server.getThreadPool();
+    }
+
     public HttpSessionManager getSessionManager() {
         return httpSessionManager;
     }
@@ -287,16 +418,25 @@ public final class HttpBindManager implements CertificateEventListener, Property
         return JiveGlobals.getBooleanProperty(HTTP_BIND_ENABLED, HTTP_BIND_ENABLED_DEFAULT);
     }
 
-    private Connector createConnector( final Server httpBindServer ) {
+    private ServerConnector createConnector( final Server httpBindServer ) {
         final int port = getHttpBindUnsecurePort();
         if (port > 0) {
             HttpConfiguration httpConfig = new HttpConfiguration();
             configureProxiedConnector(httpConfig);
-            ServerConnector connector = new ServerConnector(httpBindServer, new HttpConnectionFactory(httpConfig));
+            final HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfig);
+            final ServerConnector connector;
+            if (isHttp2Enabled()) {
+                // h2c: prior knowledge or an HTTP/1.1 upgrade on the plain port
+                connector = new ServerConnector(httpBindServer, getAcceptors(), getSelectors(), http1, configureHttp2(new HTTP2CServerConnectionFactory(httpConfig)));
+            }
+            else {
+                connector = new ServerConnector(httpBindServer, getAcceptors(), getSelectors(), http1);
+            }
 
             // Listen on a specific network interface if it has been set.
             connector.setHost(getBindInterface());
             connector.setPort(port);
+            configureConnector(connector, HTTP_BIND_CONNECTOR_PLAIN);
             return connector;
         }
         else
@@ -305,19 +445,15 @@ public final class HttpBindManager implements CertificateEventListener, Property
         }
     }
 
-    private Connector createSSLConnector( final Server httpBindServer ) {
+    private ServerConnector createSSLConnector( final Server httpBindServer ) {
         final int securePort = getHttpBindSecurePort();
         try {
-            final IdentityStore identityStore = XMPPServer.getInstance().getCertificateStoreManager().getIdentityStore( ConnectionType.BOSH_C2S );
+            final SslContextFactory sslContextFactory = (securePort > 0) ? createSslContextFactory() : null;
 
-            if (securePort > 0 && identityStore.getStore().aliases().hasMoreElements() ) {
-                if ( !identityStore.containsDomainCertificate( ) ) {
-                    Log.warn("HTTP binding: Using certificates but they are not valid for the hosted domain");
-                }
-
-                final ConnectionManagerImpl connectionManager = ((ConnectionManagerImpl) XMPPServer.getInstance().getConnectionManager());
-                final ConnectionConfiguration configuration = connectionManager.getListener( ConnectionType.BOSH_C2S, true ).generateConnectionConfiguration();
-                final SslContextFactory sslContextFactory = new EncryptionArtifactFactory(configuration).getSslContextFactory();
+            if (sslContextFactory != null) {
+                // returning clients resume their TLS session instead of repeating the full handshake
+                sslContextFactory.setSslSessionCacheSize(JiveGlobals.getIntProperty(HTTP_BIND_TLS_SESSION_CACHE_SIZE, TLSProviders.SESSION_CACHE_SIZE_DEFAULT));
+                sslContextFactory.setSslSessionTimeout(JiveGlobals.getIntProperty(HTTP_BIND_TLS_SESSION_TIMEOUT, TLSProviders.SESSION_TIMEOUT_DEFAULT));
 
                 final HttpConfiguration httpsConfig = new HttpConfiguration();
                 httpsConfig.setSecureScheme("https");
@@ -325,9 +461,10 @@ public final class HttpBindManager implements CertificateEventListener, Property
                 configureProxiedConnector(httpsConfig);
                 httpsConfig.addCustomizer(new SecureRequestCustomizer());
 
-                final ServerConnector sslConnector = new ServerConnector(httpBindServer, new SslConnectionFactory(sslContextFactory, "http/1.1"), new HttpConnectionFactory(httpsConfig));
+                final ServerConnector sslConnector = new ServerConnector(httpBindServer, getAcceptors(), getSelectors(), createSecureConnectionFactories(sslContextFactory, httpsConfig));
                 sslConnector.setHost(getBindInterface());
                 sslConnector.setPort(securePort);
+                configureConnector(sslConnector, HTTP_BIND_CONNECTOR_SECURE);
                 return sslConnector;
             }
         }
@@ -338,35 +475,138 @@ public final class HttpBindManager implements CertificateEventListener, Property
         return null;
     }
 
-    private void configureProxiedConnector(HttpConfiguration httpConfig) {
-        // Check to see if we are deployed behind a proxy
-        // Refer to http://eclipse.org/jetty/documentation/current/configuring-connectors.html
-        if (isXFFEnabled()) {
-            ForwardedRequestCustomizer customizer = new ForwardedRequestCustomizer();
-            // default: "X-Forwarded-For"
-            String forwardedForHeader = getXFFHeader();
-            if (forwardedForHeader != null) {
-                customizer.setForwardedForHeader(forwardedForHeader);
-            }
-            // default: "X-Forwarded-Server"
-            String forwardedServerHeader = getXFFServerHeader();
-            if (forwardedServerHeader != null) {
-                customizer.setForwardedServerHeader(forwardedServerHeader);
+    /**
+     * Creates the TLS configuration of the secure connector from the current certificates and BOSH listener settings.
+     *
+     * @return the TLS configuration, or null when there is no certificate.
+     * @throws Exception when the certificate stores cannot be read.
+     */
+    private SslContextFactory createSslContextFactory() throws Exception {
+        final IdentityStore identityStore = XMPPServer.getInstance().getCertificateStoreManager().getIdentityStore( ConnectionType.BOSH_C2S );
+        if ( !identityStore.getStore().aliases().hasMoreElements() ) {
+            return null;
+        }
+        if ( !identityStore.containsDomainCertificate( ) ) {
+            Log.warn("HTTP binding: Using certificates but they are not valid for the hosted domain");
+        }
+
+        final ConnectionManagerImpl connectionManager = ((ConnectionManagerImpl) XMPPServer.getInstance().getConnectionManager());
+        final ConnectionConfiguration configuration = connectionManager.getListener( ConnectionType.BOSH_C2S, true ).generateConnectionConfiguration();
+        return new EncryptionArtifactFactory(configuration).getSslContextFactory();
+    }
+
+    /**
+     * Creates the connection factories of the secure connector: TLS and HTTP/1.1, with HTTP/2 negotiated through ALPN
+     * when enabled. When no ALPN implementation is available for this JVM only HTTP/1.1 is offered.
+     */
+    private ConnectionFactory[] createSecureConnectionFactories(SslContextFactory sslContextFactory, HttpConfiguration httpsConfig) {
+        final HttpConnectionFactory http1 = new HttpConnectionFactory(httpsConfig);
+        if (isHttp2Enabled()) {
+            try {
+                final ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory();
+                alpn.setDefaultProtocol(http1.getProtocol());
+
+                // HTTP/2 forbids many TLS 1.2 ciphers, so prefer the ones it allows
+                sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+
+                return new ConnectionFactory[] {
+                    createSslConnectionFactory(sslContextFactory, alpn.getProtocol()),
+                    alpn,
+                    configureHttp2(new HTTP2ServerConnectionFactory(httpsConfig)),
+                    http1 };
             }
-            // default: "X-Forwarded-Host"
-            String forwardedHostHeader = getXFFHostHeader();
-            if (forwardedHostHeader != null) {
-                customizer.setForwardedHostHeader(forwardedHostHeader);
+            catch (IllegalStateException e) {
+                Log.warn("HTTP/2 was enabled for HTTP binding, but ALPN is not available on this JVM. The secure port only offers HTTP/1.1.", e);
             }
-            // default: none
-            String hostName = getXFFHostName();
-            if (hostName != null) {
-                customizer.setHostHeader(hostName);
+        }
+        return new ConnectionFactory[] { createSslConnectionFactory(sslContextFactory, http1.getProtocol()), http1 };
+    }
+
+    private static SslConnectionFactory createSslConnectionFactory(SslContextFactory sslContextFactory, String nextProtocol) {
+        return new SslConnectionFactory(sslContextFactory, nextProtocol) {
+            @Override
+            protected SslConnection newSslConnection(Connector connector, EndPoint endPoint, SSLEngine engine) {
+                // Conscrypt engines only issue session tickets when enabled per engine
+                TLSProviders.enableSessionTickets(engine);
+                return super.newSslConnection(connector, endPoint, engine);
             }
+        };
+    }
+
+    private <T extends AbstractHTTP2ServerConnectionFactory> T configureHttp2(T factory) {
+        // BOSH clients keep a request pair in flight per session, all of which can share one connection
+        factory.setMaxConcurrentStreams(JiveGlobals.getIntProperty(HTTP_BIND_HTTP2_MAX_CONCURRENT_STREAMS, HTTP_BIND_HTTP2_MAX_CONCURRENT_STREAMS_DEFAULT));
+        factory.setInitialSessionRecvWindow(JiveGlobals.getIntProperty(HTTP_BIND_HTTP2_SESSION_RECV_WINDOW, HTTP_BIND_HTTP2_SESSION_RECV_WINDOW_DEFAULT));
+        factory.setInitialStreamRecvWindow(JiveGlobals.getIntProperty(HTTP_BIND_HTTP2_STREAM_RECV_WINDOW, HTTP_BIND_HTTP2_STREAM_RECV_WINDOW_DEFAULT));
+
+        final long streamIdleTimeout = JiveGlobals.getLongProperty(HTTP_BIND_HTTP2_STREAM_IDLE_TIMEOUT, -1);
+        if (streamIdleTimeout > 0) {
+            factory.setStreamIdleTimeout(streamIdleTimeout);
+        }
+        return factory;
+    }
+
+    /**
+     * Returns true if HTTP/2 is offered in addition to HTTP/1.1: h2 through ALPN on the secure port and h2c on the
+     * plain port.
+     *
+     * @return true if HTTP/2 is enabled.
+     */
+    public boolean isHttp2Enabled() {
+        return JiveGlobals.getBooleanProperty(HTTP_BIND_HTTP2_ENABLED, HTTP_BIND_HTTP2_ENABLED_DEFAULT);
+    }
+
+    private void configureConnector(ServerConnector connector, String name) {
+        connector.setName(name);
+        connector.setAcceptQueueSize(JiveGlobals.getIntProperty(HTTP_BIND_ACCEPT_QUEUE_SIZE, HTTP_BIND_ACCEPT_QUEUE_SIZE_DEFAULT));
+        connector.setIdleTimeout(JiveGlobals.getLongProperty(HTTP_BIND_IDLE_TIMEOUT, HTTP_BIND_IDLE_TIMEOUT_DEFAULT));
+    }
+
+    /**
+     * Returns the number of threads accepting connections on each connector. Defaults to one per eight cores, between
+     * one and four.
+     *
+     * @return the number of acceptor threads per connector.
+     */
+    public int getAcceptors() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        return JiveGlobals.getIntProperty(HTTP_BIND_ACCEPTORS, Math.max(1, Math.min(4, cores / 8)));
+    }
+
+    /**
+     * Returns the number of selectors of each connector. Defaults to one per two cores, between one and eight.
+     *
+     * @return the number of selectors per connector.
+     */
+    public int getSelectors() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        return JiveGlobals.getIntProperty(HTTP_BIND_SELECTORS, Math.max(1, Math.min(8, cores / 2)));
+    }
 
-            httpConfig.addCustomizer(customizer);
+    /**
+     * Returns a connector of the running HTTP binding server.
+     *
+     * @param name {@link #HTTP_BIND_CONNECTOR_PLAIN} or {@link #HTTP_BIND_CONNECTOR_SECURE}.
+     * @return the connector, or null when it is not running.
+     */
+    public ServerConnector getConnector(String name) {
+        final Server server = httpBindServer;
+        if (server == null) {
+            return null;
+        }
+        for (final Connector connector : server.getConnectors()) {
+            if (connector instanceof ServerConnector && name.equals(connector.getName())) {
+                return (ServerConnector) connector;
+            }
         }
+        return null;
+    }
+
+    private void configureProxiedConnector(HttpConfiguration httpConfig) {
+        // Check to see if we are deployed behind a proxy; this is decided per request, see HttpBindSettings
+        httpConfig.addCustomizer(forwardedCustomizer);
         httpConfig.setRequestHeaderSize(JiveGlobals.getIntProperty(HTTP_BIND_REQUEST_HEADER_SIZE, HTTP_BIND_REQUEST_HEADER_SIZE_DEFAULT));
+        httpConfig.setOutputBufferSize(JiveGlobals.getIntProperty(HTTP_BIND_OUTPUT_BUFFER_SIZE, HTTP_BIND_OUTPUT_BUFFER_SIZE_DEFAULT));
    }
 
     private String getBindInterface() {
@@ -457,20 +697,8 @@ public final class HttpBindManager implements CertificateEventListener, Property
 
     // http binding CORS support start
 
-    private void setupAllowedOriginsMap() {
-        final String originString = getCORSAllowOrigin();
-        if (!originString.equals(HTTP_BIND_CORS_ALLOW_ORIGIN_DEFAULT)) {
-            String[] origins = originString.split(",");
-            // reset the cache
-            HTTP_BIND_ALLOWED_ORIGINS.clear();
-            for (String str : origins) {
-                HTTP_BIND_ALLOWED_ORIGINS.put(str, true);
-            }
-        }
-    }
-
     public boolean isCORSEnabled() {
-        return JiveGlobals.getBooleanProperty(HTTP_BIND_CORS_ENABLED, HTTP_BIND_CORS_ENABLED_DEFAULT);
+        return settings.isCORSEnabled();
     }
 
     public void setCORSEnabled(Boolean value) {
@@ -489,15 +717,14 @@ public final class HttpBindManager implements CertificateEventListener, Property
             origins = origins.replaceAll("\\s+", "");
         }
         JiveGlobals.setProperty(HTTP_BIND_CORS_ALLOW_ORIGIN, origins);
-        setupAllowedOriginsMap();
     }
 
     public boolean isAllOriginsAllowed() {
-        return HTTP_BIND_CORS_ALLOW_ORIGIN_DEFAULT.equals( getCORSAllowOrigin() );
+        return settings.isAllOriginsAllowed();
     }
 
     public boolean isThisOriginAllowed(String origin) {
-        return isAllOriginsAllowed() || HTTP_BIND_ALLOWED_ORIGINS.get(origin) != null;
+        return settings.isOriginAllowed(origin);
     }
 
     // http binding CORS support end
@@ -613,6 +840,7 @@ public final class HttpBindManager implements CertificateEventListener, Property
         context.setAllowNullPathInfo( true );
 
         // Add the functionality-providers.
+        context.addFilter( createAdmissionFilter( AdmissionController.Endpoint.HTTP_BIND ), "/*", EnumSet.of( DispatcherType.REQUEST ) );
         context.addServlet( new ServletHolder( new HttpBindServlet() ), "/*" );
 
         // Add compression filter when needed.
@@ -639,11 +867,30 @@ public final class HttpBindManager implements CertificateEventListener, Property
         final ServletContextHandler context = new ServletContextHandler( null, "/ws", ServletContextHandler.SESSIONS );
         context.setAllowNullPathInfo(true);
         // Add the functionality-providers.
-        context.addServlet( new ServletHolder( new OpenfireWebSocketServlet() ), "/*" );
+        context.addFilter( createAdmissionFilter( AdmissionController.Endpoint.WEBSOCKET ), "/*", EnumSet.of( DispatcherType.REQUEST ) );
+        context.addServlet( new ServletHolder( new WebSocketTransportServlet() ), "/*" );
 
         return context;
     }
 
+    /**
+     * Creates the filter that rejects the requests of an endpoint when the client, its target domain or the server is
+     * over its limits. The filter does nothing unless admission control is enabled.
+     *
+     * @param endpoint The endpoint that is filtered.
+     * @return A filter holder (never null).
+     */
+    protected FilterHolder createAdmissionFilter( AdmissionController.Endpoint endpoint )
+    {
+        // the connectors have already applied the proxy headers to the request
+        return new FilterHolder( new AdmissionControlFilter( endpoint, this::isLowOnThreads, false ) );
+    }
+
+    private boolean isLowOnThreads() {
+        final ThreadPool pool = getThreadPool();
+        return pool != null && pool.isLowOnThreads();
+    }
+
     // NOTE: enabled by default
     private boolean isHttpCompressionEnabled() {
         final ConnectionManagerImpl connectionManager = ((ConnectionManagerImpl) XMPPServer.getInstance().getConnectionManager());
@@ -698,6 +945,8 @@ public final class HttpBindManager implements CertificateEventListener, Property
             {
                 final WebAppContext context = new WebAppContext( null, spankDirectory.getPath(), "/" );
                 context.setWelcomeFiles( new String[] { "index.html" } );
+                // serves files from memory mapped buffers, with their precompressed variants and strong ETags
+                context.addServlet( new ServletHolder( "static", StaticAssetServlet.class ), "/" );
 
                 return context;
             }
@@ -827,11 +1076,121 @@ public final class HttpBindManager implements CertificateEventListener, Property
         }
     }
 
+    /**
+     * Stops and recreates the server, which drops all connections. Only needed when the thread pool changes: other
+     * changes are applied to the running server by {@link #reconfigureConnector(String)},
+     * {@link #reloadSslContext()} and {@link #reloadSettings()}.
+     */
     private synchronized void restartServer() {
         stop();
         start();
     }
 
+    /**
+     * Replaces a connector of the running server with one created from the current configuration, leaving the other
+     * connector alone. The old connector stops accepting, but keeps its established connections until they close or
+     * {@link #HTTP_BIND_DRAIN_TIMEOUT} passes. BOSH sessions outlive their connections, so clients that are cut off
+     * at that time continue on the new connector.
+     *
+     * When the new connector cannot be started (for example, because its port is in use) the old one is kept.
+     *
+     * @param name {@link #HTTP_BIND_CONNECTOR_PLAIN} or {@link #HTTP_BIND_CONNECTOR_SECURE}.
+     */
+    private synchronized void reconfigureConnector(String name) {
+        final Server server = httpBindServer;
+        if (server == null) {
+            // neither connector could be created before; the server is started at boot, not from here
+            final XMPPServer xmppServer = XMPPServer.getInstance();
+            if (xmppServer != null && xmppServer.isStarted()) {
+                start();
+            }
+            return;
+        }
+
+        final ServerConnector old = getConnector(name);
+        final ServerConnector replacement = HTTP_BIND_CONNECTOR_SECURE.equals(name) ? createSSLConnector(server) : createConnector(server);
+
+        if (HttpBindConnectors.replace(server, name, old, replacement)) {
+            retireConnector(server, old);
+        }
+    }
+
+    private void retireConnector(Server server, ServerConnector connector) {
+        HttpBindConnectors.detach(server, connector);
+        retiringConnectors.add(connector);
+
+        final long deadline = System.currentTimeMillis() + JiveGlobals.getLongProperty(HTTP_BIND_DRAIN_TIMEOUT, HTTP_BIND_DRAIN_TIMEOUT_DEFAULT);
+        TaskEngine.getInstance().schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (connector.isRunning() && !connector.getConnectedEndPoints().isEmpty() && System.currentTimeMillis() < deadline) {
+                    return;
+                }
+                TaskEngine.getInstance().cancelScheduledTask(this);
+                stopRetiredConnector(connector);
+            }
+        }, 1000, 1000);
+    }
+
+    private void stopRetiredConnector(ServerConnector connector) {
+        if (retiringConnectors.remove(connector)) {
+            try {
+                final int open = connector.getConnectedEndPoints().size();
+                connector.stop();
+                Log.debug("HTTP binding: stopped replaced {} connector, closing {} connections", connector.getName(), open);
+            }
+            catch (Exception e) {
+                Log.warn("Unable to stop replaced HTTP binding connector {}", connector, e);
+            }
+        }
+    }
+
+    /**
+     * Applies the current certificates and client certificate policy to the secure connector. The TLS configuration
+     * is reloaded in place: established connections keep their session, and new handshakes use the new
+     * configuration. The secure connector is created or removed when the first certificate is added or the last one
+     * is removed.
+     */
+    private synchronized void reloadSslContext() {
+        if (httpBindServer == null) {
+            return;
+        }
+
+        final ServerConnector connector = getConnector(HTTP_BIND_CONNECTOR_SECURE);
+        final SslConnectionFactory ssl = (connector == null) ? null : connector.getConnectionFactory(SslConnectionFactory.class);
+        try {
+            final SslContextFactory configured = (getHttpBindSecurePort() > 0) ? createSslContextFactory() : null;
+            if (ssl == null || configured == null) {
+                reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
+                return;
+            }
+
+            HttpBindConnectors.reloadSslContext(ssl.getSslContextFactory(), configured);
+            Log.info("HTTP binding: reloaded the TLS configuration of the secure connector");
+        }
+        catch (Exception e) {
+            Log.error("Error reloading the TLS configuration of the HTTP binding secure connector, replacing the connector", e);
+            reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
+        }
+    }
+
+    /**
+     * Replaces the CORS and proxy header settings with a snapshot of the current properties. Takes effect with the
+     * next request.
+     */
+    private void reloadSettings() {
+        settings = HttpBindSettings.load(this);
+    }
+
+    /**
+     * Returns true if the property configures the connectors, which are replaced when it changes.
+     */
+    private static boolean isConnectorProperty(String property) {
+        final String name = property.toLowerCase();
+        return (name.startsWith("httpbind.http2.") || name.startsWith("httpbind.connector."))
+            && !HTTP_BIND_DRAIN_TIMEOUT.equalsIgnoreCase(property);
+    }
+
     @Override
     public void propertySet(String property, Map<String, Object> params) {
         if (property.equalsIgnoreCase(HTTP_BIND_ENABLED)) {
@@ -845,7 +1204,7 @@ public final class HttpBindManager implements CertificateEventListener, Property
                 JiveGlobals.deleteProperty(HTTP_BIND_PORT);
                 return;
             }
-            restartServer();
+            reconfigureConnector(HTTP_BIND_CONNECTOR_PLAIN);
         }
         else if (property.equalsIgnoreCase(HTTP_BIND_SECURE_PORT)) {
             try {
@@ -855,11 +1214,24 @@ public final class HttpBindManager implements CertificateEventListener, Property
                 JiveGlobals.deleteProperty(HTTP_BIND_SECURE_PORT);
                 return;
             }
-            restartServer();
+            reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
         }
         else if (HTTP_BIND_AUTH_PER_CLIENTCERT_POLICY.equalsIgnoreCase( property )) {
+            reloadSslContext();
+        }
+        else if (HTTP_BIND_THREAD_MODE.equalsIgnoreCase( property ) && httpBindServer != null) {
             restartServer();
         }
+        else if (isConnectorProperty( property ) && httpBindServer != null) {
+            reconfigureConnector(HTTP_BIND_CONNECTOR_PLAIN);
+            reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
+        }
+        else if (property.toLowerCase().startsWith( "httpbind.tls." ) && httpBindServer != null) {
+            reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
+        }
+        else if (HttpBindSettings.isSetting( property )) {
+            reloadSettings();
+        }
     }
 
     @Override
@@ -868,14 +1240,27 @@ public final class HttpBindManager implements CertificateEventListener, Property
             doEnableHttpBind(HTTP_BIND_ENABLED_DEFAULT);
         }
         else if (property.equalsIgnoreCase(HTTP_BIND_PORT)) {
-            restartServer();
+            reconfigureConnector(HTTP_BIND_CONNECTOR_PLAIN);
         }
         else if (property.equalsIgnoreCase(HTTP_BIND_SECURE_PORT)) {
-            restartServer();
+            reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
         }
         else if (HTTP_BIND_AUTH_PER_CLIENTCERT_POLICY.equalsIgnoreCase( property )) {
+            reloadSslContext();
+        }
+        else if (HTTP_BIND_THREAD_MODE.equalsIgnoreCase( property ) && httpBindServer != null) {
             restartServer();
         }
+        else if (isConnectorProperty( property ) && httpBindServer != null) {
+            reconfigureConnector(HTTP_BIND_CONNECTOR_PLAIN);
+            reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
+        }
+        else if (property.toLowerCase().startsWith( "httpbind.tls." ) && httpBindServer != null) {
+            reconfigureConnector(HTTP_BIND_CONNECTOR_SECURE);
+        }
+        else if (HttpBindSettings.isSetting( property )) {
+            reloadSettings();
+        }
     }
 
     @Override
@@ -889,6 +1274,6 @@ public final class HttpBindManager implements CertificateEventListener, Property
     @Override
     public void storeContentChanged( CertificateStore store )
     {
-        restartServer();
+        reloadSslContext();
     }
 }
@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.openfire.http;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.eclipse.jetty.server.ForwardedRequestCustomizer;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.jivesoftware.util.JiveGlobals;
+
+/**
+ * An immutable snapshot of the HTTP binding settings that are applied per request: CORS and the proxy (X-Forwarded-*)
+ * headers. A new snapshot replaces the old one when any of these properties change, so a request either sees all of
+ * the old settings or all of the new ones, and the connectors need not be recreated.
+ */
+final class HttpBindSettings {
+
+    private final boolean corsEnabled;
+
+    /**
+     * The allowed origins, or null when all origins are allowed.
+     */
+    private final Set<String> allowedOrigins;
+
+    /**
+     * The customizer applying the proxy headers, or null when they are ignored.
+     */
+    private final ForwardedRequestCustomizer forwardedCustomizer;
+
+    private HttpBindSettings(boolean corsEnabled, Set<String> allowedOrigins, ForwardedRequestCustomizer forwardedCustomizer) {
+        this.corsEnabled = corsEnabled;
+        this.allowedOrigins = allowedOrigins;
+        this.forwardedCustomizer = forwardedCustomizer;
+    }
+
+    /**
+     * Reads the current settings from the properties of the given manager.
+     *
+     * @param manager the HTTP binding manager.
+     * @return the settings (never null).
+     */
+    static HttpBindSettings load(HttpBindManager manager) {
+        final boolean corsEnabled = JiveGlobals.getBooleanProperty(HttpBindManager.HTTP_BIND_CORS_ENABLED, HttpBindManager.HTTP_BIND_CORS_ENABLED_DEFAULT);
+
+        return create(corsEnabled, manager.getCORSAllowOrigin(), manager.isXFFEnabled() ? createForwardedCustomizer(manager) : null);
+    }
+
+    /**
+     * Creates settings from the given values.
+     *
+     * @param corsEnabled true if CORS is enabled.
+     * @param originString the comma separated allowed origins, or {@link HttpBindManager#HTTP_BIND_CORS_ALLOW_ORIGIN_DEFAULT}.
+     * @param forwardedCustomizer the customizer applying the proxy headers, or null when they are ignored.
+     * @return the settings.
+     */
+    static HttpBindSettings create(boolean corsEnabled, String originString, ForwardedRequestCustomizer forwardedCustomizer) {
+        final Set<String> origins = HttpBindManager.HTTP_BIND_CORS_ALLOW_ORIGIN_DEFAULT.equals(originString) ? null :
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(originString.split(","))));
+
+        return new HttpBindSettings(corsEnabled, origins, forwardedCustomizer);
+    }
+
+    /**
+     * Creates a request customizer that applies the proxy headers of the settings current at each request. It is
+     * installed on every connector, so that enabling or changing the proxy headers does not require new connectors.
+     *
+     * @param settings supplies the current settings.
+     * @return the customizer.
+     */
+    static HttpConfiguration.Customizer forwardedCustomizer(Supplier<HttpBindSettings> settings) {
+        return (connector, channelConfig, request) -> {
+            final ForwardedRequestCustomizer customizer = settings.get().getForwardedCustomizer();
+            if (customizer != null) {
+                customizer.customize(connector, channelConfig, request);
+            }
+        };
+    }
+
+    private static ForwardedRequestCustomizer createForwardedCustomizer(HttpBindManager manager) {
+        // Refer to http://eclipse.org/jetty/documentation/current/configuring-connectors.html
+        final ForwardedRequestCustomizer customizer = new ForwardedRequestCustomizer();
+        // default: "X-Forwarded-For"
+        final String forwardedForHeader = manager.getXFFHeader();
+        if (forwardedForHeader != null) {
+            customizer.setForwardedForHeader(forwardedForHeader);
+        }
+        // default: "X-Forwarded-Server"
+        final String forwardedServerHeader = manager.getXFFServerHeader();
+        if (forwardedServerHeader != null) {
+            customizer.setForwardedServerHeader(forwardedServerHeader);
+        }
+        // default: "X-Forwarded-Host"
+        final String forwardedHostHeader = manager.getXFFHostHeader();
+        if (forwardedHostHeader != null) {
+            customizer.setForwardedHostHeader(forwardedHostHeader);
+        }
+        // default: none
+        final String hostName = manager.getXFFHostName();
+        if (hostName != null) {
+            customizer.setHostHeader(hostName);
+        }
+        return customizer;
+    }
+
+    boolean isCORSEnabled() {
+        return corsEnabled;
+    }
+
+    boolean isAllOriginsAllowed() {
+        return allowedOrigins == null;
+    }
+
+    boolean isOriginAllowed(String origin) {
+        return allowedOrigins == null || allowedOrigins.contains(origin);
+    }
+
+    ForwardedRequestCustomizer getForwardedCustomizer() {
+        return forwardedCustomizer;
+    }
+
+    /**
+     * Returns true if the given property is one of the settings held by a snapshot.
+     *
+     * @param property the property name.
+     * @return true if a change of the property requires a new snapshot.
+     */
+    static boolean isSetting(String property) {
+        final String name = property.toLowerCase();
+        return name.startsWith("httpbind.cors.") || name.startsWith("httpbind.forwarded.");
+    }
+}
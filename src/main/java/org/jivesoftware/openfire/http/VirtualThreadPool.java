@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.openfire.http;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.eclipse.jetty.util.thread.TryExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Jetty thread pool that runs every task on a new virtual thread.
+ *
+ * Virtual threads are only available on Java 21 and later (or 19 and 20 with preview features enabled). The pool is
+ * compiled against Java 8, so the virtual thread factory is looked up reflectively; use {@link #isSupported()} before
+ * creating one.
+ *
+ * There is no upper bound on the number of threads: a blocked request parks its virtual thread rather than holding a
+ * pooled platform thread. Jetty's selectors also run on this pool; the JDK compensates for their blocking selects by
+ * temporarily adding carrier threads. Code that blocks while holding a monitor pins its carrier thread for the
+ * duration.
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool, TryExecutor {
+
+    private static final Logger Log = LoggerFactory.getLogger(VirtualThreadPool.class);
+
+    private static final ThreadFactory FACTORY_TEMPLATE = lookupFactory("jetty-virtual-");
+
+    private final ThreadFactory threadFactory;
+
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder started = new LongAdder();
+
+    /**
+     * Creates a pool whose threads are named after the given prefix.
+     *
+     * @param name the thread name prefix.
+     * @throws IllegalStateException when virtual threads are not available on this JVM.
+     */
+    public VirtualThreadPool(String name) {
+        if (!isSupported()) {
+            throw new IllegalStateException("Virtual threads are not available on this JVM");
+        }
+        this.threadFactory = lookupFactory(name + "-");
+    }
+
+    /**
+     * Returns true if this JVM can create virtual threads.
+     *
+     * @return true if virtual threads are available.
+     */
+    public static boolean isSupported() {
+        return FACTORY_TEMPLATE != null;
+    }
+
+    private static ThreadFactory lookupFactory(String prefix) {
+        try {
+            // Thread.ofVirtual().name(prefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+        catch (RuntimeException e) {
+            // e.g. UnsupportedOperationException when preview features are not enabled
+            Log.debug("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!isRunning()) {
+            throw new RejectedExecutionException(this + " is not running");
+        }
+
+        final Thread thread = threadFactory.newThread(() -> {
+            try {
+                task.run();
+            }
+            catch (Throwable t) {
+                Log.warn("Uncaught exception in virtual thread", t);
+            }
+            finally {
+                threads.remove(Thread.currentThread());
+            }
+        });
+        threads.add(thread);
+        started.increment();
+        thread.start();
+    }
+
+    @Override
+    public boolean tryExecute(Runnable task) {
+        // a new thread is always available, so Jetty may hand off production and keep consuming on the calling thread
+        try {
+            execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getStopTimeout());
+        while (!threads.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        while (isRunning() || !threads.isEmpty()) {
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Returns the number of live virtual threads, all of which are busy.
+     *
+     * @return the number of live threads.
+     */
+    @Override
+    public int getThreads() {
+        return threads.size();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    /**
+     * Returns the number of virtual threads started since the pool was created.
+     *
+     * @return the number of started threads.
+     */
+    public long getStartedThreads() {
+        return started.sum();
+    }
+}
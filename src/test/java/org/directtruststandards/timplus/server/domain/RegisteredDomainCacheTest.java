@@ -0,0 +1,123 @@
+package org.directtruststandards.timplus.server.domain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class RegisteredDomainCacheTest
+{
+	protected final Set<String> registered = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	protected final AtomicInteger loads = new AtomicInteger();
+
+	protected final RegisteredDomainCache cache = new RegisteredDomainCache()
+	{
+		@Override
+		protected boolean loadRegistration(String domain)
+		{
+			loads.incrementAndGet();
+			return registered.contains(domain);
+		}
+	};
+
+	@AfterEach
+	public void tearDown()
+	{
+		RegisteredDomainCache.getInstance().clear();
+	}
+
+	@Test
+	public void testIsRegisteredDomain_cached()
+	{
+		registered.add("domain.com");
+
+		assertTrue(cache.isRegisteredDomain("domain.com"));
+		assertTrue(cache.isRegisteredDomain("DOMAIN.com"));
+
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testIsRegisteredDomain_expired_reloads() throws Exception
+	{
+		cache.setTtl(50);
+		registered.add("domain.com");
+
+		assertTrue(cache.isRegisteredDomain("domain.com"));
+
+		registered.remove("domain.com");
+		assertTrue(cache.isRegisteredDomain("domain.com"));
+
+		Thread.sleep(100);
+
+		assertFalse(cache.isRegisteredDomain("domain.com"));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testIsRegisteredDomain_negativeTtl() throws Exception
+	{
+		cache.setTtl(60000);
+		cache.setNegativeTtl(50);
+
+		assertFalse(cache.isRegisteredDomain("domain.com"));
+
+		registered.add("domain.com");
+		assertFalse(cache.isRegisteredDomain("domain.com"));
+
+		Thread.sleep(100);
+
+		assertTrue(cache.isRegisteredDomain("domain.com"));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testMaxEntries_bounded()
+	{
+		cache.setMaxEntries(10);
+
+		for (int i = 0; i < 100; ++i)
+			cache.isRegisteredDomain("domain" + i + ".com");
+
+		assertTrue(cache.size() <= 10);
+	}
+
+	@Test
+	public void testClusterUpdateTask_updatesCache() throws Exception
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream out = new ObjectOutputStream(bytes))
+		{
+			new DomainCacheUpdateTask("Domain.com").writeExternal(out);
+		}
+
+		final DomainCacheUpdateTask task = new DomainCacheUpdateTask();
+		try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+		{
+			task.readExternal(in);
+		}
+
+		final RegisteredDomainCache instance = RegisteredDomainCache.getInstance();
+		final long misses = instance.getMisses();
+
+		task.run();
+		assertTrue(instance.isRegisteredDomain("domain.com"));
+
+		// the answer came from the update, not the DomainManager
+		assertEquals(misses, instance.getMisses());
+	}
+}
@@ -0,0 +1,59 @@
+package org.directtruststandards.timplus.server.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControlFilterTest
+{
+	@BeforeEach
+	public void setUp()
+	{
+		RegisteredDomainCache.getInstance().domainUpdated("domain.com", true);
+		RegisteredDomainCache.getInstance().domainUpdated("spoofed.com", false);
+	}
+
+	@AfterEach
+	public void tearDown()
+	{
+		RegisteredDomainCache.getInstance().clear();
+	}
+
+	@Test
+	public void testGetDomain_host()
+	{
+		final AdmissionControlFilter filter = new AdmissionControlFilter(AdmissionController.Endpoint.HTTP_BIND, () -> false, false);
+
+		assertEquals("domain.com", filter.getDomain(request("DOMAIN.com", "/http-bind/", null)));
+		assertEquals(AdmissionControlFilter.UNKNOWN_DOMAIN, filter.getDomain(request("spoofed.com", "/http-bind/", null)));
+	}
+
+	@Test
+	public void testGetDomain_apiPathVariable()
+	{
+		final AdmissionControlFilter filter = new AdmissionControlFilter(AdmissionController.Endpoint.API, () -> false, false);
+
+		// the host header is ignored for the REST API
+		assertEquals("domain.com", filter.getDomain(request("spoofed.com", "/api/domains/domain.com/exists", null)));
+		assertEquals(AdmissionControlFilter.UNKNOWN_DOMAIN, filter.getDomain(request("domain.com", "/api/domains/spoofed.com/exists", null)));
+		assertEquals(AdmissionControlFilter.UNKNOWN_DOMAIN, filter.getDomain(request("domain.com", "/api/domains/create", null)));
+		assertEquals("domain.com", filter.getDomain(request("domain.com", "/api", "/domains/domain.com/exists")));
+	}
+
+	protected static HttpServletRequest request(String host, String servletPath, String pathInfo)
+	{
+		final HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getServerName()).thenReturn(host);
+		when(request.getServletPath()).thenReturn(servletPath);
+		when(request.getPathInfo()).thenReturn(pathInfo);
+
+		return request;
+	}
+}
@@ -0,0 +1,139 @@
+package org.directtruststandards.timplus.server.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.junit.jupiter.api.Test;
+
+public class StaticAssetServletTest
+{
+	protected static final long LAST_MODIFIED = 1600000000123L;
+
+	@Test
+	public void testSelectEncoding_prefersBrotli()
+	{
+		final StaticAssetServlet.Asset asset = asset(true, true);
+
+		assertEquals(StaticAssetServlet.BROTLI, StaticAssetServlet.selectEncoding(asset, "gzip, br"));
+		assertEquals(StaticAssetServlet.BROTLI, StaticAssetServlet.selectEncoding(asset, "gzip;q=0.5, BR;q=0.8"));
+		assertEquals(StaticAssetServlet.GZIP, StaticAssetServlet.selectEncoding(asset, "gzip, deflate"));
+		assertNull(StaticAssetServlet.selectEncoding(asset, "identity"));
+		assertNull(StaticAssetServlet.selectEncoding(asset, null));
+	}
+
+	@Test
+	public void testSelectEncoding_refused()
+	{
+		final StaticAssetServlet.Asset asset = asset(true, true);
+
+		assertEquals(StaticAssetServlet.GZIP, StaticAssetServlet.selectEncoding(asset, "br;q=0, gzip"));
+		assertEquals(StaticAssetServlet.GZIP, StaticAssetServlet.selectEncoding(asset, "br; q=0.0, gzip;q=1"));
+		assertNull(StaticAssetServlet.selectEncoding(asset, "br;q=0, gzip;q=0"));
+	}
+
+	@Test
+	public void testSelectEncoding_missingVariant()
+	{
+		assertEquals(StaticAssetServlet.GZIP, StaticAssetServlet.selectEncoding(asset(true, false), "gzip, br"));
+		assertNull(StaticAssetServlet.selectEncoding(asset(true, false), "br"));
+		assertEquals(StaticAssetServlet.BROTLI, StaticAssetServlet.selectEncoding(asset(false, true), "gzip, br"));
+		assertNull(StaticAssetServlet.selectEncoding(asset(false, false), "gzip, br"));
+	}
+
+	@Test
+	public void testSelectEncoding_wildcard()
+	{
+		final StaticAssetServlet.Asset asset = asset(true, true);
+
+		assertEquals(StaticAssetServlet.BROTLI, StaticAssetServlet.selectEncoding(asset, "*"));
+		assertEquals(StaticAssetServlet.GZIP, StaticAssetServlet.selectEncoding(asset, "br;q=0, *"));
+		assertNull(StaticAssetServlet.selectEncoding(asset, "*;q=0"));
+		assertEquals(StaticAssetServlet.GZIP, StaticAssetServlet.selectEncoding(asset, "gzip, *;q=0"));
+	}
+
+	@Test
+	public void testIsRefused()
+	{
+		assertTrue(StaticAssetServlet.isRefused("q=0"));
+		assertTrue(StaticAssetServlet.isRefused(" Q=0.000"));
+		assertTrue(StaticAssetServlet.isRefused("level=1; q=0"));
+		assertTrue(StaticAssetServlet.isRefused("q=invalid"));
+		assertFalse(StaticAssetServlet.isRefused("q=0.001"));
+		assertFalse(StaticAssetServlet.isRefused("level=1"));
+	}
+
+	@Test
+	public void testGetETag_perEncoding()
+	{
+		final StaticAssetServlet.Asset asset = asset(true, true);
+
+		assertEquals("\"tag\"", asset.getETag(null));
+		assertEquals("\"tag-gzip\"", asset.getETag(StaticAssetServlet.GZIP));
+		assertEquals("\"tag-br\"", asset.getETag(StaticAssetServlet.BROTLI));
+	}
+
+	@Test
+	public void testIsNotModified_ifNoneMatch()
+	{
+		final StaticAssetServlet.Asset asset = asset(true, true);
+		final String etag = asset.getETag(StaticAssetServlet.GZIP);
+
+		assertTrue(StaticAssetServlet.isNotModified(request(etag, -1), asset, etag));
+		assertTrue(StaticAssetServlet.isNotModified(request("\"other\", " + etag, -1), asset, etag));
+		assertTrue(StaticAssetServlet.isNotModified(request("W/" + etag, -1), asset, etag));
+		assertTrue(StaticAssetServlet.isNotModified(request("*", -1), asset, etag));
+		assertFalse(StaticAssetServlet.isNotModified(request(asset.getETag(null), -1), asset, etag));
+	}
+
+	@Test
+	public void testIsNotModified_ifNoneMatchTakesPrecedence()
+	{
+		final StaticAssetServlet.Asset asset = asset(true, true);
+		final String etag = asset.getETag(null);
+
+		// a date that alone would be not modified is ignored when the tags don't match
+		assertFalse(StaticAssetServlet.isNotModified(request("\"other\"", LAST_MODIFIED + 60000), asset, etag));
+		// and a date that alone would be modified is ignored when they do
+		assertTrue(StaticAssetServlet.isNotModified(request(etag, LAST_MODIFIED - 60000), asset, etag));
+	}
+
+	@Test
+	public void testIsNotModified_ifModifiedSince()
+	{
+		final StaticAssetServlet.Asset asset = asset(true, true);
+		final String etag = asset.getETag(null);
+
+		// HTTP dates have second precision
+		assertTrue(StaticAssetServlet.isNotModified(request(null, LAST_MODIFIED - 123), asset, etag));
+		assertTrue(StaticAssetServlet.isNotModified(request(null, LAST_MODIFIED + 60000), asset, etag));
+		assertFalse(StaticAssetServlet.isNotModified(request(null, LAST_MODIFIED - 1000), asset, etag));
+		assertFalse(StaticAssetServlet.isNotModified(request(null, -1), asset, etag));
+	}
+
+	protected static StaticAssetServlet.Asset asset(boolean gzip, boolean brotli)
+	{
+		final ByteBuffer content = ByteBuffer.wrap("content".getBytes(StandardCharsets.UTF_8));
+
+		return new StaticAssetServlet.Asset(LAST_MODIFIED, content.remaining(), "text/plain", content,
+				gzip ? ByteBuffer.allocate(1) : null, brotli ? ByteBuffer.allocate(1) : null, "tag");
+	}
+
+	protected static HttpServletRequest request(String ifNoneMatch, long ifModifiedSince)
+	{
+		final HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getHeader(HttpHeader.IF_NONE_MATCH.asString())).thenReturn(ifNoneMatch);
+		when(request.getDateHeader(HttpHeader.IF_MODIFIED_SINCE.asString())).thenReturn(ifModifiedSince);
+
+		return request;
+	}
+}
@@ -0,0 +1,99 @@
+package org.directtruststandards.timplus.server.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketLimiterTest
+{
+	@Test
+	public void testAcquire_disabled()
+	{
+		final TokenBucketLimiter limiter = new TokenBucketLimiter(0, 1, 10);
+
+		assertFalse(limiter.isEnabled());
+		for (int i = 0; i < 100; ++i)
+			assertEquals(0, limiter.acquire("client"));
+
+		assertEquals(0, limiter.size());
+	}
+
+	@Test
+	public void testAcquire_burstThenRate()
+	{
+		// one token per second, so nothing is regained while the test runs
+		final TokenBucketLimiter limiter = new TokenBucketLimiter(1, 5, 10);
+		final long interval = TimeUnit.SECONDS.toNanos(1);
+
+		for (int i = 0; i < 5; ++i)
+			assertEquals(0, limiter.acquire("client"));
+
+		// the bucket is empty: the next token arrives one interval after the last one was taken
+		final long wait = limiter.acquire("client");
+		assertTrue(wait > interval - TimeUnit.MILLISECONDS.toNanos(500) && wait <= interval, "wait " + wait);
+
+		// a rejected request takes nothing, so the wait doesn't grow
+		assertTrue(limiter.acquire("client") <= wait);
+
+		// keys are independent
+		assertEquals(0, limiter.acquire("other"));
+	}
+
+	@Test
+	public void testAcquire_regainsTokens() throws Exception
+	{
+		// a token every 10ms
+		final TokenBucketLimiter limiter = new TokenBucketLimiter(100, 2, 10);
+
+		assertEquals(0, limiter.acquire("client"));
+		assertEquals(0, limiter.acquire("client"));
+		assertTrue(limiter.acquire("client") > 0);
+
+		Thread.sleep(30);
+
+		// a full bucket again, but never more than the burst
+		assertEquals(0, limiter.acquire("client"));
+		assertEquals(0, limiter.acquire("client"));
+		assertTrue(limiter.acquire("client") > 0);
+	}
+
+	@Test
+	public void testGetBucket_purgesFullBuckets() throws Exception
+	{
+		final TokenBucketLimiter limiter = new TokenBucketLimiter(1000, 1, 2);
+
+		assertEquals(0, limiter.acquire("a"));
+		assertEquals(0, limiter.acquire("b"));
+		assertEquals(2, limiter.size());
+
+		// both buckets refill after 1ms and are dropped to make room
+		Thread.sleep(10);
+
+		assertEquals(0, limiter.acquire("c"));
+		assertEquals(1, limiter.size());
+		assertFalse(limiter.buckets.containsKey(TokenBucketLimiter.OVERFLOW_KEY));
+	}
+
+	@Test
+	public void testGetBucket_overflowShared()
+	{
+		final TokenBucketLimiter limiter = new TokenBucketLimiter(1, 1, 2);
+
+		assertEquals(0, limiter.acquire("a"));
+		assertEquals(0, limiter.acquire("b"));
+
+		// neither bucket is full, so new keys share the overflow bucket
+		assertEquals(0, limiter.acquire("c"));
+		assertTrue(limiter.acquire("d") > 0);
+		assertTrue(limiter.buckets.containsKey(TokenBucketLimiter.OVERFLOW_KEY));
+		assertFalse(limiter.buckets.containsKey("c"));
+		assertFalse(limiter.buckets.containsKey("d"));
+
+		// tracked keys keep their own buckets
+		assertTrue(limiter.acquire("a") > 0);
+	}
+}
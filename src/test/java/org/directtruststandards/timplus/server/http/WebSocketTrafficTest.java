@@ -0,0 +1,63 @@
+package org.directtruststandards.timplus.server.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+public class WebSocketTrafficTest
+{
+	@Test
+	public void testGetTotal_countsClosedConnections()
+	{
+		final long before = WebSocketTraffic.getTotal(WebSocketTraffic.Counter.FRAMES_IN);
+
+		final WebSocketTraffic.Connection connection = new WebSocketTraffic.Connection();
+		WebSocketTraffic.open(connection);
+		connection.add(WebSocketTraffic.Counter.FRAMES_IN, 3);
+
+		assertEquals(before + 3, WebSocketTraffic.getTotal(WebSocketTraffic.Counter.FRAMES_IN));
+
+		WebSocketTraffic.close(connection);
+
+		assertEquals(before + 3, WebSocketTraffic.getTotal(WebSocketTraffic.Counter.FRAMES_IN));
+		assertEquals(3, connection.get(WebSocketTraffic.Counter.FRAMES_IN));
+	}
+
+	@Test
+	public void testGetTotal_neverGoesBackwards() throws Exception
+	{
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		final Thread connections = new Thread(() ->
+		{
+			while (running.get())
+			{
+				final WebSocketTraffic.Connection connection = new WebSocketTraffic.Connection();
+				WebSocketTraffic.open(connection);
+				for (int i = 0; i < 10; ++i)
+					connection.add(WebSocketTraffic.Counter.FRAMES_OUT, 1);
+				WebSocketTraffic.close(connection);
+			}
+		});
+		connections.start();
+
+		try
+		{
+			long last = 0;
+			for (int i = 0; i < 200000; ++i)
+			{
+				final long total = WebSocketTraffic.getTotal(WebSocketTraffic.Counter.FRAMES_OUT);
+				assertTrue(total >= last, total + " < " + last);
+				last = total;
+			}
+		}
+		finally
+		{
+			running.set(false);
+			connections.join();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.QName;
+import org.jivesoftware.smackx.amp.AMPDeliverCondition;
+import org.jivesoftware.smackx.amp.packet.AMPExtension;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketExtension;
+
+public class AMPReceiptTemplateTest
+{
+	protected static final JID RECIPIENT = new JID("recipient", "domain.com", "mobile");
+
+	protected static final JID SENDER = new JID("sender", "domain.com", "desktop");
+
+	protected final AMPReceiptTemplate template = new AMPReceiptTemplate();
+
+	@Test
+	public void testCreate_matchesDirectConstruction()
+	{
+		for (AMPDeliverCondition.Value value : AMPDeliverCondition.Value.values())
+		{
+			assertEquals(construct(RECIPIENT, SENDER, "1234", RECIPIENT.toBareJID(), SENDER.toString(), value.name()).toXML(),
+					template.create(RECIPIENT, SENDER, "1234", RECIPIENT.toBareJID(), SENDER.toString(), value.name()).toXML());
+		}
+
+		assertEquals(construct(RECIPIENT, null, "1234", RECIPIENT.toBareJID(), null, "direct").toXML(),
+				template.create(RECIPIENT, null, "1234", RECIPIENT.toBareJID(), null, "direct").toXML());
+	}
+
+	@Test
+	public void testCreate_roundTrip() throws Exception
+	{
+		final Message receipt = template.create(RECIPIENT, SENDER, "1234", RECIPIENT.toBareJID(), SENDER.toString(), "direct");
+
+		final Message parsed = new Message(DocumentHelper.parseText(receipt.toXML()).getRootElement());
+
+		// the receipt keeps the full address the message was delivered to
+		assertEquals(RECIPIENT, parsed.getFrom());
+		assertEquals(SENDER, parsed.getTo());
+		assertEquals("1234", parsed.getID());
+
+		final Element amp = parsed.getElement().element(QName.get(AMPExtension.ELEMENT, AMPExtension.NAMESPACE));
+		assertEquals(AMPExtension.Status.notify.name(), amp.attributeValue("status"));
+		assertEquals(RECIPIENT.toBareJID(), amp.attributeValue("to"));
+		assertEquals(SENDER.toString(), amp.attributeValue("from"));
+
+		final Element rule = amp.element(AMPExtension.Rule.ELEMENT);
+		assertEquals(AMPExtension.Action.notify.name(), rule.attributeValue(AMPExtension.Action.ATTRIBUTE_NAME));
+		assertEquals(AMPDeliverCondition.NAME, rule.attributeValue(AMPExtension.Condition.ATTRIBUTE_NAME));
+		assertEquals("direct", rule.attributeValue("value"));
+
+		// and building it again from what was read gives the same stanza
+		assertEquals(receipt.toXML(), template.create(parsed.getFrom(), parsed.getTo(), parsed.getID(), 
+				amp.attributeValue("to"), amp.attributeValue("from"), rule.attributeValue("value")).toXML());
+	}
+
+	@Test
+	public void testCreate_copiesAreIndependent()
+	{
+		final Message first = template.create(RECIPIENT, SENDER, "1", RECIPIENT.toBareJID(), null, "direct");
+		final Message second = template.create(SENDER, RECIPIENT, "2", SENDER.toBareJID(), RECIPIENT.toString(), "stored");
+
+		assertEquals(RECIPIENT, first.getFrom());
+		assertEquals("1", first.getID());
+		assertNull(first.getElement().element(AMPExtension.ELEMENT).attribute("from"));
+		assertEquals(SENDER, second.getFrom());
+		assertEquals("2", second.getID());
+	}
+
+	/*
+	 * The per delivery construction the template replaced
+	 */
+	protected Message construct(JID from, JID to, String id, String ampTo, String ampFrom, String value)
+	{
+		final Message msg = new Message();
+		msg.setFrom(from);
+		msg.setTo(to);
+		msg.setID(id);
+
+		final PacketExtension amp = new PacketExtension(AMPExtension.ELEMENT, AMPExtension.NAMESPACE);
+		final Element ampElement = amp.getElement();
+		ampElement.addAttribute("status", AMPExtension.Status.notify.name());
+		ampElement.addAttribute("to", ampTo);
+		ampElement.addAttribute("from", ampFrom);
+
+		final Element ruleElement = ampElement.addElement(new QName(AMPExtension.Rule.ELEMENT));
+		ruleElement.addAttribute(AMPExtension.Action.ATTRIBUTE_NAME, AMPExtension.Action.notify.name());
+		ruleElement.addAttribute(AMPExtension.Condition.ATTRIBUTE_NAME, AMPDeliverCondition.NAME);
+		ruleElement.addAttribute("value", value);
+
+		msg.addExtension(amp);
+
+		return msg;
+	}
+}
@@ -0,0 +1,104 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.directtruststandards.timplus.monitor.impl.DefaultTxParser;
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetail;
+import org.directtruststandards.timplus.monitor.tx.model.TxDetailType;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketError;
+
+public class DefaultPacketTxParserTest
+{
+	protected static final String ID = "d8f3c1a6-5a1b-4f0a-9a8e-1b2c3d4e5f60";
+
+	protected final DefaultTxParser stringParser = new DefaultTxParser();
+
+	protected final DefaultPacketTxParser packetParser = new DefaultPacketTxParser(stringParser);
+
+	@Test
+	public void testParsePacket_chat_fastPathMatchesStanzaParser()
+	{
+		final Message message = message(Message.Type.chat, "bob@domain.com");
+
+		assertNotNull(packetParser.parseMessageElement(message.getElement()));
+		assertSameTx(stringParser.parseStanza(message.toXML()), packetParser.parsePacket(message));
+	}
+
+	@Test
+	public void testParsePacket_groupchat_fastPathMatchesStanzaParser()
+	{
+		final Message message = message(Message.Type.groupchat, "room@conference.domain.com");
+
+		assertNotNull(packetParser.parseMessageElement(message.getElement()));
+		assertSameTx(stringParser.parseStanza(message.toXML()), packetParser.parsePacket(message));
+	}
+
+	@Test
+	public void testParsePacket_amp_matchesStanzaParser()
+	{
+		final Message message = new AMPReceiptTemplate().create(new JID("bob@domain.com/desktop"), new JID("alice@domain.com"),
+				ID, "bob@domain.com", "alice@domain.com/mobile", "direct");
+
+		assertNull(packetParser.parseMessageElement(message.getElement()));
+		assertSameTx(stringParser.parseStanza(message.toXML()), packetParser.parsePacket(message));
+	}
+
+	@Test
+	public void testParsePacket_error_matchesStanzaParser()
+	{
+		final Message message = message(Message.Type.chat, "bob@domain.com");
+		message.setError(PacketError.Condition.recipient_unavailable);
+
+		assertNull(packetParser.parseMessageElement(message.getElement()));
+		assertSameTx(stringParser.parseStanza(message.toXML()), packetParser.parsePacket(message));
+	}
+
+	@Test
+	public void testParsePacket_noBody_matchesStanzaParser()
+	{
+		final Message message = message(Message.Type.chat, "bob@domain.com");
+		message.setBody(null);
+		message.setThread("thread-1");
+
+		assertNull(packetParser.parseMessageElement(message.getElement()));
+		assertSameTx(stringParser.parseStanza(message.toXML()), packetParser.parsePacket(message));
+	}
+
+	protected static Message message(Message.Type type, String to)
+	{
+		final Message message = new Message();
+		message.setType(type);
+		message.setID(ID);
+		message.setFrom("alice@domain.com/mobile");
+		message.setTo(to);
+		message.setBody("Patient results for review are attached to the referral record.");
+
+		return message;
+	}
+
+	protected static void assertSameTx(Tx expected, Tx actual)
+	{
+		if (expected == null)
+		{
+			assertNull(actual);
+			return;
+		}
+
+		assertNotNull(actual);
+		assertEquals(expected.getStanzaType(), actual.getStanzaType());
+
+		for (TxDetailType type : new TxDetailType[] {TxDetailType.FROM, TxDetailType.RECIPIENTS, TxDetailType.MSG_ID})
+			assertEquals(detailValue(expected.getDetail(type)), detailValue(actual.getDetail(type)), type.getType());
+	}
+
+	protected static String detailValue(TxDetail detail)
+	{
+		return (detail != null) ? detail.getDetailValue() : null;
+	}
+}
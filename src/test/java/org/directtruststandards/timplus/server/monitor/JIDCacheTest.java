@@ -0,0 +1,56 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+
+public class JIDCacheTest
+{
+	@Test
+	public void testGetJID_countsOncePerCall()
+	{
+		final JIDCache cache = new JIDCache();
+
+		final JID jid = cache.getJID("user@domain.com/res");
+		assertSame(jid, cache.getJID("user@domain.com/res"));
+
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testGetBareJID_countsOncePerCall()
+	{
+		final JIDCache cache = new JIDCache();
+
+		final JID bare = cache.getBareJID("user@domain.com/res");
+		assertEquals(new JID("user@domain.com"), bare);
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		assertSame(bare, cache.getBareJID("user@domain.com/res"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// the full JID parsed for the bare lookup is reused, and counted as a hit only when asked for
+		cache.getJID("user@domain.com/res");
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testGetJID_previousGenerationHit()
+	{
+		final JIDCache cache = new JIDCache(4);
+
+		final JID jid = cache.getJID("user0@domain.com");
+		cache.getJID("user1@domain.com");
+		cache.getJID("user2@domain.com");
+
+		assertSame(jid, cache.getJID("user0@domain.com"));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+}
@@ -0,0 +1,67 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.directtruststandards.timplus.monitor.tx.TxParser;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.integration.store.MessageGroupStore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MonitorMeterBinderTest
+{
+	protected final AbstractPacketMonitor monitor = mock(AbstractPacketMonitor.class, 
+			withSettings().useConstructor(mock(TxParser.class)).defaultAnswer(Mockito.CALLS_REAL_METHODS));
+
+	protected final MeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	public void testBindTo_backlog_withoutPartitionedAggregator()
+	{
+		final AtomicInteger backlog = new AtomicInteger(42);
+
+		final MonitorMeterBinder binder = new MonitorMeterBinder(monitor);
+		binder.setBacklog(backlog::get);
+		binder.bindTo(registry);
+
+		assertEquals(42, registry.get("timplus.monitor.backlog").gauge().value());
+		assertEquals(0, registry.get("timplus.monitor.aggregator.backlog").gauge().value());
+
+		backlog.set(7);
+		assertEquals(7, registry.get("timplus.monitor.backlog").gauge().value());
+	}
+
+	@Test
+	public void testBindTo_groupCount_cachedBetweenScrapes() throws Exception
+	{
+		final MessageGroupStore store = mock(MessageGroupStore.class);
+		when(store.getMessageGroupCount()).thenReturn(5, 9);
+
+		final MonitorMeterBinder binder = new MonitorMeterBinder(monitor);
+		binder.setGroupStore(store);
+		binder.setGroupCountInterval(50);
+		binder.bindTo(registry);
+
+		for (int i = 0; i < 10; ++i)
+			assertEquals(5, registry.get("timplus.monitor.aggregator.groups").gauge().value());
+		verify(store, times(1)).getMessageGroupCount();
+
+		// the first scrape after the interval reads the store again
+		final long deadline = System.currentTimeMillis() + 5000;
+		double groups;
+		while ((groups = registry.get("timplus.monitor.aggregator.groups").gauge().value()) == 5 && System.currentTimeMillis() < deadline)
+			Thread.sleep(5);
+
+		assertEquals(9, groups);
+		verify(store, times(2)).getMessageGroupCount();
+	}
+}
@@ -0,0 +1,104 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class OverloadControllerTest
+{
+	protected static final String SENDER = "sender@domain.com";
+
+	protected final OverloadController controller = new OverloadController(1000, 5000, 20000, 5, 20, 0.25, 100);
+
+	@Test
+	public void testShouldTrack_normal_tracksEverything()
+	{
+		for (int i = 0; i < 1000; ++i)
+		{
+			assertTrue(controller.shouldTrack("id" + i, SENDER));
+			assertFalse(controller.isSampledOut("id" + i, SENDER));
+		}
+
+		assertEquals(0, controller.getSampledOut());
+	}
+
+	@Test
+	public void testShouldTrack_sampling_deterministicRatio()
+	{
+		controller.level = OverloadController.Level.SAMPLING;
+
+		int tracked = 0;
+		for (int i = 0; i < 10000; ++i)
+		{
+			final boolean track = controller.shouldTrack("id" + i, SENDER);
+			if (track)
+				++tracked;
+
+			// every notification for the message gets the same answer
+			assertEquals(!track, controller.isSampledOut("id" + i, SENDER));
+			assertEquals(!track, controller.isSampledOut("id" + i, SENDER));
+			assertEquals(track, controller.inSample("id" + i, SENDER));
+		}
+
+		assertTrue(tracked > 2000 && tracked < 3000, "tracked " + tracked);
+		assertEquals(10000 - tracked, controller.getSampledOut());
+		assertEquals(2 * (10000 - tracked), controller.getSkippedNotifications());
+	}
+
+	@Test
+	public void testIsSampledOut_levelChanges()
+	{
+		final List<String> outOfSample = new ArrayList<>();
+		for (int i = 0; outOfSample.size() < 2; ++i)
+			if (!controller.inSample("id" + i, SENDER))
+				outOfSample.add("id" + i);
+
+		// tracked before sampling started, so its notifications are still tracked while sampling
+		assertTrue(controller.shouldTrack(outOfSample.get(0), SENDER));
+		controller.level = OverloadController.Level.SAMPLING;
+		assertFalse(controller.isSampledOut(outOfSample.get(0), SENDER));
+
+		// sampled out, so its notifications are skipped after the load drops
+		assertFalse(controller.shouldTrack(outOfSample.get(1), SENDER));
+		controller.level = OverloadController.Level.NORMAL;
+		assertTrue(controller.isSampledOut(outOfSample.get(1), SENDER));
+
+		// a different sender's message with the same id was never sampled out
+		assertFalse(controller.isSampledOut(outOfSample.get(1), "other@domain.com"));
+	}
+
+	@Test
+	public void testIsSampledOut_expires() throws Exception
+	{
+		controller.setSampledOutTtl(50);
+		controller.level = OverloadController.Level.SAMPLING;
+
+		String id = null;
+		for (int i = 0; id == null; ++i)
+			if (!controller.shouldTrack("id" + i, SENDER))
+				id = "id" + i;
+
+		assertTrue(controller.isSampledOut(id, SENDER));
+
+		Thread.sleep(100);
+
+		assertFalse(controller.isSampledOut(id, SENDER));
+	}
+
+	@Test
+	public void testShouldTrack_sampledOutBounded()
+	{
+		controller.setMaxSampledOut(10);
+		controller.level = OverloadController.Level.SAMPLING;
+
+		for (int i = 0; i < 1000; ++i)
+			controller.shouldTrack("id" + i, SENDER);
+
+		assertTrue(controller.sampledOutMessages.size() <= 10);
+	}
+}
@@ -0,0 +1,76 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.directtruststandards.timplus.server.domain.RegisteredDomainCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketError;
+
+public class PacketPreFilterTest
+{
+	protected final PacketMonitorStats stats = new PacketMonitorStats();
+
+	protected final PacketPreFilter filter = new PacketPreFilter(stats);
+
+	@BeforeEach
+	public void setUp()
+	{
+		RegisteredDomainCache.getInstance().domainUpdated("domain.com", true);
+		RegisteredDomainCache.getInstance().domainUpdated("remote.com", false);
+	}
+
+	@AfterEach
+	public void tearDown()
+	{
+		RegisteredDomainCache.getInstance().clear();
+	}
+
+	@Test
+	public void testEvaluate_decisions()
+	{
+		final Message chat = message("alice@domain.com/mobile", "bob@domain.com");
+		final Message amp = new AMPReceiptTemplate().create(new JID("bob@domain.com/desktop"), new JID("alice@domain.com"),
+				"id-1", "bob@domain.com", "alice@domain.com/mobile", "direct");
+		final Message error = message("bob@domain.com", "alice@domain.com/mobile");
+		error.setError(PacketError.Condition.recipient_unavailable);
+
+		assertEquals(PacketPreFilter.Decision.TRACK_SENT, filter.evaluate(chat, true, false));
+		assertEquals(PacketPreFilter.Decision.ACKNOWLEDGE, filter.evaluate(chat, false, true));
+		assertEquals(PacketPreFilter.Decision.TRACK_NOTIFICATION, filter.evaluate(amp, false, false));
+		assertEquals(PacketPreFilter.Decision.TRACK_NOTIFICATION, filter.evaluate(error, false, false));
+	}
+
+	@Test
+	public void testEvaluate_rejects()
+	{
+		final Message chat = message("alice@domain.com/mobile", "bob@domain.com");
+
+		assertEquals(PacketPreFilter.Decision.REJECT, filter.evaluate(chat, true, true));
+		assertEquals(1, stats.getRejectedByFlags());
+
+		// a plain message on its way to a client is only acknowledged once delivered
+		assertEquals(PacketPreFilter.Decision.REJECT, filter.evaluate(chat, false, false));
+		assertEquals(1, stats.getRejectedByStanza());
+
+		// the sender of an outgoing message and the recipient of a delivery must be local
+		assertEquals(PacketPreFilter.Decision.REJECT, filter.evaluate(message("carol@remote.com/desktop", "bob@domain.com"), true, false));
+		assertEquals(PacketPreFilter.Decision.REJECT, filter.evaluate(message("alice@domain.com/mobile", "carol@remote.com"), false, true));
+		assertEquals(2, stats.getRejectedByDomain());
+	}
+
+	protected static Message message(String from, String to)
+	{
+		final Message message = new Message();
+		message.setType(Message.Type.chat);
+		message.setID("id-1");
+		message.setFrom(from);
+		message.setTo(to);
+		message.setBody("body");
+
+		return message;
+	}
+}
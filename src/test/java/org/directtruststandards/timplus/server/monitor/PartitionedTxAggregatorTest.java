@@ -0,0 +1,109 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.directtruststandards.timplus.monitor.condition.TxReleaseStrategy;
+import org.directtruststandards.timplus.monitor.condition.TxTimeoutCondition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.integration.channel.NullChannel;
+import org.springframework.integration.store.MessageGroupStore;
+import org.springframework.integration.store.SimpleMessageStore;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.support.locks.DefaultLockRegistry;
+import org.springframework.messaging.Message;
+
+public class PartitionedTxAggregatorTest
+{
+	protected static final String KEY = "key";
+
+	protected static final String SEQUENCE = "sequence";
+
+	protected final Map<Object, List<Integer>> aggregated = new ConcurrentHashMap<>();
+
+	protected PartitionedTxAggregator aggregator;
+
+	@AfterEach
+	public void tearDown()
+	{
+		if (aggregator != null)
+			aggregator.stop();
+	}
+
+	@Test
+	public void testHandleMessage_shardQueuesFull_keepsOrderPerKey()
+	{
+		final SimpleMessageStore store = new SimpleMessageStore();
+
+		// a single slot per shard queue and a slow worker keep the publisher running into full queues
+		aggregator = new PartitionedTxAggregator(2, 1, m -> m.getHeaders().get(KEY), mock(TxReleaseStrategy.class), noTimeout(),
+				i -> store, i -> new DefaultLockRegistry())
+		{
+			@Override
+			protected void aggregate(Shard shard, Message<?> message)
+			{
+				aggregated.computeIfAbsent(message.getHeaders().get(KEY), k -> new ArrayList<>()).add(message.getHeaders().get(SEQUENCE, Integer.class));
+				LockSupport.parkNanos(20_000);
+
+				super.aggregate(shard, message);
+			}
+		};
+		aggregator.setOutputChannel(new NullChannel());
+		aggregator.setBeanFactory(new DefaultListableBeanFactory());
+		aggregator.afterPropertiesSet();
+		aggregator.start();
+
+		final int keys = 8;
+		final int perKey = 200;
+		for (int seq = 0; seq < perKey; ++seq)
+			for (int key = 0; key < keys; ++key)
+				aggregator.handleMessage(MessageBuilder.withPayload("tx").setHeader(KEY, "group-" + key).setHeader(SEQUENCE, seq).build());
+
+		aggregator.stop();
+
+		final List<Integer> expected = IntStream.range(0, perKey).boxed().collect(Collectors.toList());
+		assertEquals(keys, aggregated.size());
+		for (Map.Entry<Object, List<Integer>> entry : aggregated.entrySet())
+			assertEquals(expected, entry.getValue(), "Txs of " + entry.getKey() + " out of order");
+
+		assertEquals(keys * perKey, store.getMessageCountForAllMessageGroups());
+	}
+
+	@Test
+	public void testHandleMessage_afterStop_aggregatesOnCaller()
+	{
+		final MessageGroupStore store = new SimpleMessageStore();
+
+		aggregator = new PartitionedTxAggregator(2, 1, m -> m.getHeaders().get(KEY), mock(TxReleaseStrategy.class), noTimeout(),
+				i -> store, i -> new DefaultLockRegistry());
+		aggregator.setOutputChannel(new NullChannel());
+		aggregator.setBeanFactory(new DefaultListableBeanFactory());
+		aggregator.afterPropertiesSet();
+		aggregator.start();
+		aggregator.stop();
+
+		aggregator.handleMessage(MessageBuilder.withPayload("tx").setHeader(KEY, "group").build());
+
+		assertEquals(1, store.messageGroupSize("group"));
+	}
+
+	protected static TxTimeoutCondition noTimeout()
+	{
+		final TxTimeoutCondition condition = mock(TxTimeoutCondition.class);
+		when(condition.getTimeout(any())).thenReturn(null);
+
+		return condition;
+	}
+}
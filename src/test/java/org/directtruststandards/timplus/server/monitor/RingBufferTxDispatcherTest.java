@@ -0,0 +1,199 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.directtruststandards.timplus.monitor.tx.model.Tx;
+import org.directtruststandards.timplus.monitor.tx.model.TxStanzaType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.MessageChannel;
+
+public class RingBufferTxDispatcherTest
+{
+	protected final List<Tx> sent = Collections.synchronizedList(new ArrayList<>());
+
+	protected final CountDownLatch workerBusy = new CountDownLatch(1);
+
+	protected final CountDownLatch releaseWorker = new CountDownLatch(1);
+
+	/*
+	 * Blocks the worker on the first Tx so the following ones stay in the buffer
+	 */
+	protected final MessageChannel channel = (message, timeout) ->
+	{
+		sent.add((Tx)message.getPayload());
+		if (workerBusy.getCount() == 0)
+			return true;
+		
+		workerBusy.countDown();
+		try
+		{
+			releaseWorker.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	};
+
+	protected RingBufferTxDispatcher dispatcher;
+
+	@AfterEach
+	public void tearDown()
+	{
+		releaseWorker.countDown();
+		if (dispatcher != null)
+			dispatcher.stop();
+	}
+
+	@Test
+	public void testPublish_notStarted_sendsOnCallerThread()
+	{
+		releaseWorker.countDown();
+		dispatcher = new RingBufferTxDispatcher(channel, 1, 1, RingBufferTxDispatcher.OverflowPolicy.DROP_AND_COUNT);
+
+		final Tx tx = newTx();
+		assertTrue(dispatcher.publish(tx));
+
+		assertEquals(1, sent.size());
+		assertSame(tx, sent.get(0));
+	}
+
+	@Test
+	public void testPublish_dropAndCount_discardsNewTx() throws Exception
+	{
+		final Tx first = newTx();
+		final Tx second = newTx();
+		final Tx third = newTx();
+		final Tx fourth = newTx();
+
+		dispatcher = startWithBusyWorker(RingBufferTxDispatcher.OverflowPolicy.DROP_AND_COUNT, first);
+
+		assertTrue(dispatcher.publish(second));
+		assertTrue(dispatcher.publish(third));
+		assertFalse(dispatcher.publish(fourth));
+
+		assertEquals(1, dispatcher.getDropped());
+		assertEquals(2, dispatcher.getBuffered());
+
+		releaseWorker.countDown();
+		dispatcher.stop();
+
+		assertEquals(List.of(first, second, third), sent);
+	}
+
+	@Test
+	public void testPublish_dropOldest_discardsOldestTx() throws Exception
+	{
+		final Tx first = newTx();
+		final Tx second = newTx();
+		final Tx third = newTx();
+		final Tx fourth = newTx();
+
+		dispatcher = startWithBusyWorker(RingBufferTxDispatcher.OverflowPolicy.DROP_OLDEST, first);
+
+		assertTrue(dispatcher.publish(second));
+		assertTrue(dispatcher.publish(third));
+		assertTrue(dispatcher.publish(fourth));
+
+		assertEquals(1, dispatcher.getDropped());
+		assertEquals(2, dispatcher.getBuffered());
+
+		releaseWorker.countDown();
+		dispatcher.stop();
+
+		assertEquals(List.of(first, third, fourth), sent);
+	}
+
+	@Test
+	public void testPublish_block_waitsForRoom() throws Exception
+	{
+		final Tx first = newTx();
+		final Tx second = newTx();
+		final Tx third = newTx();
+		final Tx fourth = newTx();
+
+		dispatcher = startWithBusyWorker(RingBufferTxDispatcher.OverflowPolicy.BLOCK, first);
+
+		assertTrue(dispatcher.publish(second));
+		assertTrue(dispatcher.publish(third));
+
+		final CountDownLatch published = new CountDownLatch(1);
+		final Thread publisher = new Thread(() ->
+		{
+			dispatcher.publish(fourth);
+			published.countDown();
+		});
+		publisher.start();
+
+		assertFalse(published.await(200, TimeUnit.MILLISECONDS));
+
+		releaseWorker.countDown();
+		assertTrue(published.await(5, TimeUnit.SECONDS));
+
+		dispatcher.stop();
+
+		assertEquals(0, dispatcher.getDropped());
+		assertEquals(List.of(first, second, third, fourth), sent);
+	}
+
+	@Test
+	public void testPublish_block_stoppedWhileWaiting_losesNothing() throws Exception
+	{
+		final Tx first = newTx();
+		final Tx second = newTx();
+		final Tx third = newTx();
+		final Tx fourth = newTx();
+
+		dispatcher = startWithBusyWorker(RingBufferTxDispatcher.OverflowPolicy.BLOCK, first);
+
+		assertTrue(dispatcher.publish(second));
+		assertTrue(dispatcher.publish(third));
+
+		final CountDownLatch published = new CountDownLatch(1);
+		final Thread publisher = new Thread(() ->
+		{
+			dispatcher.publish(fourth);
+			published.countDown();
+		});
+		publisher.start();
+
+		assertFalse(published.await(200, TimeUnit.MILLISECONDS));
+
+		// the worker exits without taking anything else from the buffer
+		dispatcher.stop();
+
+		assertTrue(published.await(5, TimeUnit.SECONDS));
+		assertEquals(0, dispatcher.getBuffered());
+		assertEquals(0, dispatcher.getDropped());
+		assertEquals(4, sent.size());
+		assertTrue(sent.containsAll(List.of(first, second, third, fourth)));
+	}
+
+	protected RingBufferTxDispatcher startWithBusyWorker(RingBufferTxDispatcher.OverflowPolicy policy, Tx first) throws Exception
+	{
+		final RingBufferTxDispatcher started = new RingBufferTxDispatcher(channel, 2, 1, policy);
+		started.start();
+
+		started.publish(first);
+		assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+
+		return started;
+	}
+
+	protected static Tx newTx()
+	{
+		return new Tx(TxStanzaType.MESSAGE, new HashMap<>());
+	}
+}
@@ -0,0 +1,169 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Presence;
+
+public class RoomOccupantCacheTest
+{
+	protected static final JID ROOM = new JID("room@conference.domain.com");
+
+	protected final AtomicInteger loads = new AtomicInteger();
+
+	protected final Function<JID, Map<JID, JID>> loader = room ->
+	{
+		loads.incrementAndGet();
+		return Collections.singletonMap(new JID(room.getNode(), room.getDomain(), "nick"), new JID("user@domain.com/res"));
+	};
+
+	@Test
+	public void testGetSnapshot_cached()
+	{
+		final RoomOccupantCache cache = new RoomOccupantCache();
+
+		final RoomOccupantSnapshot snapshot = cache.getSnapshot(ROOM, loader);
+
+		assertSame(snapshot, cache.getSnapshot(ROOM, loader));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testMUCEvents_invalidateSnapshot()
+	{
+		final RoomOccupantCache cache = new RoomOccupantCache();
+		final JID user = new JID("user@domain.com/res");
+
+		cache.getSnapshot(ROOM, loader);
+		cache.occupantJoined(ROOM, user, "nick");
+		cache.getSnapshot(ROOM, loader);
+		cache.nicknameChanged(ROOM, user, "nick", "other");
+		cache.getSnapshot(ROOM, loader);
+		cache.occupantLeft(ROOM, user);
+		cache.getSnapshot(ROOM, loader);
+		cache.roomDestroyed(ROOM);
+		cache.getSnapshot(ROOM, loader);
+
+		assertEquals(5, loads.get());
+
+		// events that don't change the occupants keep the snapshot
+		cache.roomSubjectChanged(ROOM, user, "subject");
+		cache.messageReceived(ROOM, user, "nick", null);
+		cache.getSnapshot(ROOM, loader);
+
+		assertEquals(5, loads.get());
+	}
+
+	@Test
+	public void testGetSnapshot_invalidatedWhileLoading_notCached()
+	{
+		final RoomOccupantCache cache = new RoomOccupantCache();
+		final JID otherRoom = new JID("other@conference.domain.com");
+
+		// the room changes while its occupants are read
+		cache.getSnapshot(ROOM, room ->
+		{
+			cache.invalidate(ROOM);
+			return loader.apply(room);
+		});
+		cache.getSnapshot(ROOM, loader);
+
+		assertEquals(2, loads.get());
+
+		// a change in another room doesn't stop the load from being cached
+		cache.getSnapshot(otherRoom, room ->
+		{
+			cache.invalidate(ROOM);
+			return loader.apply(room);
+		});
+		cache.getSnapshot(otherRoom, loader);
+
+		assertEquals(3, loads.get());
+	}
+
+	@Test
+	public void testPresenceIntercepted_onlyOccupantChanges()
+	{
+		final RoomOccupantCache cache = new RoomOccupantCache();
+		final JID nick = new JID("room", "conference.domain.com", "nick");
+		final JID joined = new JID("room", "conference.domain.com", "joined");
+
+		cache.getSnapshot(ROOM, loader);
+
+		// status update of a cached occupant and presences without muc#user
+		final Presence away = occupantPresence(nick, null);
+		away.setShow(Presence.Show.away);
+		cache.presenceIntercepted(away);
+		final Presence plain = new Presence();
+		plain.setFrom(joined);
+		cache.presenceIntercepted(plain);
+		cache.getSnapshot(ROOM, loader);
+
+		assertEquals(1, loads.get());
+
+		// join of an occupant that isn't in the snapshot
+		cache.presenceIntercepted(occupantPresence(joined, null));
+		cache.getSnapshot(ROOM, loader);
+
+		assertEquals(2, loads.get());
+
+		// leave of an occupant that is no longer in the snapshot (a later broadcast copy)
+		cache.presenceIntercepted(occupantPresence(joined, Presence.Type.unavailable));
+		cache.getSnapshot(ROOM, loader);
+
+		assertEquals(2, loads.get());
+
+		// leave or nickname change of a cached occupant
+		final Presence nickChange = occupantPresence(nick, Presence.Type.unavailable);
+		nickChange.getChildElement("x", RoomOccupantCache.MUC_USER_NAMESPACE).addElement("status").addAttribute("code", "303");
+		cache.presenceIntercepted(nickChange);
+		cache.getSnapshot(ROOM, loader);
+
+		assertEquals(3, loads.get());
+	}
+
+	protected static Presence occupantPresence(JID from, Presence.Type type)
+	{
+		final Presence presence = new Presence(type);
+		presence.setFrom(from);
+		presence.addChildElement("x", RoomOccupantCache.MUC_USER_NAMESPACE);
+		return presence;
+	}
+
+	@Test
+	public void testGetSnapshot_expired_reloads() throws Exception
+	{
+		final RoomOccupantCache cache = new RoomOccupantCache();
+		cache.setTtl(20);
+
+		final RoomOccupantSnapshot snapshot = cache.getSnapshot(ROOM, loader);
+		Thread.sleep(40);
+
+		assertNotSame(snapshot, cache.getSnapshot(ROOM, loader));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testGetSnapshot_full_staysBounded()
+	{
+		final RoomOccupantCache cache = new RoomOccupantCache();
+		cache.setMaxEntries(10);
+
+		for (int i = 0; i < 100; ++i)
+		{
+			cache.getSnapshot(new JID("room" + i + "@conference.domain.com"), loader);
+			assertTrue(cache.size() <= 10);
+		}
+	}
+}
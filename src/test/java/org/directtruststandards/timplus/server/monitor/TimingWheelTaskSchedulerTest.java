@@ -0,0 +1,157 @@
+package org.directtruststandards.timplus.server.monitor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelTaskSchedulerTest
+{
+	/*
+	 * 8 buckets of 10 ms, so any timeout over 80 ms needs more than one round of the wheel
+	 */
+	protected TimingWheelTaskScheduler scheduler;
+
+	@BeforeEach
+	public void setUp()
+	{
+		scheduler = new TimingWheelTaskScheduler(10, 8, 1, null);
+		scheduler.start();
+	}
+
+	@AfterEach
+	public void tearDown()
+	{
+		scheduler.stop();
+	}
+
+	@Test
+	public void testSchedule_firesInDeadlineOrderAndNeverEarly() throws Exception
+	{
+		final List<Integer> fired = Collections.synchronizedList(new ArrayList<>());
+		final List<String> early = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(4);
+
+		final long start = System.currentTimeMillis();
+		for (int delay : new int[] {250, 30, 170, 95})
+		{
+			scheduler.schedule(() ->
+			{
+				if (System.currentTimeMillis() - start < delay)
+					early.add(delay + " ms timeout fired after " + (System.currentTimeMillis() - start) + " ms");
+				fired.add(delay);
+				done.countDown();
+			}, new Date(start + delay));
+		}
+		assertEquals(4, scheduler.getPending());
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(30, 95, 170, 250), fired);
+		assertEquals(Collections.emptyList(), early);
+		assertEquals(0, scheduler.getPending());
+	}
+
+	@Test
+	public void testSchedule_multipleRounds_waitsForRemainingRounds() throws Exception
+	{
+		final CountDownLatch done = new CountDownLatch(1);
+		final long start = System.currentTimeMillis();
+
+		// four times around the wheel
+		final ScheduledFuture<?> future = scheduler.schedule(done::countDown, new Date(start + 330));
+
+		assertFalse(done.await(250, TimeUnit.MILLISECONDS));
+		assertFalse(future.isDone());
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 330);
+
+		future.get(1, TimeUnit.SECONDS);
+		assertTrue(future.isDone());
+	}
+
+	@Test
+	public void testCancel_taskNeverRuns() throws Exception
+	{
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch other = new CountDownLatch(1);
+		final long start = System.currentTimeMillis();
+
+		final ScheduledFuture<?> cancelled = scheduler.schedule(runs::incrementAndGet, new Date(start + 50));
+		final ScheduledFuture<?> inWheel = scheduler.schedule(runs::incrementAndGet, new Date(start + 150));
+		scheduler.schedule(other::countDown, new Date(start + 200));
+
+		assertTrue(cancelled.cancel(false));
+
+		// let the second one make it into a bucket before cancelling it
+		Thread.sleep(60);
+		assertTrue(inWheel.cancel(false));
+		assertFalse(inWheel.cancel(false));
+
+		assertTrue(other.await(5, TimeUnit.SECONDS));
+		assertEquals(0, runs.get());
+		assertTrue(cancelled.isCancelled());
+		assertTrue(inWheel.isCancelled());
+		assertEquals(0, scheduler.getPending());
+	}
+
+	@Test
+	public void testSchedule_tickerBehind_overflowsToFallback() throws Exception
+	{
+		// not started, so nothing leaves the new timeout queue
+		final TimingWheelTaskScheduler stalled = new TimingWheelTaskScheduler(10, 8, 1, null);
+		try
+		{
+			final long start = System.currentTimeMillis();
+			for (int i = 0; i < TimingWheelTaskScheduler.MAX_NEW_TIMEOUTS; ++i)
+				stalled.schedule(() -> {}, new Date(start + 180000));
+
+			final CountDownLatch fired = new CountDownLatch(1);
+			final ScheduledFuture<?> overflow = stalled.schedule(fired::countDown, new Date(start + 20));
+
+			assertFalse(overflow instanceof TimingWheelTaskScheduler.WheelTimeout);
+			assertTrue(fired.await(5, TimeUnit.SECONDS));
+			assertEquals(1, stalled.getOverflowed());
+			assertEquals(TimingWheelTaskScheduler.MAX_NEW_TIMEOUTS, stalled.getPending());
+
+			// once the ticker has made room, timeouts go to the wheel again
+			stalled.start();
+			final long deadline = System.currentTimeMillis() + 5000;
+			while (stalled.newTimeoutCount.get() > 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(5);
+
+			final CountDownLatch inWheel = new CountDownLatch(1);
+			assertTrue(stalled.schedule(inWheel::countDown, new Date(System.currentTimeMillis() + 20)) instanceof TimingWheelTaskScheduler.WheelTimeout);
+			assertTrue(inWheel.await(5, TimeUnit.SECONDS));
+			assertEquals(1, stalled.getOverflowed());
+		}
+		finally
+		{
+			stalled.stop();
+		}
+	}
+
+	@Test
+	public void testScheduleWithFixedDelay_noFallback_usesInternalScheduler() throws Exception
+	{
+		final CountDownLatch runs = new CountDownLatch(3);
+
+		final ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(runs::countDown, 10);
+
+		assertTrue(runs.await(5, TimeUnit.SECONDS));
+		future.cancel(false);
+	}
+}
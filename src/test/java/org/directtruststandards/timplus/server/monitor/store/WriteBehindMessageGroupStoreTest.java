@@ -0,0 +1,172 @@
+package org.directtruststandards.timplus.server.monitor.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.integration.store.MessageGroup;
+import org.springframework.integration.store.MessageGroupStore;
+import org.springframework.integration.store.SimpleMessageGroup;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
+
+public class WriteBehindMessageGroupStoreTest
+{
+	protected final MessageGroupStore persistentStore = mock(MessageGroupStore.class);
+
+	@Test
+	public void testFlush_consecutiveAdds_writtenTogether()
+	{
+		final WriteBehindMessageGroupStore store = new WriteBehindMessageGroupStore(persistentStore);
+
+		final Message<?> first = message("first");
+		final Message<?> second = message("second");
+		store.addMessagesToGroup("group", first);
+		store.addMessagesToGroup("group", second);
+		assertEquals(2, store.getPendingWrites());
+
+		assertEquals(2, store.flush(100));
+
+		verify(persistentStore).addMessagesToGroup("group", first, second);
+		verifyNoMoreInteractions(persistentStore);
+		assertEquals(0, store.getPendingWrites());
+	}
+
+	@Test
+	public void testFlush_groupRemovedInSameBatch_neverWritten()
+	{
+		final WriteBehindMessageGroupStore store = new WriteBehindMessageGroupStore(persistentStore);
+
+		store.addMessagesToGroup("group", message("sent"));
+		store.setLastReleasedSequenceNumberForGroup("group", 1);
+		store.completeGroup("group");
+		store.removeMessageGroup("group");
+
+		assertEquals(4, store.flush(100));
+
+		verifyNoInteractions(persistentStore);
+	}
+
+	@Test
+	public void testFlush_persistedGroupRemoved_deletedFromPersistentStore()
+	{
+		final WriteBehindMessageGroupStore store = new WriteBehindMessageGroupStore(persistentStore);
+
+		store.addMessagesToGroup("group", message("sent"));
+		store.flush(100);
+
+		store.removeMessageGroup("group");
+		store.flush(100);
+
+		verify(persistentStore).removeMessageGroup("group");
+	}
+
+	@Test
+	public void testFlush_batchSize_leavesRestPending()
+	{
+		final WriteBehindMessageGroupStore store = new WriteBehindMessageGroupStore(persistentStore);
+
+		final Message<?> one = message("one");
+		final Message<?> two = message("two");
+		store.addMessagesToGroup("group1", one);
+		store.addMessagesToGroup("group2", two);
+		store.addMessagesToGroup("group3", message("three"));
+
+		assertEquals(2, store.flush(2));
+		assertEquals(1, store.getPendingWrites());
+
+		verify(persistentStore).addMessagesToGroup("group1", one);
+		verify(persistentStore).addMessagesToGroup("group2", two);
+		verifyNoMoreInteractions(persistentStore);
+	}
+
+	@Test
+	public void testStart_recoversGroupsWithOriginalTimestamp()
+	{
+		final long created = System.currentTimeMillis() - 600_000;
+		final Message<?> sent = message("sent");
+		persistedGroups(new SimpleMessageGroup(Collections.singletonList(sent), "group", created, false));
+
+		final ShardedWriteBehindMessageGroupStore store = new ShardedWriteBehindMessageGroupStore(persistentStore, 4, 60_000, 100);
+		store.start();
+		try
+		{
+			final MessageGroup group = store.getMessageGroup("group");
+			assertEquals(created, group.getTimestamp());
+			assertEquals(1, group.size());
+			assertEquals(sent, group.getOne());
+
+			// recovered groups are not written back
+			assertEquals(0, store.getPendingWrites());
+
+			// groups created after recovery get the current time
+			store.addMessagesToGroup("other", message("other"));
+			assertTrue(store.getMessageGroup("other").getTimestamp() > created);
+		}
+		finally
+		{
+			store.stop();
+		}
+	}
+
+	@Test
+	public void testExpireMessageGroups_throughWrapper_expiresRecoveredGroups()
+	{
+		persistedGroups(new SimpleMessageGroup(Collections.singletonList(message("sent")), "recovered", System.currentTimeMillis() - 600_000, false));
+
+		final ShardedWriteBehindMessageGroupStore store = new ShardedWriteBehindMessageGroupStore(persistentStore, 4, 60_000, 100);
+		final List<Object> expired = new ArrayList<>();
+		store.registerMessageGroupExpiryCallback((groupStore, group) -> expired.add(group.getGroupId()));
+		store.start();
+		try
+		{
+			store.addMessagesToGroup("recent", message("recent"));
+
+			assertEquals(1, store.expireMessageGroups(300_000));
+			assertEquals(Collections.singletonList("recovered"), expired);
+		}
+		finally
+		{
+			store.stop();
+		}
+	}
+
+	@Test
+	public void testStop_flushesPendingWrites()
+	{
+		persistedGroups();
+
+		final ShardedWriteBehindMessageGroupStore store = new ShardedWriteBehindMessageGroupStore(persistentStore, 4, 60_000, 100);
+		store.start();
+
+		final Message<?> sent = message("sent");
+		store.addMessagesToGroup("group", sent);
+		verify(persistentStore).iterator();
+		verifyNoMoreInteractions(persistentStore);
+
+		store.stop();
+
+		verify(persistentStore).addMessagesToGroup("group", sent);
+		assertEquals(0, store.getPendingWrites());
+	}
+
+	protected void persistedGroups(MessageGroup... groups)
+	{
+		when(persistentStore.iterator()).thenReturn(Arrays.asList(groups).iterator());
+	}
+
+	protected static Message<?> message(String payload)
+	{
+		return MessageBuilder.withPayload(payload).build();
+	}
+}
@@ -0,0 +1,296 @@
+package org.jivesoftware.openfire.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.ForwardedRequestCustomizer;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the connector changes of {@link HttpBindManager} against a local Jetty server.
+ */
+public class HttpBindConnectorsTest {
+
+    private final AtomicReference<HttpBindSettings> settings = new AtomicReference<>(HttpBindSettings.create(false, "*", null));
+
+    private Server server;
+
+    @BeforeEach
+    public void setUp() {
+        server = new Server();
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                final HttpBindSettings current = settings.get();
+                final boolean cors = current.isCORSEnabled() && current.isOriginAllowed(request.getHeader("Origin"));
+                final byte[] body = (request.getRemoteAddr() + " " + cors).getBytes(StandardCharsets.UTF_8);
+
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                baseRequest.setHandled(true);
+            }
+        });
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void testReplace_portChange_keepsConnectionsOnRetiringConnector() throws Exception {
+        final ServerConnector old = connector(0);
+        server.addConnector(old);
+        server.start();
+        final int oldPort = old.getLocalPort();
+
+        try (Client client = new Client(new Socket("localhost", oldPort))) {
+            assertEquals("127.0.0.1 false", client.get());
+
+            final ServerConnector replacement = connector(0);
+            assertTrue(HttpBindConnectors.replace(server, "plain", old, replacement));
+            HttpBindConnectors.detach(server, old);
+
+            assertArrayEquals(new Connector[] { replacement }, server.getConnectors());
+            assertTrue(old.isRunning());
+
+            // the established connection is still served by the retiring connector
+            assertEquals("127.0.0.1 false", client.get());
+
+            try (Client other = new Client(new Socket("localhost", replacement.getLocalPort()))) {
+                assertEquals("127.0.0.1 false", other.get());
+            }
+            assertThrows(IOException.class, () -> new Socket("localhost", oldPort).close());
+        }
+        finally {
+            old.stop();
+        }
+    }
+
+    @Test
+    public void testReplace_bindFailure_reopensOldConnector() throws Exception {
+        final int port = freePort();
+        final ServerConnector old = connector(port);
+        server.addConnector(old);
+        server.start();
+
+        try (Client client = new Client(new Socket("localhost", port));
+             ServerSocket taken = new ServerSocket(0)) {
+            assertEquals("127.0.0.1 false", client.get());
+
+            final ServerConnector replacement = connector(taken.getLocalPort());
+            assertFalse(HttpBindConnectors.replace(server, "plain", old, replacement));
+
+            assertArrayEquals(new Connector[] { old }, server.getConnectors());
+            assertFalse(replacement.isRunning());
+
+            // the old connector kept its connection and accepts again on its port
+            assertEquals("127.0.0.1 false", client.get());
+            try (Client other = new Client(new Socket("localhost", port))) {
+                assertEquals("127.0.0.1 false", other.get());
+            }
+        }
+    }
+
+    @Test
+    public void testReloadSslContext_keepsOpenTlsSessions() throws Exception {
+        final SslContextFactory.Server running = new SslContextFactory.Server();
+        running.setSslContext(serverContext("first"));
+        final ServerConnector secure = new ServerConnector(server, running);
+        secure.setPort(0);
+        server.addConnector(secure);
+        server.start();
+
+        final SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, new TrustManager[] { new TrustAllManager() }, null);
+
+        final SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", secure.getLocalPort());
+        try (Client client = new Client(socket)) {
+            socket.startHandshake();
+            final SSLSession session = socket.getSession();
+            assertEquals("127.0.0.1 false", client.get());
+            assertEquals("CN=first.domain.com", peerName(socket));
+
+            final SslContextFactory.Server configured = new SslContextFactory.Server();
+            configured.setSslContext(serverContext("second"));
+            HttpBindConnectors.reloadSslContext(running, configured);
+
+            // the open connection keeps its session
+            assertEquals("127.0.0.1 false", client.get());
+            assertSame(session, socket.getSession());
+            assertEquals("CN=first.domain.com", peerName(socket));
+            assertArrayEquals(new Connector[] { secure }, server.getConnectors());
+
+            // new handshakes use the new certificate
+            final SSLSocket other = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", secure.getLocalPort());
+            try (Client otherClient = new Client(other)) {
+                other.startHandshake();
+                assertEquals("127.0.0.1 false", otherClient.get());
+                assertEquals("CN=second.domain.com", peerName(other));
+            }
+        }
+    }
+
+    @Test
+    public void testSettings_change_visibleOnNextRequestWithoutNewConnectors() throws Exception {
+        final ServerConnector connector = connector(0);
+        server.addConnector(connector);
+        server.start();
+
+        try (Client client = new Client(new Socket("localhost", connector.getLocalPort()))) {
+            assertEquals("127.0.0.1 false", client.get());
+
+            settings.set(HttpBindSettings.create(true, "https://app.domain.com", new ForwardedRequestCustomizer()));
+
+            // same connection and connector, new CORS and proxy header settings
+            assertEquals("10.1.2.3 true", client.get());
+            assertArrayEquals(new Connector[] { connector }, server.getConnectors());
+
+            settings.set(HttpBindSettings.create(true, "https://other.domain.com", null));
+
+            assertEquals("127.0.0.1 false", client.get());
+        }
+    }
+
+    private ServerConnector connector(int port) {
+        final HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.addCustomizer(HttpBindSettings.forwardedCustomizer(settings::get));
+
+        final ServerConnector connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig));
+        connector.setPort(port);
+        return connector;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static SSLContext serverContext(String name) throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = HttpBindConnectorsTest.class.getResourceAsStream("/httpbind/" + name + ".p12")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, "changeit".toCharArray());
+
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private static String peerName(SSLSocket socket) throws Exception {
+        return ((X509Certificate) socket.getSession().getPeerCertificates()[0]).getSubjectX500Principal().getName();
+    }
+
+    /**
+     * Sends keep-alive requests over one connection.
+     */
+    private static class Client implements AutoCloseable {
+
+        private final Socket socket;
+
+        private final InputStream in;
+
+        private final OutputStream out;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.socket.setSoTimeout(5000);
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+        }
+
+        String get() throws IOException {
+            out.write(("GET / HTTP/1.1\r\nHost: localhost\r\nOrigin: https://app.domain.com\r\nX-Forwarded-For: 10.1.2.3\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            int length = -1;
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring("content-length:".length()).trim());
+                }
+            }
+
+            final byte[] body = new byte[length];
+            for (int read = 0; read < length; ) {
+                final int n = in.read(body, read, length - read);
+                if (n < 0) {
+                    throw new IOException("Connection closed");
+                }
+                read += n;
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        private String readLine() throws IOException {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0) {
+                    throw new IOException("Connection closed");
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static class TrustAllManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}